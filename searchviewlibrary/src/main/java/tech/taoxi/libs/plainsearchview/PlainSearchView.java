@@ -22,6 +22,7 @@ import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.TypedArray;
@@ -41,7 +42,11 @@ import android.support.v7.graphics.drawable.DrawerArrowDrawable;
 import android.support.v7.view.menu.MenuBuilder;
 import android.support.v7.view.menu.MenuItemImpl;
 import android.support.v7.widget.CardView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
@@ -53,6 +58,21 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import tech.taoxi.libs.plainsearchview.history.SearchHistoryStore;
+import tech.taoxi.libs.plainsearchview.index.ScopedSearchProvider;
+import tech.taoxi.libs.plainsearchview.index.SearchScope;
+import tech.taoxi.libs.plainsearchview.search.InFlightCounter;
+import tech.taoxi.libs.plainsearchview.search.QueryEdit;
+import tech.taoxi.libs.plainsearchview.search.QueryExecutor;
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.QueryResultCache;
+import tech.taoxi.libs.plainsearchview.search.SearchProvider;
+import tech.taoxi.libs.plainsearchview.suggestions.SearchSuggestion;
+import tech.taoxi.libs.plainsearchview.suggestions.SuggestionsAdapter;
+import tech.taoxi.libs.plainsearchview.suggestions.SuggestionsFanOut;
+import tech.taoxi.libs.plainsearchview.util.DelayedProgressController;
+import tech.taoxi.libs.plainsearchview.util.QueryBuffer;
+import tech.taoxi.libs.plainsearchview.util.QueryChangeDispatcher;
 import tech.taoxi.libs.plainsearchview.util.Util;
 import tech.taoxi.libs.plainsearchview.util.adapter.TextWatcherAdapter;
 import tech.taoxi.libs.plainsearchview.util.view.MenuView;
@@ -61,6 +81,7 @@ import com.bartoszlipinski.viewpropertyobjectanimator.ViewPropertyObjectAnimator
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -80,6 +101,9 @@ public class PlainSearchView extends FrameLayout {
 
     private final static int MENU_ICON_ANIM_DURATION = 250;
 
+    private final static long PROGRESS_SHOW_DELAY_DEFAULT = 200;
+    private final static long PROGRESS_MIN_SHOW_TIME_DEFAULT = 500;
+
     public final static int LEFT_ACTION_MODE_SHOW_HAMBURGER = 1;
     public final static int LEFT_ACTION_MODE_SHOW_SEARCH = 2;
     public final static int LEFT_ACTION_MODE_SHOW_HOME = 3;
@@ -92,12 +116,25 @@ public class PlainSearchView extends FrameLayout {
     public @interface LeftActionMode {
     }
 
+    public final static int QUERY_DELIVERY_MODE_IMMEDIATE = QueryChangeDispatcher.MODE_IMMEDIATE;
+    public final static int QUERY_DELIVERY_MODE_DEBOUNCE = QueryChangeDispatcher.MODE_DEBOUNCE;
+    public final static int QUERY_DELIVERY_MODE_THROTTLE = QueryChangeDispatcher.MODE_THROTTLE;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({QUERY_DELIVERY_MODE_IMMEDIATE, QUERY_DELIVERY_MODE_DEBOUNCE, QUERY_DELIVERY_MODE_THROTTLE})
+    public @interface QueryDeliveryMode {
+    }
+
     @LeftActionMode
     private final static int ATTRS_SEARCH_BAR_LEFT_ACTION_MODE_DEFAULT = LEFT_ACTION_MODE_NO_LEFT_ACTION;
     private final static boolean ATTRS_DISMISS_ON_KEYBOARD_DISMISS_DEFAULT = false;
     private final static boolean ATTRS_SEARCH_BAR_SHOW_SEARCH_KEY_DEFAULT = true;
     private final static int ATTRS_QUERY_TEXT_SIZE_SP_DEFAULT = 18;
     private final static int ATTRS_SEARCH_BAR_MARGIN_DEFAULT = 0;
+    @QueryDeliveryMode
+    private final static int ATTRS_QUERY_DELIVERY_MODE_DEFAULT = QUERY_DELIVERY_MODE_IMMEDIATE;
+    private final static int ATTRS_QUERY_DELIVERY_DELAY_MS_DEFAULT = 300;
+    private final static boolean ATTRS_SHOW_PROGRESS_AUTOMATICALLY_DEFAULT = true;
 
     private Activity mHostActivity;
 
@@ -115,12 +152,26 @@ public class PlainSearchView extends FrameLayout {
     private int mSearchInputTextColor = -1;
     private int mSearchInputHintColor = -1;
     private View mSearchInputParent;
-    private String mOldQuery = "";
+    private final QueryBuffer mOldQuery = new QueryBuffer();
     private OnQueryChangeListener mQueryListener;
+    private OnQueryTextChangeListener mQueryTextListener;
+    private OnQueryEditListener mQueryEditListener;
+    private final QueryEdit mQueryEdit = new QueryEdit();
+    private QueryChangeDispatcher mQueryChangeDispatcher;
+    private QueryExecutor<?> mQueryExecutor;
+    private final InFlightCounter mInFlightCounter = new InFlightCounter();
+    private final QueryNormalizer mQueryNormalizer = QueryNormalizer.getDefault();
+    //the last query delivered, normalized when it is searched or asked for
+    private final QueryBuffer mDeliveredQuery = new QueryBuffer();
+    private String mNormalizedQuery = "";
+    private DelayedProgressController mProgressController;
+    private boolean mShowProgressAutomatically = ATTRS_SHOW_PROGRESS_AUTOMATICALLY_DEFAULT;
     private ImageView mLeftAction;
     private OnLeftMenuClickListener mOnMenuClickListener;
     private OnHomeActionClickListener mOnHomeActionClickListener;
     private ProgressBar mSearchProgress;
+    private ObjectAnimator mProgressFadeInAnim;
+    private ObjectAnimator mLeftActionFadeInAnim;
     private DrawerArrowDrawable mMenuBtnDrawable;
     private Drawable mIconBackArrow;
     private Drawable mIconSearch;
@@ -135,6 +186,7 @@ public class PlainSearchView extends FrameLayout {
     private int mActionMenuItemColor;
     private int mOverflowIconColor;
     private OnMenuItemClickListener mActionMenuItemListener;
+    private final SparseArray<ScopeBinding> mScopeBindings = new SparseArray<>();
     private ImageView mClearButton;
     private int mClearBtnColor;
     private Drawable mIconClear;
@@ -144,6 +196,14 @@ public class PlainSearchView extends FrameLayout {
 
     private OnClearSearchActionListener mOnClearSearchActionListener;
 
+    private CardView mSuggestionsSection;
+    private RecyclerView mSuggestionsList;
+    private SuggestionsAdapter mSuggestionsAdapter;
+    private OnSuggestionClickListener mOnSuggestionClickListener;
+    private SuggestionsFanOut mSuggestionsFanOut;
+
+    private SearchHistoryStore mHistoryStore;
+
 
     /**
      * Interface for implementing a listener to listen
@@ -162,6 +222,73 @@ public class PlainSearchView extends FrameLayout {
         void onSearchTextChanged(String oldQuery, String newQuery);
     }
 
+    /**
+     * Allocation free variant of {@link OnQueryChangeListener}.
+     * <p/>
+     * <p>The given CharSequences are views over the search view's
+     * internal state and are only valid for the duration of the
+     * callback. Call toString() on them if you need to keep them.</p>
+     */
+    public interface OnQueryTextChangeListener {
+
+        /**
+         * Called when the query has changed. It will
+         * be invoked when one or more characters in the
+         * query was changed.
+         *
+         * @param oldQuery the previous query
+         * @param newQuery the new query
+         */
+        void onSearchTextChanged(CharSequence oldQuery, CharSequence newQuery);
+    }
+
+    /**
+     * Interface for implementing a listener to listen
+     * to the individual edits of the query text.
+     */
+    public interface OnQueryEditListener {
+
+        /**
+         * Called for every edit of the query, as it is typed. Edits
+         * are not affected by the query delivery mode.
+         * <p/>
+         * Note: the edit instance is reused, it is only valid
+         * for the duration of the callback.
+         *
+         * @param edit describes what changed in the query
+         */
+        void onQueryEdited(QueryEdit edit);
+    }
+
+    /**
+     * Interface for implementing a listener to receive
+     * the results of the {@link SearchProvider} set with
+     * {@link #setSearchProvider(SearchProvider, OnSearchResultsListener)}.
+     * <p/>
+     * Both methods are called on the main thread and only for
+     * the latest query, results of queries the user already
+     * moved past are dropped.
+     */
+    public interface OnSearchResultsListener<T> {
+
+        /**
+         * Called when the provider returned the results
+         * for the current query.
+         *
+         * @param query   the query the results belong to
+         * @param results the results
+         */
+        void onSearchResults(String query, List<T> results);
+
+        /**
+         * Called when the provider failed for the current query.
+         *
+         * @param query the query that failed
+         * @param error the error thrown by the provider
+         */
+        void onSearchError(String query, Exception error);
+    }
+
     /**
      * Interface for implementing a listener to listen
      * to when the current search has completed.
@@ -269,6 +396,22 @@ public class PlainSearchView extends FrameLayout {
         void onClearSearchClicked();
     }
 
+    /**
+     * Interface for implementing a callback to be
+     * invoked when a suggestion in the suggestions
+     * section is clicked.
+     */
+    public interface OnSuggestionClickListener {
+
+        /**
+         * Called when a suggestion was clicked. The search
+         * loses focus right after this call.
+         *
+         * @param suggestion the clicked suggestion
+         */
+        void onSuggestionClicked(SearchSuggestion suggestion);
+    }
+
     public PlainSearchView(Context context) {
         this(context, null);
     }
@@ -280,6 +423,12 @@ public class PlainSearchView extends FrameLayout {
 
     private void init(AttributeSet attrs) {
         mHostActivity = Util.getHostActivity(getContext());
+        mQueryChangeDispatcher = new QueryChangeDispatcher(new QueryChangeDispatcher.Target() {
+            @Override
+            public void onDeliverQueryChange(CharSequence oldQuery, CharSequence newQuery) {
+                dispatchQueryChanged(oldQuery, newQuery);
+            }
+        });
 
         mMainLayout = inflate(getContext(), R.layout.plain_search_layout, this);
 
@@ -289,9 +438,32 @@ public class PlainSearchView extends FrameLayout {
         mSearchInputParent = findViewById(R.id.search_input_parent);
         mLeftAction =  findViewById(R.id.left_action);
         mSearchProgress =  findViewById(R.id.search_bar_search_progress);
+        mProgressFadeInAnim = ObjectAnimator.ofFloat(mSearchProgress, "alpha", 0.0f, 1.0f);
+        mLeftActionFadeInAnim = ObjectAnimator.ofFloat(mLeftAction, "alpha", 0.0f, 1.0f);
+        mProgressController = new DelayedProgressController(new DelayedProgressController.Target() {
+            @Override
+            public void showProgress() {
+                PlainSearchView.this.showProgress();
+            }
+
+            @Override
+            public void hideProgress() {
+                PlainSearchView.this.hideProgress();
+            }
+        }, PROGRESS_SHOW_DELAY_DEFAULT, PROGRESS_MIN_SHOW_TIME_DEFAULT);
+        mInFlightCounter.setOnIdleChangedListener(new InFlightCounter.OnIdleChangedListener() {
+            @Override
+            public void onIdleChanged(boolean idle) {
+                if (mShowProgressAutomatically) {
+                    mProgressController.setBusy(!idle);
+                }
+            }
+        });
         initDrawables();
         mClearButton.setImageDrawable(mIconClear);
         mMenuView =  findViewById(R.id.menu_view);
+        mSuggestionsSection = findViewById(R.id.search_suggestions_section);
+        mSuggestionsList = findViewById(R.id.search_suggestions_list);
 
         setupViews(attrs);
     }
@@ -309,6 +481,7 @@ public class PlainSearchView extends FrameLayout {
         }
 
         setupQueryBar();
+        setupSuggestionSection();
     }
 
     private void applyXmlAttributes(AttributeSet attrs) {
@@ -327,7 +500,7 @@ public class PlainSearchView extends FrameLayout {
             int searchBarRightMargin = a.getDimensionPixelSize(
                     R.styleable.PlainSearchView_psv_searchBarMarginRight,
                     ATTRS_SEARCH_BAR_MARGIN_DEFAULT);
-            LayoutParams querySectionLP = (LayoutParams) mQuerySection.getLayoutParams();
+            MarginLayoutParams querySectionLP = (MarginLayoutParams) mQuerySection.getLayoutParams();
             querySectionLP.setMargins(searchBarLeftMargin, searchBarTopMargin,
                     searchBarRightMargin, 0);
             mQuerySection.setLayoutParams(querySectionLP);
@@ -339,6 +512,13 @@ public class PlainSearchView extends FrameLayout {
                     ATTRS_SEARCH_BAR_SHOW_SEARCH_KEY_DEFAULT));
             setCloseSearchOnKeyboardDismiss(a.getBoolean(R.styleable.PlainSearchView_psv_close_search_on_keyboard_dismiss,
                     ATTRS_DISMISS_ON_KEYBOARD_DISMISS_DEFAULT));
+            //noinspection ResourceType
+            setQueryDeliveryMode(a.getInt(R.styleable.PlainSearchView_psv_queryDeliveryMode,
+                    ATTRS_QUERY_DELIVERY_MODE_DEFAULT),
+                    a.getInt(R.styleable.PlainSearchView_psv_queryDeliveryDelay,
+                            ATTRS_QUERY_DELIVERY_DELAY_MS_DEFAULT));
+            setShowProgressAutomatically(a.getBoolean(R.styleable.PlainSearchView_psv_showProgressAutomatically,
+                    ATTRS_SHOW_PROGRESS_AUTOMATICALLY_DEFAULT));
 
             //noinspection ResourceType
             mLeftActionMode = a.getInt(R.styleable.PlainSearchView_psv_leftActionMode,
@@ -392,6 +572,12 @@ public class PlainSearchView extends FrameLayout {
             @Override
             public boolean onMenuItemSelected(MenuBuilder menu, MenuItem item) {
 
+                ScopeBinding binding = mScopeBindings.get(item.getItemId());
+                if (binding != null) {
+                    binding.provider.setScope(binding.scope);
+                    requery();
+                }
+
                 if (mActionMenuItemListener != null) {
                     mActionMenuItemListener.onActionMenuItemSelected(item);
                 }
@@ -435,22 +621,26 @@ public class PlainSearchView extends FrameLayout {
                 if (mSkipTextChangeEvent || !mIsFocused) {
                     mSkipTextChangeEvent = false;
                 } else {
-                    if (mSearchInput.getText().toString().length() != 0 &&
+                    if (s.length() != 0 &&
                             mClearButton.getVisibility() == View.INVISIBLE) {
                         mClearButton.setAlpha(0.0f);
                         mClearButton.setVisibility(View.VISIBLE);
                         ViewCompat.animate(mClearButton).alpha(1.0f).setDuration(CLEAR_BTN_FADE_ANIM_DURATION).start();
-                    } else if (mSearchInput.getText().toString().length() == 0) {
+                    } else if (s.length() == 0) {
                         mClearButton.setVisibility(View.INVISIBLE);
                     }
 
-                    if (mQueryListener != null && mIsFocused && !mOldQuery.equals(mSearchInput.getText().toString())) {
-                        mQueryListener.onSearchTextChanged(mOldQuery, mSearchInput.getText().toString());
+                    if (!mOldQuery.contentEquals(s)) {
+                        if (mQueryEditListener != null) {
+                            mQueryEdit.set(mOldQuery, start, before, count, s);
+                            mQueryEditListener.onQueryEdited(mQueryEdit);
+                        }
+                        mQueryChangeDispatcher.onQueryChanged(mOldQuery, s);
                     }
 
                 }
 
-                mOldQuery = mSearchInput.getText().toString();
+                mOldQuery.set(s);
             }
 
         });
@@ -479,6 +669,10 @@ public class PlainSearchView extends FrameLayout {
         mSearchInput.setOnSearchKeyListener(new SearchInputView.OnKeyboardSearchKeyClickListener() {
             @Override
             public void onSearchKeyClicked() {
+                mQueryChangeDispatcher.flush();
+                if (mHistoryStore != null) {
+                    mHistoryStore.record(getQuery());
+                }
                 if (mSearchListener != null) {
                     mSearchListener.onSearchAction(getQuery());
                 }
@@ -528,6 +722,71 @@ public class PlainSearchView extends FrameLayout {
         refreshLeftIcon();
     }
 
+    private void setupSuggestionSection() {
+        mSuggestionsAdapter = new SuggestionsAdapter(getContext());
+        mSuggestionsAdapter.setTextColor(mSearchInputTextColor);
+        mSuggestionsAdapter.setOnItemClickListener(new SuggestionsAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClicked(SearchSuggestion suggestion) {
+                if (mOnSuggestionClickListener != null) {
+                    mOnSuggestionClickListener.onSuggestionClicked(suggestion);
+                }
+                setSearchFocusedInternal(false);
+            }
+        });
+        mSuggestionsList.setLayoutManager(new LinearLayoutManager(getContext()));
+        mSuggestionsList.setAdapter(mSuggestionsAdapter);
+        mSuggestionsAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                refreshSuggestionsSectionVisibility();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                refreshSuggestionsSectionVisibility();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                refreshSuggestionsSectionVisibility();
+            }
+        });
+    }
+
+    private void refreshSuggestionsSectionVisibility() {
+        boolean show = mIsFocused && mSuggestionsAdapter.getItemCount() > 0;
+        mSuggestionsSection.setVisibility(show ? View.VISIBLE : View.GONE);
+    }
+
+    //strings are only created for listeners that ask for them
+    private void dispatchQueryChanged(CharSequence oldQuery, CharSequence newQuery) {
+        if (mQueryTextListener != null) {
+            mQueryTextListener.onSearchTextChanged(oldQuery, newQuery);
+        }
+        if (mQueryListener != null) {
+            mQueryListener.onSearchTextChanged(oldQuery.toString(), newQuery.toString());
+        }
+        submitQuery(newQuery);
+    }
+
+    private void submitQuery(CharSequence newQuery) {
+        mDeliveredQuery.set(newQuery);
+        //without a provider, typing does not allocate
+        mNormalizedQuery = null;
+        if (mQueryExecutor != null || mSuggestionsFanOut != null) {
+            //normalized once here, the providers find it in the normalizer's cache
+            mNormalizedQuery = mQueryNormalizer.normalize(newQuery);
+            String query = newQuery.toString();
+            if (mQueryExecutor != null) {
+                mQueryExecutor.submit(query, mNormalizedQuery);
+            }
+            if (mSuggestionsFanOut != null) {
+                mSuggestionsFanOut.submit(query, mNormalizedQuery);
+            }
+        }
+    }
+
     //ensures that the end margin of the search input is according to Material specs
     private void handleOnVisibleMenuItemsWidthChanged(int menuItemsWidth) {
         if (menuItemsWidth == 0) {
@@ -629,6 +888,9 @@ public class PlainSearchView extends FrameLayout {
         if (mQuerySection != null) {
             mQuerySection.setCardBackgroundColor(color);
         }
+        if (mSuggestionsSection != null) {
+            mSuggestionsSection.setCardBackgroundColor(color);
+        }
     }
 
     /**
@@ -640,6 +902,9 @@ public class PlainSearchView extends FrameLayout {
      */
     public void setViewTextColor(int color) {
         setQueryTextColor(color);
+        if (mSuggestionsAdapter != null) {
+            mSuggestionsAdapter.setTextColor(color);
+        }
     }
 
     /**
@@ -787,10 +1052,14 @@ public class PlainSearchView extends FrameLayout {
      * action visible.
      */
     public void showProgress() {
+        if (mSearchProgress.getVisibility() == View.VISIBLE) {
+            return;
+        }
+        mLeftActionFadeInAnim.cancel();
         mLeftAction.setVisibility(View.GONE);
         mSearchProgress.setAlpha(0.0f);
         mSearchProgress.setVisibility(View.VISIBLE);
-        ObjectAnimator.ofFloat(mSearchProgress, "alpha", 0.0f, 1.0f).start();
+        mProgressFadeInAnim.start();
     }
 
     /**
@@ -798,10 +1067,45 @@ public class PlainSearchView extends FrameLayout {
      * a prior call to showProgress()
      */
     public void hideProgress() {
+        if (mSearchProgress.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        mProgressFadeInAnim.cancel();
         mSearchProgress.setVisibility(View.GONE);
         mLeftAction.setAlpha(0.0f);
         mLeftAction.setVisibility(View.VISIBLE);
-        ObjectAnimator.ofFloat(mLeftAction, "alpha", 0.0f, 1.0f).start();
+        mLeftActionFadeInAnim.start();
+    }
+
+    /**
+     * Sets whether the progress is shown automatically while
+     * the search provider is running. Enabled by default.
+     * <p/>
+     * <p>When disabled, the progress is only changed through
+     * {@link #showProgress()} and {@link #hideProgress()}.</p>
+     *
+     * @param showAutomatically true, to tie the progress to the
+     *                          running searches
+     */
+    public void setShowProgressAutomatically(boolean showAutomatically) {
+        mShowProgressAutomatically = showAutomatically;
+        if (showAutomatically) {
+            mProgressController.setBusy(mInFlightCounter.getCount() > 0);
+        } else {
+            mProgressController.reset();
+        }
+    }
+
+    /**
+     * Sets the timings of the automatic progress.
+     *
+     * @param showDelayMillis how long a search must be running before
+     *                        the progress is shown
+     * @param minShowMillis   the minimum time the progress stays visible
+     *                        once it was shown
+     */
+    public void setProgressTimings(long showDelayMillis, long minShowMillis) {
+        mProgressController.setTimings(showDelayMillis, minShowMillis);
     }
 
     /**
@@ -912,13 +1216,43 @@ public class PlainSearchView extends FrameLayout {
      * @return the current query
      */
     public String getQuery() {
-        return mOldQuery;
+        return mOldQuery.toString();
+    }
+
+    /**
+     * Returns the last query delivered to the listeners and providers in
+     * its normalized form: folded case, no diacritics and collapsed whitespace.
+     *
+     * @return the normalized query
+     * @see QueryNormalizer
+     */
+    public String getNormalizedQuery() {
+        if (mNormalizedQuery == null) {
+            mNormalizedQuery = mQueryNormalizer.normalize(mDeliveredQuery);
+        }
+        return mNormalizedQuery;
     }
 
     public void clearQuery() {
         mSearchInput.setText("");
     }
 
+    /**
+     * Searches the current query again, ignoring the results cached for it.
+     * <p/>
+     * <p>Call it when the results of the same query changed, for example
+     * because the data or the scope of a provider did.</p>
+     */
+    public void requery() {
+        if (mQueryExecutor != null) {
+            mQueryExecutor.invalidate();
+        }
+        if (mSuggestionsFanOut != null) {
+            mSuggestionsFanOut.invalidate();
+        }
+        submitQuery(mOldQuery);
+    }
+
     /**
      * Sets whether the search is focused or not.
      *
@@ -971,6 +1305,16 @@ public class PlainSearchView extends FrameLayout {
             mSearchInput.setLongClickable(true);
             mClearButton.setVisibility((mSearchInput.getText().toString().length() == 0) ?
                     View.INVISIBLE : View.VISIBLE);
+            if (mQueryExecutor != null) {
+                mQueryExecutor.getResultCache().restoreMaxBytes();
+            }
+            if (mSuggestionsFanOut != null) {
+                mSuggestionsFanOut.restoreCacheSizes();
+            }
+            if (mHistoryStore != null) {
+                mHistoryStore.load();
+            }
+            refreshSuggestionsSectionVisibility();
             if (mFocusChangeListener != null) {
                 mFocusChangeListener.onFocus();
             }
@@ -988,6 +1332,7 @@ public class PlainSearchView extends FrameLayout {
                 mSearchInput.setText(mTitleText);
             }
             mSearchInput.setLongClickable(false);
+            refreshSuggestionsSectionVisibility();
             if (mFocusChangeListener != null) {
                 mFocusChangeListener.onFocusCleared();
             }
@@ -1124,6 +1469,229 @@ public class PlainSearchView extends FrameLayout {
         this.mQueryListener = listener;
     }
 
+    /**
+     * Sets how query changes are delivered to the query listeners.
+     * <p/>
+     * <p>With {@link #QUERY_DELIVERY_MODE_DEBOUNCE} a change is delivered once
+     * the user stopped typing for delayMillis. With {@link #QUERY_DELIVERY_MODE_THROTTLE}
+     * the first change is delivered right away and further changes at most once
+     * every delayMillis. In both modes, the edits in between are coalesced into one
+     * callback that carries the first old query and the last new query.</p>
+     *
+     * @param mode        the delivery mode
+     * @param delayMillis the debounce delay or throttle window, ignored for
+     *                    {@link #QUERY_DELIVERY_MODE_IMMEDIATE}
+     */
+    public void setQueryDeliveryMode(@QueryDeliveryMode int mode, long delayMillis) {
+        mQueryChangeDispatcher.setMode(mode, delayMillis);
+    }
+
+    /**
+     * Sets the provider whose results are shown in the
+     * suggestions section as the query changes.
+     * <p/>
+     * <p>This replaces the providers added with
+     * {@link #addSuggestionsProvider(SearchProvider, long)} with the given one.</p>
+     *
+     * @param provider the provider of suggestions, or null to stop searching
+     */
+    public <S extends SearchSuggestion> void setSuggestionsProvider(SearchProvider<S> provider) {
+        clearSuggestionsProviders();
+        if (provider != null) {
+            addSuggestionsProvider(provider, SuggestionsFanOut.NO_DEADLINE);
+        }
+    }
+
+    /**
+     * Adds a provider of suggestions, searched in parallel with the
+     * ones already added.
+     * <p/>
+     * <p>The suggestions of all the providers are merged into one list, the
+     * ones of earlier providers first, without the suggestions whose key was
+     * already suggested. The list is updated as each provider answers, so a
+     * slow provider does not delay the others, and a provider that did not
+     * answer within its deadline is left out for that query. The batches of a
+     * {@link tech.taoxi.libs.plainsearchview.search.StreamingSearchProvider} are
+     * shown as they come, merged within a small budget of every frame.</p>
+     *
+     * @param provider       the provider of suggestions
+     * @param deadlineMillis how long the provider may take, or
+     *                       {@link SuggestionsFanOut#NO_DEADLINE}
+     */
+    public <S extends SearchSuggestion> void addSuggestionsProvider(@NonNull SearchProvider<S> provider,
+                                                                   long deadlineMillis) {
+        if (mSuggestionsFanOut == null) {
+            mSuggestionsFanOut = new SuggestionsFanOut(new SuggestionsFanOut.Callback() {
+                @Override
+                public void onSuggestions(String query, List<SearchSuggestion> suggestions, boolean complete) {
+                    swapSuggestions(suggestions);
+                }
+
+                @Override
+                public void onProviderError(String query, SearchProvider<?> provider, Exception error) {
+                    Log.w(TAG, "Suggestions provider failed for query: " + query, error);
+                }
+            });
+            mSuggestionsFanOut.setInFlightCounter(mInFlightCounter);
+        }
+        mSuggestionsFanOut.addProvider(provider, deadlineMillis);
+    }
+
+    /**
+     * Removes a provider of suggestions.
+     *
+     * @param provider the provider to remove
+     */
+    public void removeSuggestionsProvider(SearchProvider<?> provider) {
+        if (mSuggestionsFanOut != null) {
+            mSuggestionsFanOut.removeProvider(provider);
+        }
+    }
+
+    /**
+     * Removes all the providers of suggestions. The suggestions
+     * already shown are kept.
+     */
+    public void clearSuggestionsProviders() {
+        if (mSuggestionsFanOut != null) {
+            mSuggestionsFanOut.clearProviders();
+        }
+    }
+
+    /**
+     * Replaces the suggestions shown under the search bar.
+     * <p/>
+     * <p>The new list is diffed against the current one on a background thread
+     * and only the rows that changed are updated, with the part matching the
+     * current query highlighted. The suggestions section is shown while the
+     * search is focused and has suggestions.</p>
+     *
+     * @param suggestions the new suggestions, null to remove them all like
+     *                    {@link #clearSuggestions()}
+     */
+    public void swapSuggestions(List<? extends SearchSuggestion> suggestions) {
+        if (suggestions == null) {
+            clearSuggestions();
+            return;
+        }
+        mSuggestionsAdapter.submitList(new ArrayList<SearchSuggestion>(suggestions), getQuery());
+    }
+
+    /**
+     * Removes all the suggestions.
+     */
+    public void clearSuggestions() {
+        mSuggestionsAdapter.submitList(null);
+    }
+
+    /**
+     * Sets the listener that will be called when
+     * a suggestion is clicked.
+     *
+     * @param listener listener for suggestion clicks
+     */
+    public void setOnSuggestionClickListener(OnSuggestionClickListener listener) {
+        this.mOnSuggestionClickListener = listener;
+    }
+
+    /**
+     * Sets the store that keeps the recent searches.
+     * <p/>
+     * <p>Queries are recorded when the search key is pressed. The store
+     * is read from disk the first time the search gains focus, so setting
+     * it does not cost anything at startup.</p>
+     *
+     * @param store the history store, or null to stop recording searches
+     */
+    public void setSearchHistoryStore(SearchHistoryStore store) {
+        mHistoryStore = store;
+        if (mHistoryStore != null && mIsFocused) {
+            mHistoryStore.load();
+        }
+    }
+
+    public SearchHistoryStore getSearchHistoryStore() {
+        return mHistoryStore;
+    }
+
+    /**
+     * Returns the cache of the current search provider's results. It is
+     * consulted before the provider is searched, and shrinks when the
+     * system asks the app to trim memory.
+     *
+     * @return the result cache, or null if no provider is set
+     */
+    public QueryResultCache<?> getSearchResultCache() {
+        return mQueryExecutor != null ? mQueryExecutor.getResultCache() : null;
+    }
+
+    /**
+     * Sets the listener that will be called with the edit
+     * (append, delete at the end or replace of a range) of
+     * every change to the query.
+     *
+     * @param listener listener for query edits
+     */
+    public void setOnQueryEditListener(OnQueryEditListener listener) {
+        this.mQueryEditListener = listener;
+    }
+
+    /**
+     * Sets the provider that will be searched every time the
+     * query changes.
+     * <p/>
+     * <p>The provider runs on a background thread that is shared by all
+     * search views. When the query changes again before the provider
+     * returned, the previous search is cancelled and its results are
+     * never delivered.</p>
+     * <p/>
+     * <p>If the provider is an {@link tech.taoxi.libs.plainsearchview.search.IncrementalSearchProvider},
+     * it is given the previous results and the edit to the query so it can
+     * refine them instead of searching from scratch.</p>
+     *
+     * @param provider the provider to search, or null to stop searching
+     * @param listener listener for the provider's results
+     */
+    public <T> void setSearchProvider(SearchProvider<T> provider, final OnSearchResultsListener<T> listener) {
+        if (mQueryExecutor != null) {
+            mQueryExecutor.cancel();
+            mQueryExecutor = null;
+        }
+        if (provider == null) {
+            return;
+        }
+
+        QueryExecutor<T> executor = new QueryExecutor<>(provider);
+        executor.setInFlightCounter(mInFlightCounter);
+        executor.setCallback(new QueryExecutor.Callback<T>() {
+            @Override
+            public void onResults(String query, List<T> results) {
+                if (listener != null) {
+                    listener.onSearchResults(query, results);
+                }
+            }
+
+            @Override
+            public void onError(String query, Exception error) {
+                if (listener != null) {
+                    listener.onSearchError(query, error);
+                }
+            }
+        });
+        mQueryExecutor = executor;
+    }
+
+    /**
+     * Sets the listener that will listen for query
+     * changes as they are being typed, without creating
+     * a String for every keystroke.
+     *
+     * @param listener listener for query changes
+     */
+    public void setOnQueryTextChangeListener(OnQueryTextChangeListener listener) {
+        this.mQueryTextListener = listener;
+    }
+
     /**
      * Sets the listener that will be called when
      * an action that completes the current search
@@ -1184,6 +1752,29 @@ public class PlainSearchView extends FrameLayout {
         //todo reset menu view listener
     }
 
+    /**
+     * Narrows a provider to a scope, and searches again, when a menu item is
+     * clicked. The {@link OnMenuItemClickListener} is still called after it.
+     *
+     * @param itemId   the id of the menu item
+     * @param provider the provider to scope, one of the search or suggestions providers
+     * @param scope    the scope to set when the item is clicked
+     */
+    public void bindScopeToMenuItem(int itemId, @NonNull ScopedSearchProvider provider,
+                                    @NonNull SearchScope scope) {
+        mScopeBindings.put(itemId, new ScopeBinding(provider, scope));
+    }
+
+    /**
+     * Removes the scope bound to a menu item by
+     * {@link #bindScopeToMenuItem(int, ScopedSearchProvider, SearchScope)}.
+     *
+     * @param itemId the id of the menu item
+     */
+    public void unbindScopeFromMenuItem(int itemId) {
+        mScopeBindings.remove(itemId);
+    }
+
     /**
      * Sets the listener that will be called when the
      * clear search text action button (the x to the right
@@ -1256,6 +1847,8 @@ public class PlainSearchView extends FrameLayout {
         savedState.leftActionMode = mLeftActionMode;
         savedState.queryTextSize = mQueryTextSize;
         savedState.dismissOnSoftKeyboardDismiss = mCloseSearchOnSoftKeyboardDismiss;
+        savedState.queryDeliveryMode = mQueryChangeDispatcher.getMode();
+        savedState.queryDeliveryDelay = mQueryChangeDispatcher.getDelayMillis();
         return savedState;
     }
 
@@ -1266,8 +1859,8 @@ public class PlainSearchView extends FrameLayout {
         mIsFocused = savedState.isFocused;
         mIsTitleSet = savedState.isTitleSet;
         mMenuId = savedState.menuId;
-        mOldQuery = savedState.query;
-        setSearchText(mOldQuery);
+        mOldQuery.set(savedState.query);
+        setSearchText(savedState.query);
         setShowSearchKey(savedState.showSearchKey);
         setSearchHint(savedState.searchHint);
         setQueryTextColor(savedState.queryTextColor);
@@ -1279,6 +1872,8 @@ public class PlainSearchView extends FrameLayout {
         setClearBtnColor(savedState.clearBtnColor);
         setLeftActionMode(savedState.leftActionMode);
         setCloseSearchOnKeyboardDismiss(savedState.dismissOnSoftKeyboardDismiss);
+        //noinspection ResourceType
+        setQueryDeliveryMode(savedState.queryDeliveryMode, savedState.queryDeliveryDelay);
 
         if (mIsFocused) {
             mSkipTextChangeEvent = true;
@@ -1309,6 +1904,8 @@ public class PlainSearchView extends FrameLayout {
         private int leftActionMode;
         private long suggestionsSectionAnimSuration;
         private boolean dismissOnSoftKeyboardDismiss;
+        private int queryDeliveryMode;
+        private long queryDeliveryDelay;
 
         SavedState(Parcelable superState) {
             super(superState);
@@ -1332,6 +1929,8 @@ public class PlainSearchView extends FrameLayout {
             leftActionMode = in.readInt();
             suggestionsSectionAnimSuration = in.readLong();
             dismissOnSoftKeyboardDismiss = (in.readInt() != 0);
+            queryDeliveryMode = in.readInt();
+            queryDeliveryDelay = in.readLong();
         }
 
         @Override
@@ -1353,6 +1952,8 @@ public class PlainSearchView extends FrameLayout {
             out.writeInt(leftActionMode);
             out.writeLong(suggestionsSectionAnimSuration);
             out.writeInt(dismissOnSoftKeyboardDismiss ? 1 : 0);
+            out.writeInt(queryDeliveryMode);
+            out.writeLong(queryDeliveryDelay);
         }
 
         public static final Creator<SavedState> CREATOR
@@ -1367,6 +1968,46 @@ public class PlainSearchView extends FrameLayout {
         };
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getContext().getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+        mQueryChangeDispatcher.cancel();
+        if (mQueryExecutor != null) {
+            mQueryExecutor.cancel();
+        }
+        if (mSuggestionsFanOut != null) {
+            mSuggestionsFanOut.cancel();
+        }
+    }
+
+    private final ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (mQueryExecutor != null) {
+                mQueryExecutor.getResultCache().onTrimMemory(level);
+            }
+            if (mSuggestionsFanOut != null) {
+                mSuggestionsFanOut.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     private DrawerLayout.DrawerListener mDrawerListener = new DrawerListener();
 
     public void attachNavigationDrawerToMenuButton(@NonNull DrawerLayout drawerLayout) {
@@ -1419,4 +2060,15 @@ public class PlainSearchView extends FrameLayout {
             //do nothing
         }
     }
+
+    private static class ScopeBinding {
+
+        final ScopedSearchProvider provider;
+        final SearchScope scope;
+
+        ScopeBinding(ScopedSearchProvider provider, SearchScope scope) {
+            this.provider = provider;
+            this.scope = scope;
+        }
+    }
 }
@@ -0,0 +1,123 @@
+package tech.taoxi.libs.plainsearchview.history;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ranks history entries by frecency: every visit adds a weight that decays
+ * exponentially with its age, so that both frequent and recent searches rank
+ * high.
+ * <p/>
+ * <p>The score at time t is {@code sum(weight * exp(-lambda * (t - visitTime)))}.
+ * Rather than the score, each entry stores the key
+ * {@code ln(score(t)) + lambda * t}, which does not depend on t. Ordering by
+ * the key is ordering by the current score, so the ranking never needs to be
+ * recomputed as time passes, and a visit updates the key in closed form.</p>
+ */
+public final class FrecencyScorer {
+
+    public final static long DEFAULT_HALF_LIFE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    private final static Comparator<HistoryEntry> BY_KEY = new Comparator<HistoryEntry>() {
+        @Override
+        public int compare(HistoryEntry lhs, HistoryEntry rhs) {
+            return Double.compare(lhs.getFrecencyKey(), rhs.getFrecencyKey());
+        }
+    };
+
+    private final long mHalfLifeMillis;
+    private final double mLambda;
+
+    public FrecencyScorer() {
+        this(DEFAULT_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * @param halfLifeMillis the time after which the weight of a visit is halved
+     */
+    public FrecencyScorer(long halfLifeMillis) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLifeMillis must be positive: " + halfLifeMillis);
+        }
+        mHalfLifeMillis = halfLifeMillis;
+        mLambda = Math.log(2) / halfLifeMillis;
+    }
+
+    public long getHalfLifeMillis() {
+        return mHalfLifeMillis;
+    }
+
+    /**
+     * @return the key of an entry that was never visited
+     */
+    public static double emptyKey() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds a visit to a key.
+     *
+     * @param key    the current key, {@link #emptyKey()} for a new entry
+     * @param time   the time of the visit, in milliseconds since the epoch
+     * @param weight the weight of the visit
+     * @return the new key
+     */
+    public double addVisit(double key, long time, double weight) {
+        double visitKey = Math.log(weight) + mLambda * time;
+        if (key == Double.NEGATIVE_INFINITY) {
+            return visitKey;
+        }
+        //ln(e^a + e^b) without overflowing
+        double max = Math.max(key, visitKey);
+        return max + Math.log1p(Math.exp(-Math.abs(key - visitKey)));
+    }
+
+    /**
+     * Estimates the key of an entry of which only the number of visits and
+     * the time of the last one are known, as if every visit happened then.
+     */
+    public double estimateKey(long lastUsed, int useCount) {
+        return Math.log(Math.max(1, useCount)) + mLambda * lastUsed;
+    }
+
+    /**
+     * @return the score of the entry at the given time
+     */
+    public double scoreAt(@NonNull HistoryEntry entry, long time) {
+        return Math.exp(entry.getFrecencyKey() - mLambda * time);
+    }
+
+    /**
+     * Returns the k entries with the highest frecency, best first. A heap of
+     * k entries is used, so this is O(n log k) rather than a sort of all the
+     * entries.
+     */
+    public static List<HistoryEntry> top(@NonNull Collection<HistoryEntry> entries, int k) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        //the worst of the k best is at the head, ready to be replaced
+        PriorityQueue<HistoryEntry> heap = new PriorityQueue<>(k, BY_KEY);
+        for (HistoryEntry entry : entries) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (BY_KEY.compare(entry, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        HistoryEntry[] top = new HistoryEntry[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll();
+        }
+        List<HistoryEntry> list = new ArrayList<>(top.length);
+        Collections.addAll(list, top);
+        return list;
+    }
+}
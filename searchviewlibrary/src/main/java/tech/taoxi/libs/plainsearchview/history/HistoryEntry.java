@@ -0,0 +1,70 @@
+package tech.taoxi.libs.plainsearchview.history;
+
+import android.support.annotation.NonNull;
+
+import tech.taoxi.libs.plainsearchview.suggestions.SearchSuggestion;
+
+/**
+ * A query that was searched before, as kept by {@link SearchHistoryStore}.
+ * Instances are immutable snapshots.
+ */
+public final class HistoryEntry implements SearchSuggestion {
+
+    private final static String KEY_PREFIX = "history:";
+
+    private final String mQuery;
+    private final long mLastUsed;
+    private final int mUseCount;
+    private final double mFrecencyKey;
+
+    HistoryEntry(String query, long lastUsed, int useCount, double frecencyKey) {
+        mQuery = query;
+        mLastUsed = lastUsed;
+        mUseCount = useCount;
+        mFrecencyKey = frecencyKey;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return when the query was last searched, in milliseconds since the epoch
+     */
+    public long getLastUsed() {
+        return mLastUsed;
+    }
+
+    /**
+     * @return how many times the query was searched
+     */
+    public int getUseCount() {
+        return mUseCount;
+    }
+
+    /**
+     * @return the time independent frecency key, higher ranks first
+     * @see FrecencyScorer
+     */
+    public double getFrecencyKey() {
+        return mFrecencyKey;
+    }
+
+    @NonNull
+    @Override
+    public String getSuggestionKey() {
+        return KEY_PREFIX + mQuery;
+    }
+
+    @NonNull
+    @Override
+    public String getBody() {
+        return mQuery;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryEntry{query=" + mQuery + ", lastUsed=" + mLastUsed + ", useCount=" + mUseCount
+                + ", frecencyKey=" + mFrecencyKey + "}";
+    }
+}
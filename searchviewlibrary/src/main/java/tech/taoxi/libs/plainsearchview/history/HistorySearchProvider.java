@@ -0,0 +1,45 @@
+package tech.taoxi.libs.plainsearchview.history;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import tech.taoxi.libs.plainsearchview.search.VersionedSearchProvider;
+
+/**
+ * A {@link VersionedSearchProvider} that suggests the searches of a
+ * {@link SearchHistoryStore} starting with the query, by frecency. An empty
+ * query suggests the {@link SearchHistoryStore#getTopEntries(int) top entries}.
+ * <p/>
+ * <p>Its data version is the {@link SearchHistoryStore#getVersion() version}
+ * of the store, so the searches recorded or removed since a query was
+ * searched show up when it is searched again.</p>
+ */
+public class HistorySearchProvider implements VersionedSearchProvider<HistoryEntry> {
+
+    public final static int DEFAULT_MAX_RESULTS = 5;
+
+    private final SearchHistoryStore mStore;
+    private final int mMaxResults;
+
+    public HistorySearchProvider(@NonNull SearchHistoryStore store) {
+        this(store, DEFAULT_MAX_RESULTS);
+    }
+
+    public HistorySearchProvider(@NonNull SearchHistoryStore store, int maxResults) {
+        mStore = store;
+        mMaxResults = maxResults;
+    }
+
+    @Override
+    public long getDataVersion() {
+        return mStore.getVersion();
+    }
+
+    @NonNull
+    @Override
+    public List<HistoryEntry> search(@NonNull String query, @NonNull CancellationSignal cancellationSignal) {
+        return mStore.complete(query, mMaxResults);
+    }
+}
@@ -0,0 +1,674 @@
+package tech.taoxi.libs.plainsearchview.history;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import tech.taoxi.libs.plainsearchview.index.PrefixIndex;
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.SearchExecutors;
+
+/**
+ * Keeps the recent searches on disk without blocking the main thread.
+ * <p/>
+ * <p>Every change is appended as a small binary record to a log file on a
+ * background thread. When the log holds too many records compared to the
+ * number of entries, it is compacted into one record per entry. Nothing is
+ * read from disk until {@link #load()} is called, so creating a store is
+ * free.</p>
+ * <p/>
+ * <p>A change only moves the entry it touches in the ranking, as the
+ * frecency keys do not depend on the time. The prefix index is rebuilt once
+ * many entries changed since it was built, the entries that changed since
+ * are matched one by one.</p>
+ * <p/>
+ * <p>The public methods can be called from any thread, the listeners are
+ * called on the main thread.</p>
+ */
+public class SearchHistoryStore {
+
+    private final static String TAG = "SearchHistoryStore";
+
+    public final static int DEFAULT_MAX_ENTRIES = 100;
+
+    private final static int LOG_MAGIC = 0x50535648; //PSVH
+    private final static int LOG_VERSION = 1;
+
+    private final static int OP_VISIT = 1;
+    private final static int OP_REMOVE = 2;
+    private final static int OP_CLEAR = 3;
+    private final static int OP_ENTRY = 4;
+    private final static int OP_SCORED = 5;
+
+    //the log is not compacted below this many records
+    private final static int COMPACT_MIN_RECORDS = 64;
+
+    //the number of entries ranked by frecency on every change
+    private final static int TOP_ENTRIES_COUNT = 20;
+
+    //the prefix index is not rebuilt below this many changed entries
+    private final static int REBUILD_MIN_CHANGES = 32;
+
+    public interface OnHistoryChangedListener {
+
+        /**
+         * Called when the history was loaded, and after every
+         * change once it is loaded.
+         */
+        void onHistoryChanged(SearchHistoryStore store);
+    }
+
+    private final Context mAppContext;
+    private final String mFileName;
+    private final int mMaxEntries;
+    private final FrecencyScorer mScorer;
+    private final ExecutorService mExecutor;
+    private final Executor mMainThread;
+    private final List<OnHistoryChangedListener> mListeners = new CopyOnWriteArrayList<>();
+
+    //only accessed on the executor thread
+    private final LinkedHashMap<String, HistoryEntry> mEntries = new LinkedHashMap<>();
+    private File mLogFile;
+    private DataOutputStream mAppendStream;
+    private int mLogRecordCount;
+
+    //also only accessed on the executor thread, the state of the next snapshot
+    private List<HistoryEntry> mTopEntries = new ArrayList<>();
+    private boolean mTopStale;
+    private PrefixIndex mIndex;
+    private HistoryEntry[] mIndexedEntries;
+    //the terms of more than one entry, the index only holds the best one
+    private final Set<String> mSharedTerms = new HashSet<>();
+    private final Map<String, Change> mChanges = new HashMap<>();
+    private boolean mRebuild = true;
+
+    private final Object mLoadLock = new Object();
+    private boolean mLoadRequested;
+    private volatile boolean mLoaded;
+    private volatile Snapshot mSnapshot = new Snapshot(0, Collections.<HistoryEntry>emptyList(),
+            Collections.<HistoryEntry>emptyList(), new PrefixIndex.Builder().build(), new HistoryEntry[0],
+            Collections.<String, Change>emptyMap());
+
+    private final Runnable mNotifyChanged = new Runnable() {
+        @Override
+        public void run() {
+            for (OnHistoryChangedListener listener : mListeners) {
+                listener.onHistoryChanged(SearchHistoryStore.this);
+            }
+        }
+    };
+
+    //the entries, their ranking and their prefix index, published together
+    private static final class Snapshot {
+
+        final long version;
+        final List<HistoryEntry> entries;
+        final List<HistoryEntry> topEntries;
+        //the value of a term is the position of its entry in indexedEntries
+        final PrefixIndex index;
+        final HistoryEntry[] indexedEntries;
+        //the entries that changed since the index was built, by query
+        final Map<String, Change> changes;
+
+        Snapshot(long version, List<HistoryEntry> entries, List<HistoryEntry> topEntries, PrefixIndex index,
+                 HistoryEntry[] indexedEntries, Map<String, Change> changes) {
+            this.version = version;
+            this.entries = entries;
+            this.topEntries = topEntries;
+            this.index = index;
+            this.indexedEntries = indexedEntries;
+            this.changes = changes;
+        }
+    }
+
+    //an entry that changed since the index was built
+    private static final class Change {
+
+        //null if the entry was removed
+        final HistoryEntry entry;
+        final String term;
+
+        Change(HistoryEntry entry, String term) {
+            this.entry = entry;
+            this.term = term;
+        }
+    }
+
+    /**
+     * @param context  any context, only its application context is kept
+     * @param fileName the name of the log file in the app's files directory
+     */
+    public SearchHistoryStore(@NonNull Context context, @NonNull String fileName) {
+        this(context, fileName, DEFAULT_MAX_ENTRIES);
+    }
+
+    public SearchHistoryStore(@NonNull Context context, @NonNull String fileName, int maxEntries) {
+        this(context, fileName, maxEntries, new FrecencyScorer());
+    }
+
+    /**
+     * @param scorer ranks the entries, the keys stored in the log depend on
+     *               its half-life, so it should not change between runs
+     */
+    public SearchHistoryStore(@NonNull Context context, @NonNull String fileName, int maxEntries,
+                              @NonNull FrecencyScorer scorer) {
+        this(context, fileName, maxEntries, scorer, SearchExecutors.newSerialExecutor("PlainSearchView-history"),
+                SearchExecutors.mainThreadExecutor());
+    }
+
+    //the tests read and write the log on their own thread
+    SearchHistoryStore(Context context, String fileName, int maxEntries, FrecencyScorer scorer,
+                       ExecutorService executor, Executor mainThread) {
+        mAppContext = context.getApplicationContext();
+        mFileName = fileName;
+        mMaxEntries = maxEntries;
+        mScorer = scorer;
+        mExecutor = executor;
+        mMainThread = mainThread;
+    }
+
+    public void addOnHistoryChangedListener(OnHistoryChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnHistoryChangedListener(OnHistoryChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts reading the history from disk, if it was not read yet.
+     * The listeners are called when it is loaded.
+     */
+    public void load() {
+        synchronized (mLoadLock) {
+            if (mLoadRequested) {
+                return;
+            }
+            mLoadRequested = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readLog();
+                mLoaded = true;
+                publish();
+            }
+        });
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the entries, most recently used first. The list is empty
+     * until the history is loaded.
+     */
+    public List<HistoryEntry> getEntries() {
+        return mSnapshot.entries;
+    }
+
+    /**
+     * Returns the entries with the highest frecency, best first. The
+     * ranking is kept up to date as entries are recorded, so this does not
+     * sort anything.
+     *
+     * @param maxResults the maximum number of entries to return
+     */
+    public List<HistoryEntry> getTopEntries(int maxResults) {
+        Snapshot snapshot = mSnapshot;
+        List<HistoryEntry> top = snapshot.topEntries;
+        if (maxResults <= top.size()) {
+            return top.subList(0, Math.max(0, maxResults));
+        }
+        if (top.size() == snapshot.entries.size()) {
+            return top;
+        }
+        return FrecencyScorer.top(snapshot.entries, maxResults);
+    }
+
+    /**
+     * @return a number that changes when the history is loaded, and
+     * whenever its entries change afterwards
+     */
+    public long getVersion() {
+        return mSnapshot.version;
+    }
+
+    public FrecencyScorer getScorer() {
+        return mScorer;
+    }
+
+    /**
+     * Returns the entries with the highest frecency that start with the given
+     * prefix, compared in their {@link QueryNormalizer normalized} form. The cost depends on the length of the prefix,
+     * on maxResults and on the number of entries that changed since the
+     * index was built, not on the number of entries.
+     *
+     * @param prefix     the prefix, an empty prefix returns the {@link #getTopEntries(int) top entries}
+     * @param maxResults the maximum number of entries to return
+     */
+    public List<HistoryEntry> complete(@NonNull String prefix, int maxResults) {
+        Snapshot snapshot = mSnapshot;
+        String normalized = normalize(prefix);
+        if (normalized.length() == 0) {
+            return getTopEntries(maxResults);
+        }
+        if (maxResults <= 0) {
+            return Collections.emptyList();
+        }
+        //enough indexed entries to make up for the ones that changed since
+        int fetchCount = maxResults + snapshot.changes.size();
+        int[] termIds = new int[fetchCount];
+        int count = snapshot.index.complete(normalized, fetchCount, termIds);
+        //like the index, a single entry per term
+        Map<String, HistoryEntry> matches = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            HistoryEntry entry = snapshot.indexedEntries[snapshot.index.getValue(termIds[i])];
+            if (!snapshot.changes.containsKey(entry.getQuery())) {
+                putBest(matches, snapshot.index.getTerm(termIds[i]), entry);
+            }
+        }
+        for (Change change : snapshot.changes.values()) {
+            if (change.entry != null && change.term.startsWith(normalized)) {
+                putBest(matches, change.term, change.entry);
+            }
+        }
+        return FrecencyScorer.top(matches.values(), maxResults);
+    }
+
+    private static void putBest(Map<String, HistoryEntry> entries, String term, HistoryEntry entry) {
+        HistoryEntry existing = entries.get(term);
+        if (existing == null || entry.getFrecencyKey() > existing.getFrecencyKey()) {
+            entries.put(term, entry);
+        }
+    }
+
+    /**
+     * @return the prefix index over the entries as of its last rebuild,
+     * mostly to report its size
+     */
+    public PrefixIndex getIndex() {
+        return mSnapshot.index;
+    }
+
+    private static String normalize(String query) {
+        return QueryNormalizer.getDefault().normalize(query);
+    }
+
+    /**
+     * Records that the given query was searched.
+     */
+    public void record(@NonNull String query) {
+        final String trimmed = query.trim();
+        if (trimmed.length() == 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(OP_VISIT, trimmed, now, 0);
+                //before loading, the record is picked up when the log is read
+                if (mLoaded) {
+                    applyVisit(trimmed, now);
+                    onChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the given query from the history, trimmed like {@link #record(String)} does.
+     */
+    public void remove(@NonNull String query) {
+        final String trimmed = query.trim();
+        if (trimmed.length() == 0) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(OP_REMOVE, trimmed, 0, 0);
+                if (mLoaded && mEntries.remove(trimmed) != null) {
+                    onEntryChanged(trimmed, null);
+                    onChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(OP_CLEAR, null, 0, 0);
+                if (mLoaded) {
+                    mEntries.clear();
+                    mRebuild = true;
+                    onChanged();
+                }
+            }
+        });
+    }
+
+    private void onChanged() {
+        publish();
+        if (mLogRecordCount > Math.max(COMPACT_MIN_RECORDS, mEntries.size() * 2)) {
+            compact();
+        }
+    }
+
+    private void publish() {
+        if (mRebuild || mChanges.size() > Math.max(REBUILD_MIN_CHANGES, mEntries.size() / 2)) {
+            rebuildIndex();
+        } else if (mTopStale) {
+            mTopEntries = FrecencyScorer.top(mEntries.values(), TOP_ENTRIES_COUNT);
+            mTopStale = false;
+        }
+        List<HistoryEntry> entries = new ArrayList<>(mEntries.values());
+        Collections.reverse(entries);
+        mSnapshot = new Snapshot(mSnapshot.version + 1, Collections.unmodifiableList(entries),
+                Collections.unmodifiableList(new ArrayList<>(mTopEntries)), mIndex, mIndexedEntries,
+                new HashMap<>(mChanges));
+        mMainThread.execute(mNotifyChanged);
+    }
+
+    private void rebuildIndex() {
+        HistoryEntry[] entries = mEntries.values().toArray(new HistoryEntry[mEntries.size()]);
+        double minKey = Double.POSITIVE_INFINITY;
+        for (HistoryEntry entry : entries) {
+            minKey = Math.min(minKey, entry.getFrecencyKey());
+        }
+        //weighted by frecency, the value is the position in entries
+        PrefixIndex.Builder builder = new PrefixIndex.Builder();
+        Set<String> terms = new HashSet<>();
+        mSharedTerms.clear();
+        for (int i = 0; i < entries.length; i++) {
+            String term = normalize(entries[i].getQuery());
+            if (!terms.add(term)) {
+                mSharedTerms.add(term);
+            }
+            builder.add(term, toWeight(entries[i].getFrecencyKey() - minKey), i);
+        }
+        mIndex = builder.build();
+        mIndexedEntries = entries;
+        mChanges.clear();
+        mTopEntries = FrecencyScorer.top(mEntries.values(), TOP_ENTRIES_COUNT);
+        mTopStale = false;
+        mRebuild = false;
+    }
+
+    //the keys are logarithms, 2^-20 is far below any difference that matters
+    private static int toWeight(double keyDelta) {
+        return (int) Math.min(Integer.MAX_VALUE, keyDelta * (1 << 20));
+    }
+
+    //only the changed entry moves, the keys of the others do not depend on the time
+    private void onEntryChanged(String query, HistoryEntry entry) {
+        if (mRebuild) {
+            return;
+        }
+        String term = normalize(query);
+        if (entry == null && mSharedTerms.contains(term)) {
+            //the index left out an entry for this one, it has to show up now
+            mRebuild = true;
+            return;
+        }
+        mChanges.put(query, new Change(entry, term));
+
+        boolean wasTop = false;
+        for (Iterator<HistoryEntry> it = mTopEntries.iterator(); it.hasNext() && !wasTop; ) {
+            if (it.next().getQuery().equals(query)) {
+                it.remove();
+                wasTop = true;
+            }
+        }
+        if (entry == null) {
+            //the next best entry is not known
+            mTopStale |= wasTop;
+        } else if (!mTopStale) {
+            //a visit never lowers a key, the top holds all the entries until it is full
+            int position = mTopEntries.size();
+            while (position > 0 && mTopEntries.get(position - 1).getFrecencyKey() < entry.getFrecencyKey()) {
+                position--;
+            }
+            if (position < TOP_ENTRIES_COUNT) {
+                mTopEntries.add(position, entry);
+                if (mTopEntries.size() > TOP_ENTRIES_COUNT) {
+                    mTopEntries.remove(TOP_ENTRIES_COUNT);
+                }
+            }
+        }
+    }
+
+    private void applyVisit(String query, long time) {
+        HistoryEntry previous = mEntries.remove(query);
+        int useCount = previous == null ? 1 : previous.getUseCount() + 1;
+        double key = mScorer.addVisit(previous == null ? FrecencyScorer.emptyKey() : previous.getFrecencyKey(),
+                time, 1);
+        putEntry(new HistoryEntry(query, Math.max(time, previous == null ? 0 : previous.getLastUsed()),
+                useCount, key));
+    }
+
+    private void putEntry(HistoryEntry entry) {
+        mEntries.remove(entry.getQuery());
+        mEntries.put(entry.getQuery(), entry);
+        onEntryChanged(entry.getQuery(), entry);
+        //the eldest entry is the least recently used one
+        Iterator<HistoryEntry> it = mEntries.values().iterator();
+        while (mEntries.size() > mMaxEntries && it.hasNext()) {
+            HistoryEntry evicted = it.next();
+            it.remove();
+            onEntryChanged(evicted.getQuery(), null);
+        }
+    }
+
+    private File getLogFile() {
+        if (mLogFile == null) {
+            mLogFile = new File(mAppContext.getFilesDir(), mFileName);
+        }
+        return mLogFile;
+    }
+
+    private void readLog() {
+        File file = getLogFile();
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean needsRewrite = false;
+        int recordCount = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) {
+                Log.w(TAG, "Unknown history log format, starting over: " + file);
+                mEntries.clear();
+                needsRewrite = true;
+            } else {
+                int op;
+                while ((op = in.read()) != -1) {
+                    if (!readRecord(op, in)) {
+                        Log.w(TAG, "Corrupt history log record, dropping the rest: " + file);
+                        needsRewrite = true;
+                        break;
+                    }
+                    recordCount++;
+                }
+            }
+        } catch (EOFException e) {
+            //a record was only partially written, most likely the process died
+            needsRewrite = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the history log: " + file, e);
+            needsRewrite = true;
+        } finally {
+            closeQuietly(in);
+        }
+
+        mLogRecordCount = recordCount;
+        if (needsRewrite) {
+            //appending after a broken record would make the rest of the log unreadable
+            compact();
+        }
+    }
+
+    private boolean readRecord(int op, DataInputStream in) throws IOException {
+        switch (op) {
+            case OP_VISIT: {
+                String query = in.readUTF();
+                long time = in.readLong();
+                applyVisit(query, time);
+                return true;
+            }
+            case OP_ENTRY: {
+                //written before entries had a frecency key
+                String query = in.readUTF();
+                long time = in.readLong();
+                int useCount = in.readInt();
+                putEntry(new HistoryEntry(query, time, useCount, mScorer.estimateKey(time, useCount)));
+                return true;
+            }
+            case OP_SCORED: {
+                String query = in.readUTF();
+                long time = in.readLong();
+                int useCount = in.readInt();
+                double key = in.readDouble();
+                putEntry(new HistoryEntry(query, time, useCount, key));
+                return true;
+            }
+            case OP_REMOVE:
+                mEntries.remove(in.readUTF());
+                return true;
+            case OP_CLEAR:
+                mEntries.clear();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void append(int op, String query, long time, int useCount) {
+        try {
+            if (mAppendStream == null) {
+                mAppendStream = openAppendStream();
+            }
+            writeRecord(mAppendStream, op, query, time, useCount, 0);
+            mAppendStream.flush();
+            mLogRecordCount++;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to the history log", e);
+            closeQuietly(mAppendStream);
+            mAppendStream = null;
+        }
+    }
+
+    private DataOutputStream openAppendStream() throws IOException {
+        File file = getLogFile();
+        boolean writeHeader = !file.exists() || file.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (writeHeader) {
+            out.writeInt(LOG_MAGIC);
+            out.writeInt(LOG_VERSION);
+        }
+        return out;
+    }
+
+    private static void writeRecord(DataOutputStream out, int op, String query, long time, int useCount,
+                                    double frecencyKey) throws IOException {
+        out.writeByte(op);
+        switch (op) {
+            case OP_VISIT:
+                out.writeUTF(query);
+                out.writeLong(time);
+                break;
+            case OP_ENTRY:
+                out.writeUTF(query);
+                out.writeLong(time);
+                out.writeInt(useCount);
+                break;
+            case OP_SCORED:
+                out.writeUTF(query);
+                out.writeLong(time);
+                out.writeInt(useCount);
+                out.writeDouble(frecencyKey);
+                break;
+            case OP_REMOVE:
+                out.writeUTF(query);
+                break;
+            case OP_CLEAR:
+                break;
+        }
+    }
+
+    //rewrites the log with a single record per entry
+    private void compact() {
+        File file = getLogFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = null;
+        DataOutputStream out = null;
+        try {
+            fileOut = new FileOutputStream(tmpFile);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(LOG_MAGIC);
+            out.writeInt(LOG_VERSION);
+            //eldest first, so that reading the log restores the same order
+            for (HistoryEntry entry : mEntries.values()) {
+                writeRecord(out, OP_SCORED, entry.getQuery(), entry.getLastUsed(), entry.getUseCount(),
+                        entry.getFrecencyKey());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+
+            closeQuietly(mAppendStream);
+            mAppendStream = null;
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+            mLogRecordCount = mEntries.size();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to compact the history log", e);
+            closeQuietly(out);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
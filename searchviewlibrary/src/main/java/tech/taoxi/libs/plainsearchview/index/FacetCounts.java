@@ -0,0 +1,62 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The number of matches of a search that have each value of some facet
+ * fields, for example to show "food (12)" next to a scope.
+ * <p/>
+ * <p>Created with the fields to count and filled by
+ * {@link FacetedSearchEngine#search(String, SearchScope, int, int[], FacetCounts)}.
+ * Values that no match has are left out.</p>
+ */
+public final class FacetCounts {
+
+    private final Map<String, Map<String, Integer>> mCounts = new LinkedHashMap<>();
+
+    /**
+     * @param fields the facet fields to count
+     */
+    public FacetCounts(@NonNull String... fields) {
+        for (String field : fields) {
+            mCounts.put(field, new TreeMap<String, Integer>());
+        }
+    }
+
+    @NonNull
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(mCounts.keySet());
+    }
+
+    /**
+     * @return the number of matches with a value, by value
+     */
+    @NonNull
+    public Map<String, Integer> getCounts(@NonNull String field) {
+        Map<String, Integer> counts = mCounts.get(field);
+        return counts != null ? Collections.unmodifiableMap(counts) : Collections.<String, Integer>emptyMap();
+    }
+
+    public int getCount(@NonNull String field, @NonNull String value) {
+        Map<String, Integer> counts = mCounts.get(field);
+        Integer count = counts != null ? counts.get(value) : null;
+        return count != null ? count : 0;
+    }
+
+    void add(String field, String value, int count) {
+        Map<String, Integer> counts = mCounts.get(field);
+        Integer previous = counts.get(value);
+        counts.put(value, previous != null ? previous + count : count);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetCounts" + mCounts;
+    }
+}
@@ -0,0 +1,45 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+/**
+ * The facet values of the documents of an {@link InvertedIndex} are indexed
+ * as terms of their own, "\0field\0value", next to the tokens of their
+ * text. A token is made of letters and digits, so it never matches them,
+ * and they all sort before the tokens.
+ */
+final class FacetTerms {
+
+    final static char SEPARATOR = '\u0000';
+
+    private FacetTerms() {
+    }
+
+    /**
+     * @param facet a facet value written as "field:value"
+     * @return the term of the facet value
+     */
+    static String fromFacet(String facet) {
+        int colon = facet.indexOf(':');
+        if (colon <= 0 || facet.indexOf(SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Facets are written as field:value, not " + facet);
+        }
+        return SEPARATOR + facet.substring(0, colon) + SEPARATOR + facet.substring(colon + 1);
+    }
+
+    /**
+     * @return the facet value of a term, written as "field:value"
+     */
+    static String toFacet(String term) {
+        return term.substring(1).replace(SEPARATOR, ':');
+    }
+
+    /**
+     * @return the start of the terms of all the values of a field
+     */
+    static String fieldPrefix(String field) {
+        return SEPARATOR + field + SEPARATOR;
+    }
+
+    static String term(String field, String value) {
+        return fieldPrefix(field) + value;
+    }
+}
@@ -0,0 +1,50 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A {@link LocalSearchEngine} whose documents have facet values, such as a
+ * category or a region, that a search can be narrowed to.
+ *
+ * @see ScopedSearchProvider
+ */
+public interface FacetedSearchEngine extends LocalSearchEngine {
+
+    /**
+     * Finds the best matches of a query among the documents in a scope.
+     *
+     * @param normalizedQuery the query, normalized with
+     *                        {@link tech.taoxi.libs.plainsearchview.search.QueryNormalizer}
+     * @param scope           the documents to search
+     * @param k               the maximum number of matches to return
+     * @param outDocIds       receives the ids of the matches, best first, must
+     *                        hold at least k ids
+     * @param counts          receives the facet values of all the matches,
+     *                        not only of the k best ones, or null
+     * @return the number of ids written to outDocIds
+     */
+    int search(@NonNull String normalizedQuery, @NonNull SearchScope scope, int k, @NonNull int[] outDocIds,
+               @Nullable FacetCounts counts);
+
+    /**
+     * Finds the best matches of a compiled query among the documents in a
+     * scope.
+     *
+     * @param plan      the query, compiled by a {@link QueryParser}
+     * @param scope     the documents to search, further narrowed by the
+     *                  facet values of the query
+     * @param k         the maximum number of matches to return
+     * @param outDocIds receives the ids of the matches, best first, must
+     *                  hold at least k ids
+     * @param counts    receives the facet values of all the matches,
+     *                  not only of the k best ones, or null
+     * @return the number of ids written to outDocIds
+     */
+    int search(@NonNull QueryPlan plan, @NonNull SearchScope scope, int k, @NonNull int[] outDocIds,
+               @Nullable FacetCounts counts);
+
+    @NonNull
+    @Override
+    FacetedSearchEngine snapshot();
+}
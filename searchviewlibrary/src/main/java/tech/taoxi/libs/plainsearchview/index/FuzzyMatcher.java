@@ -0,0 +1,204 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the terms of a {@link PrefixIndex} that start with a few typos of
+ * the query, so that "resturant" still completes to "restaurant".
+ * <p/>
+ * <p>Rather than computing an edit distance for every term, a
+ * {@link LevenshteinAutomaton} compiled from the query is run along the
+ * tree: a branch is left as soon as the automaton dies, and once the query is
+ * matched, the whole subtree below is a match and its best terms are read
+ * from the index like for an exact completion. Terms that start with the
+ * query itself come first, then those needing one edit, then two.</p>
+ * <p/>
+ * <p>A matcher can be shared between threads.</p>
+ */
+public class FuzzyMatcher {
+
+    private final PrefixIndex mIndex;
+
+    public FuzzyMatcher(@NonNull PrefixIndex index) {
+        mIndex = index;
+    }
+
+    @NonNull
+    public PrefixIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Same as {@link #match(CharSequence, int, int, int[], int[])} with
+     * {@link LevenshteinAutomaton#defaultMaxEdits(int)} edits.
+     * <p/>
+     * <p>Two edits take about ten times longer than one, so they are only
+     * tried when nothing is found with one edit. With 100k terms, one edit
+     * stays well under 1 ms on a mid-range device. Two edits take about
+     * 0.1 ms on a desktop JVM with terms made of syllables, like words, but
+     * about 1.4 ms with terms of random letters, which is several ms on a
+     * device: see FuzzyMatcherBenchmark in the tests.</p>
+     */
+    public int match(@NonNull CharSequence query, int k, @NonNull int[] outTermIds, int[] outEdits) {
+        int maxEdits = LevenshteinAutomaton.defaultMaxEdits(query.length());
+        if (maxEdits > 1) {
+            int count = match(query, 1, k, outTermIds, outEdits);
+            if (count > 0) {
+                return count;
+            }
+        }
+        return match(query, maxEdits, k, outTermIds, outEdits);
+    }
+
+    /**
+     * Finds the best terms starting with the query or with a text within
+     * maxEdits edits of it.
+     *
+     * @param query      the query, in the same case as the terms
+     * @param maxEdits   the number of edits allowed, at most {@link LevenshteinAutomaton#MAX_EDITS}
+     * @param k          the maximum number of terms to return
+     * @param outTermIds receives the term ids, fewest edits first then highest
+     *                   weight first, must hold at least k ids
+     * @param outEdits   receives the number of edits of each term, may be null
+     * @return the number of terms found
+     */
+    public int match(@NonNull CharSequence query, int maxEdits, int k,
+                     @NonNull int[] outTermIds, int[] outEdits) {
+        if (k <= 0 || mIndex.getTermCount() == 0) {
+            return 0;
+        }
+        maxEdits = Math.min(maxEdits, query.length() - 1);
+        if (maxEdits <= 0 || query.length() > LevenshteinAutomaton.MAX_QUERY_LENGTH) {
+            int count = mIndex.complete(query, k, outTermIds);
+            if (outEdits != null) {
+                Arrays.fill(outEdits, 0, count, 0);
+            }
+            return count;
+        }
+
+        Walk walk = new Walk(new LevenshteinAutomaton(query, maxEdits), query.length());
+        walk.run();
+        return walk.collect(k, outTermIds, outEdits);
+    }
+
+    /**
+     * Convenience for {@link #match(CharSequence, int, int[], int[])} that
+     * returns the terms themselves.
+     */
+    public List<String> match(@NonNull CharSequence query, int k) {
+        int[] termIds = new int[Math.max(0, k)];
+        int count = match(query, k, termIds, null);
+        List<String> terms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            terms.add(mIndex.getTerm(termIds[i]));
+        }
+        return terms;
+    }
+
+    //the state of a single match, so that the matcher itself stays immutable
+    private final class Walk {
+
+        private final LevenshteinAutomaton mAutomaton;
+        private final int mStateSize;
+        //one automaton state per depth, lo and hi siblings share the depth of their parent
+        private final long[] mStates;
+        private final int mMaxDepth;
+
+        //subtrees matching the query, with their number of edits
+        private int[] mMatchNodes = new int[16];
+        private int[] mMatchEdits = new int[16];
+        private int mMatchCount;
+
+        Walk(LevenshteinAutomaton automaton, int queryLength) {
+            mAutomaton = automaton;
+            mStateSize = automaton.getStateSize();
+            //past this many chars, only insertions after the query could remain
+            mMaxDepth = queryLength + automaton.getMaxEdits() + 1;
+            mStates = new long[(mMaxDepth + 1) * mStateSize];
+        }
+
+        void run() {
+            mAutomaton.start(mStates, 0);
+            visit(PrefixIndex.ROOT, 0, mAutomaton.getMaxEdits() + 1);
+        }
+
+        /**
+         * @param node      the node to visit, with its lo and hi siblings
+         * @param depth     the number of chars read before the node
+         * @param bestEdits the fewest edits already matched by an ancestor, the
+         *                  subtree is only worth recording again with fewer
+         */
+        private void visit(int node, int depth, int bestEdits) {
+            final PrefixIndex index = mIndex;
+            while (node != PrefixIndex.NIL) {
+                visit(index.mLo[node], depth, bestEdits);
+
+                int to = (depth + 1) * mStateSize;
+                if (mAutomaton.step(mStates, depth * mStateSize, index.mSplitChars[node], mStates, to)) {
+                    int edits = mAutomaton.acceptedEdits(mStates, to);
+                    int childBest = bestEdits;
+                    if (edits >= 0 && edits < bestEdits) {
+                        addMatch(node, edits);
+                        childBest = edits;
+                    }
+                    //below, only matches with fewer edits than childBest are new
+                    if (mAutomaton.minLiveEdits(mStates, to) < childBest && depth + 1 < mMaxDepth) {
+                        visit(index.mEq[node], depth + 1, childBest);
+                    }
+                }
+                node = index.mHi[node];
+            }
+        }
+
+        private void addMatch(int node, int edits) {
+            if (mMatchCount == mMatchNodes.length) {
+                mMatchNodes = Arrays.copyOf(mMatchNodes, mMatchCount * 2);
+                mMatchEdits = Arrays.copyOf(mMatchEdits, mMatchCount * 2);
+            }
+            mMatchNodes[mMatchCount] = node;
+            mMatchEdits[mMatchCount] = edits;
+            mMatchCount++;
+        }
+
+        int collect(int k, int[] outTermIds, int[] outEdits) {
+            int count = 0;
+            int[] nodes = new int[mMatchCount];
+            int[] candidates = new int[k];
+            for (int edits = 0; edits <= mAutomaton.getMaxEdits() && count < k; edits++) {
+                int nodeCount = 0;
+                for (int i = 0; i < mMatchCount; i++) {
+                    if (mMatchEdits[i] == edits) {
+                        nodes[nodeCount++] = mMatchNodes[i];
+                    }
+                }
+                if (nodeCount == 0) {
+                    continue;
+                }
+                //at most count of them were already found with fewer edits
+                int found = mIndex.completeSubtrees(nodes, nodeCount, k, candidates, 0);
+                for (int i = 0; i < found && count < k; i++) {
+                    if (!contains(outTermIds, count, candidates[i])) {
+                        if (outEdits != null) {
+                            outEdits[count] = edits;
+                        }
+                        outTermIds[count++] = candidates[i];
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
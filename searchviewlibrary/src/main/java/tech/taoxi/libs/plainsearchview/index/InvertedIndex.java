@@ -0,0 +1,1085 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+
+/**
+ * An immutable full-text index of weighted documents.
+ * <p/>
+ * <p>Every token of the documents maps to the sorted list of the documents
+ * that contain it. A query matches the documents that contain all of its
+ * tokens, the last one being completed as a prefix so that results show up
+ * while the last word is still being typed. The matches are ranked by
+ * weight, then by the order the documents were added in.</p>
+ * <p/>
+ * <p>The whole index lives in a single {@link ByteBuffer}: the terms and the
+ * documents are stored as UTF-16 chars, and the posting lists as varint
+ * encoded gaps between document ids, which takes one or two bytes per entry
+ * for most lists. An index of any size is a handful of objects.</p>
+ * <p/>
+ * <p>Documents may have facet values, such as "category:food", that a
+ * search can be narrowed to with a {@link SearchScope}. They are indexed as
+ * terms of their own, and the documents of a value are loaded into a
+ * compressed bitmap the first time a scope uses it.</p>
+ * <p/>
+ * <p>That buffer is also the snapshot format: {@link #writeTo(File)} saves
+ * it, and {@link #open(File)} maps the file back and searches it in place,
+ * so opening a large catalog reads nothing up front and a search only
+ * touches the pages of the terms, postings and documents it looks at.</p>
+ * <p/>
+ * <p>Instances are created with a {@link Builder} or opened from a snapshot,
+ * and are safe to share between threads.</p>
+ */
+public final class InvertedIndex implements FacetedSearchEngine {
+
+    //"PSVI"
+    final static int MAGIC = 0x50535649;
+    final static int VERSION = 1;
+
+    //the header is a sequence of ints, most of them are positions of sections
+    private final static int H_MAGIC = 0;
+    private final static int H_VERSION = 1;
+    private final static int H_LENGTH = 2;
+    private final static int H_DOC_COUNT = 3;
+    private final static int H_TERM_COUNT = 4;
+    private final static int H_TERM_OFFSETS = 5;
+    private final static int H_POSTING_OFFSETS = 6;
+    private final static int H_TEXT_OFFSETS = 7;
+    private final static int H_KEY_OFFSETS = 8;
+    private final static int H_WEIGHTS = 9;
+    private final static int H_KEY_ORDER = 10;
+    private final static int H_TERM_CHARS = 11;
+    private final static int H_TEXT_CHARS = 12;
+    private final static int H_KEY_CHARS = 13;
+    private final static int H_POSTINGS = 14;
+    private final static int HEADER_INTS = 15;
+
+    //normalizes the text of the documents whose phrases are checked, without caching it
+    private final static QueryNormalizer TEXT_NORMALIZER = new QueryNormalizer(0);
+
+    private final ByteBuffer mBuffer;
+    private final int mDocCount;
+    private final int mTermCount;
+    private final int mTermOffsets;
+    private final int mPostingOffsets;
+    private final int mTextOffsets;
+    private final int mKeyOffsets;
+    private final int mWeights;
+    private final int mKeyOrder;
+    private final int mTermChars;
+    private final int mTextChars;
+    private final int mKeyChars;
+    private final int mPostings;
+
+    //the facet terms sort first, their bitmaps are loaded as scopes use them
+    private final int mFacetTermCount;
+    private final AtomicReferenceArray<RoaringBitmap> mFacetBitmaps;
+    //the filter of the last scope
+    private volatile ScopeFilter mScopeFilter;
+
+    private static final class ScopeFilter {
+
+        final SearchScope scope;
+        final RoaringBitmap documents;
+
+        ScopeFilter(SearchScope scope, RoaringBitmap documents) {
+            this.scope = scope;
+            this.documents = documents;
+        }
+    }
+
+    /**
+     * Collects the documents of an {@link InvertedIndex}.
+     * <p/>
+     * <p>From API 21, large sets of documents are tokenized in parallel on
+     * a {@link java.util.concurrent.ForkJoinPool}, see {@link #setParallelism(int)}.</p>
+     */
+    public static final class Builder {
+
+        //smaller partitions cost more to merge than they save
+        private final static int MIN_PARTITION_SIZE = 4096;
+        //partitions per thread, so that a slow partition does not hold the others back
+        private final static int PARTITIONS_PER_THREAD = 4;
+
+        private final Map<String, Integer> mDocIds = new HashMap<>();
+        private final List<String> mKeys = new ArrayList<>();
+        private final List<String> mTexts = new ArrayList<>();
+        private final List<String[]> mFacetTerms = new ArrayList<>();
+        private float[] mWeights = new float[16];
+        private int mParallelism = Runtime.getRuntime().availableProcessors();
+        private BuildStats mLastBuildStats;
+
+        /**
+         * Adds a document whose key is its text.
+         */
+        public Builder add(@NonNull String text, float weight) {
+            return add(text, text, weight);
+        }
+
+        /**
+         * Adds a document. When a key is added twice, the last document
+         * replaces the previous one.
+         *
+         * @param key    the key of the document, see {@link InvertedIndex#getKey(int)}
+         * @param text   the text that is indexed and shown
+         * @param weight the weight of the document, higher ranks first
+         * @param facets the facet values of the document, written as
+         *               "field:value", see {@link SearchScope}
+         */
+        public Builder add(@NonNull String key, @NonNull String text, float weight, @NonNull String... facets) {
+            String[] facetTerms = null;
+            if (facets.length > 0) {
+                facetTerms = new String[facets.length];
+                for (int i = 0; i < facets.length; i++) {
+                    facetTerms[i] = FacetTerms.fromFacet(facets[i]);
+                }
+            }
+            Integer existing = mDocIds.get(key);
+            int docId;
+            if (existing != null) {
+                docId = existing;
+                mTexts.set(docId, text);
+                mFacetTerms.set(docId, facetTerms);
+            } else {
+                docId = mKeys.size();
+                mDocIds.put(key, docId);
+                mKeys.add(key);
+                mTexts.add(text);
+                mFacetTerms.add(facetTerms);
+                if (docId == mWeights.length) {
+                    mWeights = Arrays.copyOf(mWeights, docId * 2);
+                }
+            }
+            mWeights[docId] = weight;
+            return this;
+        }
+
+        public int getDocumentCount() {
+            return mKeys.size();
+        }
+
+        /**
+         * Sets how many threads {@link #build()} may use, the number of
+         * processors by default. 1 builds on the calling thread, which is
+         * also what happens below API 21.
+         */
+        public Builder setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+            }
+            mParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Builds the index on the calling thread, tokenizing the documents
+         * in parallel if there are enough of them.
+         */
+        public InvertedIndex build() {
+            long start = System.nanoTime();
+            int docCount = mKeys.size();
+            String[] texts = mTexts.toArray(new String[docCount]);
+            String[][] facetTerms = mFacetTerms.toArray(new String[docCount][]);
+
+            int partitionSize = Math.max(MIN_PARTITION_SIZE,
+                    (docCount + mParallelism * PARTITIONS_PER_THREAD - 1) / (mParallelism * PARTITIONS_PER_THREAD));
+            int parallelism = Math.min(mParallelism, (docCount + partitionSize - 1) / partitionSize);
+            TermPostings postings;
+            int partitionCount;
+            if (parallelism > 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                AtomicInteger partitions = new AtomicInteger();
+                postings = ParallelIndexBuild.run(texts, facetTerms, parallelism, partitionSize, partitions);
+                partitionCount = partitions.get();
+            } else {
+                parallelism = 1;
+                postings = TermPostings.tokenize(texts, facetTerms, 0, docCount);
+                partitionCount = 1;
+            }
+
+            InvertedIndex index = new InvertedIndex(encode(postings.terms, postings.postings,
+                    mKeys.toArray(new String[docCount]), texts, Arrays.copyOf(mWeights, docCount)));
+            mLastBuildStats = new BuildStats(docCount, postings.terms.length, partitionCount, parallelism,
+                    System.nanoTime() - start);
+            return index;
+        }
+
+        /**
+         * @return how the last {@link #build()} went, or null
+         */
+        public BuildStats getLastBuildStats() {
+            return mLastBuildStats;
+        }
+    }
+
+    /**
+     * How long building an index took, to plan refreshes on slow devices.
+     */
+    public static final class BuildStats {
+
+        public final int recordCount;
+        public final int termCount;
+        public final int partitionCount;
+        public final int threadCount;
+        public final long elapsedNanos;
+
+        BuildStats(int recordCount, int termCount, int partitionCount, int threadCount, long elapsedNanos) {
+            this.recordCount = recordCount;
+            this.termCount = termCount;
+            this.partitionCount = partitionCount;
+            this.threadCount = threadCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : recordCount * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "InvertedIndex build: %d records, %d terms in %.1f ms (%.0f records/s, %d partitions, %d threads)",
+                    recordCount, termCount, elapsedNanos / 1e6, getRecordsPerSecond(), partitionCount, threadCount);
+        }
+    }
+
+    /**
+     * The memory used by an index, to help sizing it.
+     */
+    public static final class MemoryReport {
+
+        public final int docCount;
+        public final int termCount;
+        public final long postingBytes;
+        public final long totalBytes;
+
+        MemoryReport(int docCount, int termCount, long postingBytes, long totalBytes) {
+            this.docCount = docCount;
+            this.termCount = termCount;
+            this.postingBytes = postingBytes;
+            this.totalBytes = totalBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "InvertedIndex: %d documents, %d terms, %d bytes (postings %d)",
+                    docCount, termCount, totalBytes, postingBytes);
+        }
+    }
+
+    InvertedIndex(@NonNull ByteBuffer buffer) {
+        mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (mBuffer.capacity() < HEADER_INTS * 4 || header(H_MAGIC) != MAGIC) {
+            throw new IllegalArgumentException("Not an inverted index");
+        }
+        if (header(H_VERSION) != VERSION) {
+            throw new IllegalArgumentException("Unsupported inverted index version: " + header(H_VERSION));
+        }
+        if (header(H_LENGTH) != mBuffer.capacity()) {
+            throw new IllegalArgumentException("Truncated inverted index: " + mBuffer.capacity()
+                    + " bytes instead of " + header(H_LENGTH));
+        }
+        //the sections are laid out in the order of their header fields
+        for (int field = H_TERM_OFFSETS, previous = HEADER_INTS * 4; field <= H_POSTINGS; field++) {
+            int position = header(field);
+            if (position < previous || position > mBuffer.capacity()) {
+                throw new IllegalArgumentException("Corrupt inverted index: section " + field
+                        + " at " + position);
+            }
+            previous = position;
+        }
+        mDocCount = header(H_DOC_COUNT);
+        mTermCount = header(H_TERM_COUNT);
+        mTermOffsets = header(H_TERM_OFFSETS);
+        mPostingOffsets = header(H_POSTING_OFFSETS);
+        mTextOffsets = header(H_TEXT_OFFSETS);
+        mKeyOffsets = header(H_KEY_OFFSETS);
+        mWeights = header(H_WEIGHTS);
+        mKeyOrder = header(H_KEY_ORDER);
+        mTermChars = header(H_TERM_CHARS);
+        mTextChars = header(H_TEXT_CHARS);
+        mKeyChars = header(H_KEY_CHARS);
+        mPostings = header(H_POSTINGS);
+        mFacetTermCount = searchTerms(String.valueOf(FacetTerms.SEPARATOR), true);
+        mFacetBitmaps = new AtomicReferenceArray<>(mFacetTermCount);
+    }
+
+    /**
+     * Opens a snapshot written by {@link #writeTo(File)}. The file is mapped
+     * read only and searched in place, nothing is read until it is needed.
+     *
+     * @throws IOException if the file cannot be mapped or is not a snapshot
+     */
+    @NonNull
+    public static InvertedIndex open(@NonNull File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return map(channel, 0, channel.size());
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Maps a snapshot from a region of a file, for example one stored
+     * uncompressed in the assets of the application and opened with
+     * {@code AssetManager.openFd()}. The mapping stays valid after the
+     * channel is closed.
+     *
+     * @throws IOException if the region cannot be mapped or is not a snapshot
+     */
+    @NonNull
+    public static InvertedIndex map(@NonNull FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large to map: " + size + " bytes");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        try {
+            return new InvertedIndex(buffer);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the index as a snapshot that {@link #open(File)} can map. The
+     * file is replaced atomically, so an index that is mapped from it keeps
+     * reading the previous snapshot.
+     */
+    public void writeTo(@NonNull File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        boolean written = false;
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+            out.close();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                closeQuietly(out);
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return true if the index is searched in place from a mapped snapshot
+     */
+    public boolean isMapped() {
+        return mBuffer.isDirect();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Lays an index out in a buffer.
+     *
+     * @param terms    the sorted terms
+     * @param postings the ascending document ids of every term
+     */
+    static ByteBuffer encode(String[] terms, int[][] postings, final String[] keys, String[] texts,
+                             float[] weights) {
+        int termCount = terms.length;
+        int docCount = keys.length;
+
+        int[] termOffsets = charOffsets(terms);
+        int[] textOffsets = charOffsets(texts);
+        int[] keyOffsets = charOffsets(keys);
+        int[] postingOffsets = new int[termCount + 1];
+        for (int i = 0; i < termCount; i++) {
+            int[] docIds = postings[i];
+            int size = varintSize(docIds.length);
+            int previous = 0;
+            for (int docId : docIds) {
+                size += varintSize(docId - previous);
+                previous = docId;
+            }
+            postingOffsets[i + 1] = postingOffsets[i] + size;
+        }
+        Integer[] keyOrder = new Integer[docCount];
+        for (int i = 0; i < docCount; i++) {
+            keyOrder[i] = i;
+        }
+        Arrays.sort(keyOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a].compareTo(keys[b]);
+            }
+        });
+
+        //the int sections first, so that every section is aligned
+        int[] header = new int[HEADER_INTS];
+        int position = HEADER_INTS * 4;
+        header[H_TERM_OFFSETS] = position;
+        position += (termCount + 1) * 4;
+        header[H_POSTING_OFFSETS] = position;
+        position += (termCount + 1) * 4;
+        header[H_TEXT_OFFSETS] = position;
+        position += (docCount + 1) * 4;
+        header[H_KEY_OFFSETS] = position;
+        position += (docCount + 1) * 4;
+        header[H_WEIGHTS] = position;
+        position += docCount * 4;
+        header[H_KEY_ORDER] = position;
+        position += docCount * 4;
+        header[H_TERM_CHARS] = position;
+        position += termOffsets[termCount] * 2;
+        header[H_TEXT_CHARS] = position;
+        position += textOffsets[docCount] * 2;
+        header[H_KEY_CHARS] = position;
+        position += keyOffsets[docCount] * 2;
+        header[H_POSTINGS] = position;
+        position += postingOffsets[termCount];
+        header[H_MAGIC] = MAGIC;
+        header[H_VERSION] = VERSION;
+        header[H_LENGTH] = position;
+        header[H_DOC_COUNT] = docCount;
+        header[H_TERM_COUNT] = termCount;
+
+        ByteBuffer buffer = ByteBuffer.allocate(position).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(header);
+        putInts(buffer, header[H_TERM_OFFSETS], termOffsets);
+        putInts(buffer, header[H_POSTING_OFFSETS], postingOffsets);
+        putInts(buffer, header[H_TEXT_OFFSETS], textOffsets);
+        putInts(buffer, header[H_KEY_OFFSETS], keyOffsets);
+        buffer.position(header[H_WEIGHTS]);
+        buffer.asFloatBuffer().put(weights);
+        for (int i = 0; i < docCount; i++) {
+            buffer.putInt(header[H_KEY_ORDER] + i * 4, keyOrder[i]);
+        }
+        putChars(buffer, header[H_TERM_CHARS], terms);
+        putChars(buffer, header[H_TEXT_CHARS], texts);
+        putChars(buffer, header[H_KEY_CHARS], keys);
+        buffer.position(header[H_POSTINGS]);
+        for (int[] docIds : postings) {
+            putVarint(buffer, docIds.length);
+            int previous = 0;
+            for (int docId : docIds) {
+                putVarint(buffer, docId - previous);
+                previous = docId;
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int[] charOffsets(String[] strings) {
+        int[] offsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i + 1] = offsets[i] + strings[i].length();
+        }
+        return offsets;
+    }
+
+    private static void putInts(ByteBuffer buffer, int position, int[] values) {
+        buffer.position(position);
+        buffer.asIntBuffer().put(values);
+    }
+
+    private static void putChars(ByteBuffer buffer, int position, String[] strings) {
+        buffer.position(position);
+        CharBuffer chars = buffer.asCharBuffer();
+        for (String string : strings) {
+            chars.put(string);
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private int header(int field) {
+        return mBuffer.getInt(field * 4);
+    }
+
+    public int getDocumentCount() {
+        return mDocCount;
+    }
+
+    /**
+     * @return the number of terms, including those of the facet values
+     */
+    public int getTermCount() {
+        return mTermCount;
+    }
+
+    public String getTerm(int termId) {
+        return readString(mTermOffsets, mTermChars, termId);
+    }
+
+    /**
+     * @return the number of documents that contain a term
+     */
+    public int getDocumentFrequency(int termId) {
+        return readVarint(mPostings + mBuffer.getInt(mPostingOffsets + termId * 4));
+    }
+
+    @NonNull
+    @Override
+    public String getText(int docId) {
+        return readString(mTextOffsets, mTextChars, docId);
+    }
+
+    @NonNull
+    @Override
+    public String getKey(int docId) {
+        return readString(mKeyOffsets, mKeyChars, docId);
+    }
+
+    public float getWeight(int docId) {
+        return mBuffer.getFloat(mWeights + docId * 4);
+    }
+
+    /**
+     * @return the id of the document with the given key, or -1
+     */
+    public int findDocument(@NonNull CharSequence key) {
+        int lo = 0;
+        int hi = mDocCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int docId = mBuffer.getInt(mKeyOrder + mid * 4);
+            int cmp = compareString(mKeyOffsets, mKeyChars, docId, key, false);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return docId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the id of the term that is exactly the given token, or -1
+     */
+    public int findTerm(@NonNull CharSequence token) {
+        int termId = searchTerms(token, false);
+        return termId < mTermCount && compareString(mTermOffsets, mTermChars, termId, token, false) == 0
+                ? termId : -1;
+    }
+
+    /**
+     * Finds the documents that contain every token of the query, the last
+     * one as a prefix.
+     *
+     * @param normalizedQuery the query, normalized with {@link QueryNormalizer}
+     * @param k               the maximum number of documents to return
+     * @param outDocIds       receives the ids of the documents, best first,
+     *                        must hold at least k ids
+     * @return the number of documents written to outDocIds
+     */
+    @Override
+    public int search(@NonNull String normalizedQuery, int k, @NonNull int[] outDocIds) {
+        return search(normalizedQuery, SearchScope.ALL, k, outDocIds, null);
+    }
+
+    @Override
+    public int search(@NonNull String normalizedQuery, @NonNull SearchScope scope, int k,
+                      @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+        List<String> tokens = Tokenizer.tokenize(normalizedQuery);
+        if (tokens.isEmpty()) {
+            return 0;
+        }
+        return search(QueryPlan.of(normalizedQuery, tokens), scope, k, outDocIds, counts);
+    }
+
+    @Override
+    public int search(@NonNull QueryPlan plan, @NonNull SearchScope scope, int k,
+                      @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+        if (plan.isEmpty()) {
+            return 0;
+        }
+        TopKCollector top = new TopKCollector(Math.max(k, 0));
+        collect(plan, scope, null, 0, top, counts);
+        return top.drainTo(outDocIds);
+    }
+
+    /**
+     * Offers the documents that match a plan to the collector, scored by
+     * their weight.
+     * <p/>
+     * <p>The posting lists are read where they are stored and intersected as
+     * they are decoded, so this only allocates a few objects per term, and
+     * a bitset when the prefix expands to several terms. Phrases are checked
+     * last, on the text of the documents that can still be collected.</p>
+     *
+     * @param plan      the query
+     * @param scope     the documents to search
+     * @param deleted   the documents to skip, as a bitset, or null
+     * @param docBase   added to the ids of the documents
+     * @param collector receives the matches
+     * @param counts    receives the facet values of the matches, or null
+     */
+    void collect(QueryPlan plan, SearchScope scope, long[] deleted, int docBase, TopKCollector collector,
+                 FacetCounts counts) {
+        RoaringBitmap filter = scope.isAll() ? null : getScopeFilter(scope);
+        if (!plan.scope.isAll()) {
+            RoaringBitmap planFilter = getScopeDocuments(plan.scope);
+            filter = filter == null ? planFilter : filter.and(planFilter);
+        }
+        if (filter != null && filter.isEmpty()) {
+            return;
+        }
+        long[] matched = counts != null ? new long[(mDocCount + 63) >>> 6] : null;
+        collectMatches(plan, new Candidates(plan, deleted, filter, docBase, collector, matched));
+        if (counts != null) {
+            countFacets(matched, counts);
+        }
+    }
+
+    private void collectMatches(QueryPlan plan, Candidates candidates) {
+        List<String> terms = plan.terms;
+        int from = 0;
+        int to = 0;
+        if (plan.prefix != null) {
+            from = searchTerms(plan.prefix, false);
+            to = searchTerms(plan.prefix, true);
+            if (from == to) {
+                return;
+            }
+        }
+
+        //the complete terms, and the prefix if it expands to a single term,
+        //are walked together, rarest first so that the others skip the most
+        boolean singleTerm = to - from == 1;
+        PostingsCursor[] cursors = new PostingsCursor[singleTerm ? terms.size() + 1 : terms.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            int termId = i < terms.size() ? findTerm(terms.get(i)) : from;
+            if (termId < 0) {
+                return;
+            }
+            PostingsCursor cursor = new PostingsCursor(termId);
+            int j = i;
+            for (; j > 0 && cursors[j - 1].remaining > cursor.remaining; j--) {
+                cursors[j] = cursors[j - 1];
+            }
+            cursors[j] = cursor;
+        }
+
+        long[] matches = null;
+        if (to - from > 1) {
+            //the prefix expands to several terms, their lists are merged in a bitset
+            matches = new long[(mDocCount + 63) >>> 6];
+            for (int termId = from; termId < to; termId++) {
+                PostingsCursor cursor = new PostingsCursor(termId);
+                for (int docId = cursor.next(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.next()) {
+                    matches[docId >>> 6] |= 1L << docId;
+                }
+            }
+        } else if (cursors.length == 0) {
+            //only facet values, all the documents that have them match
+            matches = new long[(mDocCount + 63) >>> 6];
+            candidates.filter.addTo(matches);
+        }
+
+        if (cursors.length == 0) {
+            long[] deleted = candidates.deleted;
+            for (int word = 0; word < matches.length; word++) {
+                long bits = matches[word];
+                if (deleted != null) {
+                    bits &= ~deleted[word];
+                }
+                while (bits != 0) {
+                    candidates.offer(word << 6 | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+            return;
+        }
+
+        PostingsCursor lead = cursors[0];
+        int docId = lead.next();
+        while (docId != PostingsCursor.NO_MORE_DOCS) {
+            int i = 1;
+            for (; i < cursors.length; i++) {
+                int other = cursors[i].advance(docId);
+                if (other != docId) {
+                    docId = other == PostingsCursor.NO_MORE_DOCS ? other : lead.advance(other);
+                    break;
+                }
+            }
+            if (i < cursors.length) {
+                continue;
+            }
+            if ((matches == null || (matches[docId >>> 6] & 1L << docId) != 0)
+                    && !SegmentedIndex.isDeleted(candidates.deleted, docId)) {
+                candidates.offer(docId);
+            }
+            docId = lead.next();
+        }
+    }
+
+    //checks the documents that contain the terms of a plan against the rest of it, in ascending order
+    private final class Candidates {
+
+        final long[] deleted;
+        final RoaringBitmap filter;
+        private final QueryPlan mPlan;
+        private final RoaringBitmap mExcludedFacets;
+        //the terms of every excluded clause, null for the clauses that match nothing
+        private final PostingsCursor[][] mExcluded;
+        private final int mDocBase;
+        private final TopKCollector mCollector;
+        private final long[] mMatched;
+
+        Candidates(QueryPlan plan, long[] deleted, RoaringBitmap filter, int docBase, TopKCollector collector,
+                   long[] matched) {
+            this.deleted = deleted;
+            this.filter = filter;
+            mPlan = plan;
+            mDocBase = docBase;
+            mCollector = collector;
+            mMatched = matched;
+
+            RoaringBitmap excludedFacets = RoaringBitmap.EMPTY;
+            for (String facetTerm : plan.excludedFacets) {
+                int termId = findTerm(facetTerm);
+                if (termId >= 0) {
+                    excludedFacets = excludedFacets.or(getFacetBitmap(termId));
+                }
+            }
+            mExcludedFacets = excludedFacets;
+
+            mExcluded = new PostingsCursor[plan.excluded.size()][];
+            for (int i = 0; i < mExcluded.length; i++) {
+                List<String> clause = plan.excluded.get(i);
+                PostingsCursor[] cursors = new PostingsCursor[clause.size()];
+                for (int j = 0; j < cursors.length; j++) {
+                    int termId = findTerm(clause.get(j));
+                    if (termId < 0) {
+                        cursors = null;
+                        break;
+                    }
+                    cursors[j] = new PostingsCursor(termId);
+                }
+                mExcluded[i] = cursors;
+            }
+        }
+
+        //the document contains the terms of the plan, and is not deleted
+        void offer(int docId) {
+            if (filter != null && !filter.contains(docId)
+                    || !mExcludedFacets.isEmpty() && mExcludedFacets.contains(docId)) {
+                return;
+            }
+            float weight = getWeight(docId);
+            //the text is only read for documents that are collected or counted
+            if (mMatched == null && weight < mCollector.getMinCompetitiveScore()) {
+                return;
+            }
+            for (int i = 0; i < mExcluded.length; i++) {
+                if (mExcluded[i] != null && contains(mExcluded[i], docId)
+                        && (mExcluded[i].length == 1 || containsPhrase(docId, mPlan.excluded.get(i), false))) {
+                    return;
+                }
+            }
+            List<List<String>> phrases = mPlan.phrases;
+            for (int i = 0; i < phrases.size(); i++) {
+                boolean open = mPlan.openPhrase && i == phrases.size() - 1;
+                if (!containsPhrase(docId, phrases.get(i), open)) {
+                    return;
+                }
+            }
+            mCollector.offer(mDocBase + docId, weight);
+            if (mMatched != null) {
+                mMatched[docId >>> 6] |= 1L << docId;
+            }
+        }
+
+        private boolean contains(PostingsCursor[] cursors, int docId) {
+            for (PostingsCursor cursor : cursors) {
+                if (cursor.advance(docId) != docId) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    //true if the tokens of the text of a document contain the terms of a phrase in a row
+    private boolean containsPhrase(int docId, List<String> phrase, boolean endsWithPrefix) {
+        List<String> tokens = Tokenizer.tokenize(TEXT_NORMALIZER.normalize(getText(docId)));
+        int last = phrase.size() - 1;
+        for (int start = 0; start + last < tokens.size(); start++) {
+            int i = 0;
+            for (; i <= last; i++) {
+                String token = tokens.get(start + i);
+                String term = phrase.get(i);
+                if (i == last && endsWithPrefix ? !token.startsWith(term) : !token.equals(term)) {
+                    break;
+                }
+            }
+            if (i > last) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void countFacets(long[] matched, FacetCounts counts) {
+        for (String field : counts.getFields()) {
+            String prefix = FacetTerms.fieldPrefix(field);
+            for (int termId = searchTerms(prefix, false), to = searchTerms(prefix, true); termId < to; termId++) {
+                int count = getFacetBitmap(termId).andCardinality(matched);
+                if (count > 0) {
+                    counts.add(field, getTerm(termId).substring(prefix.length()), count);
+                }
+            }
+        }
+    }
+
+    //the documents in a scope, the filter of the last one is kept
+    private RoaringBitmap getScopeFilter(SearchScope scope) {
+        ScopeFilter filter = mScopeFilter;
+        if (filter != null && filter.scope.equals(scope)) {
+            return filter.documents;
+        }
+        RoaringBitmap documents = getScopeDocuments(scope);
+        mScopeFilter = new ScopeFilter(scope, documents);
+        return documents;
+    }
+
+    //the documents in a scope: any of the values of a field, for every field
+    private RoaringBitmap getScopeDocuments(SearchScope scope) {
+        RoaringBitmap documents = null;
+        for (String field : scope.getFields()) {
+            RoaringBitmap fieldDocuments = RoaringBitmap.EMPTY;
+            for (String value : scope.getValues(field)) {
+                int termId = findTerm(FacetTerms.term(field, value));
+                if (termId >= 0) {
+                    fieldDocuments = fieldDocuments.or(getFacetBitmap(termId));
+                }
+            }
+            documents = documents == null ? fieldDocuments : documents.and(fieldDocuments);
+        }
+        return documents;
+    }
+
+    private RoaringBitmap getFacetBitmap(int termId) {
+        RoaringBitmap bitmap = mFacetBitmaps.get(termId);
+        if (bitmap == null) {
+            //two threads may both load it, they load the same bitmap
+            RoaringBitmap.Builder builder = new RoaringBitmap.Builder();
+            PostingsCursor cursor = new PostingsCursor(termId);
+            for (int docId = cursor.next(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.next()) {
+                builder.add(docId);
+            }
+            bitmap = builder.build();
+            mFacetBitmaps.set(termId, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the facet values of every document, written as "field:value",
+     * null for the documents without any
+     */
+    String[][] readFacets() {
+        List<List<String>> facets = new ArrayList<>(mDocCount);
+        for (int i = 0; i < mDocCount; i++) {
+            facets.add(null);
+        }
+        for (int termId = 0; termId < mFacetTermCount; termId++) {
+            String facet = FacetTerms.toFacet(getTerm(termId));
+            PostingsCursor cursor = new PostingsCursor(termId);
+            for (int docId = cursor.next(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.next()) {
+                List<String> docFacets = facets.get(docId);
+                if (docFacets == null) {
+                    docFacets = new ArrayList<>(2);
+                    facets.set(docId, docFacets);
+                }
+                docFacets.add(facet);
+            }
+        }
+        String[][] result = new String[mDocCount][];
+        for (int docId = 0; docId < mDocCount; docId++) {
+            List<String> docFacets = facets.get(docId);
+            if (docFacets != null) {
+                result[docId] = docFacets.toArray(new String[docFacets.size()]);
+            }
+        }
+        return result;
+    }
+
+    //decodes the posting list of a term one document at a time
+    private final class PostingsCursor {
+
+        final static int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+        //the number of documents not read yet
+        int remaining;
+        private int mPosition;
+        private int mDocId = -1;
+
+        PostingsCursor(int termId) {
+            mPosition = mPostings + mBuffer.getInt(mPostingOffsets + termId * 4);
+            remaining = readVarint(mPosition);
+            mPosition += varintSize(remaining);
+        }
+
+        int next() {
+            if (remaining == 0) {
+                return mDocId = NO_MORE_DOCS;
+            }
+            remaining--;
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mBuffer.get(mPosition++);
+                gap |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            //the first gap is the first id
+            mDocId = mDocId < 0 ? gap : mDocId + gap;
+            return mDocId;
+        }
+
+        //the first document that is not before target
+        int advance(int target) {
+            int docId = mDocId;
+            while (docId < target) {
+                docId = next();
+            }
+            return docId;
+        }
+    }
+
+    /**
+     * Same as {@link #search(String, int, int[])}, returning the texts of
+     * the documents.
+     */
+    @NonNull
+    public List<String> search(@NonNull String normalizedQuery, int k) {
+        int[] docIds = new int[Math.max(k, 0)];
+        int count = search(normalizedQuery, k, docIds);
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add(getText(docIds[i]));
+        }
+        return texts;
+    }
+
+    @NonNull
+    @Override
+    public InvertedIndex snapshot() {
+        return this;
+    }
+
+    public MemoryReport getMemoryReport() {
+        return new MemoryReport(mDocCount, mTermCount, mBuffer.capacity() - mPostings, mBuffer.capacity());
+    }
+
+    private int readVarint(int position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mBuffer.get(position++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * @param afterPrefix false to find the first term that is not less than
+     *                    the token, true to find the first term that is greater
+     *                    and does not start with it
+     */
+    private int searchTerms(CharSequence token, boolean afterPrefix) {
+        int lo = 0;
+        int hi = mTermCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareString(mTermOffsets, mTermChars, mid, token, afterPrefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    //compares a stored string with text, strings starting with text are less if prefixIsLess
+    private int compareString(int offsets, int chars, int index, CharSequence text, boolean prefixIsLess) {
+        int start = mBuffer.getInt(offsets + index * 4);
+        int length = mBuffer.getInt(offsets + index * 4 + 4) - start;
+        int textLength = text.length();
+        int base = chars + start * 2;
+        for (int i = 0, n = Math.min(length, textLength); i < n; i++) {
+            char c = mBuffer.getChar(base + i * 2);
+            char t = text.charAt(i);
+            if (c != t) {
+                return c - t;
+            }
+        }
+        if (prefixIsLess && length >= textLength) {
+            return -1;
+        }
+        return length - textLength;
+    }
+
+    private String readString(int offsets, int chars, int index) {
+        int start = mBuffer.getInt(offsets + index * 4);
+        int length = mBuffer.getInt(offsets + index * 4 + 4) - start;
+        char[] text = new char[length];
+        int base = chars + start * 2;
+        for (int i = 0; i < length; i++) {
+            text[i] = mBuffer.getChar(base + i * 2);
+        }
+        return new String(text);
+    }
+}
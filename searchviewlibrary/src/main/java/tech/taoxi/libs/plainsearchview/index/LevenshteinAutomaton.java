@@ -0,0 +1,170 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A Levenshtein automaton that accepts every text having a prefix within a
+ * given number of edits of a query.
+ * <p/>
+ * <p>The non-deterministic automaton is simulated bit-parallel: for every
+ * number of edits e there is one long whose bit j is set when the first j
+ * chars of the query can be matched with at most e edits. A state is therefore
+ * {@code maxEdits + 1} longs, and a step costs a few shifts per edit level no
+ * matter how long the query is. Queries are limited to {@link #MAX_QUERY_LENGTH}
+ * chars.</p>
+ * <p/>
+ * <p>Instances are immutable, the states are kept by the caller.</p>
+ */
+public final class LevenshteinAutomaton {
+
+    public final static int MAX_QUERY_LENGTH = 62;
+    public final static int MAX_EDITS = 2;
+
+    private final int mLength;
+    private final int mMaxEdits;
+    private final long mAllStates;
+    private final long mAcceptState;
+
+    //position masks of the query chars, bit j + 1 is set when query[j] == c
+    private final long[] mAsciiMasks = new long[128];
+    private final char[] mOtherChars;
+    private final long[] mOtherMasks;
+
+    /**
+     * @param query    the query, at most {@link #MAX_QUERY_LENGTH} chars
+     * @param maxEdits the number of insertions, deletions and substitutions
+     *                 allowed, at most {@link #MAX_EDITS}
+     */
+    public LevenshteinAutomaton(@NonNull CharSequence query, int maxEdits) {
+        if (query.length() > MAX_QUERY_LENGTH) {
+            throw new IllegalArgumentException("query is longer than " + MAX_QUERY_LENGTH + " chars");
+        }
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("maxEdits must be between 0 and " + MAX_EDITS + ": " + maxEdits);
+        }
+        mLength = query.length();
+        mMaxEdits = maxEdits;
+        mAllStates = (1L << (mLength + 1)) - 1;
+        mAcceptState = 1L << mLength;
+
+        char[] otherChars = new char[mLength];
+        long[] otherMasks = new long[mLength];
+        int otherCount = 0;
+        for (int j = 0; j < mLength; j++) {
+            char c = query.charAt(j);
+            long bit = 1L << (j + 1);
+            if (c < 128) {
+                mAsciiMasks[c] |= bit;
+                continue;
+            }
+            int k = 0;
+            while (k < otherCount && otherChars[k] != c) {
+                k++;
+            }
+            if (k == otherCount) {
+                otherChars[otherCount++] = c;
+            }
+            otherMasks[k] |= bit;
+        }
+        mOtherChars = otherChars;
+        mOtherMasks = otherMasks;
+    }
+
+    /**
+     * The number of edits allowed for a query of the given length: none for
+     * very short queries, where any edit matches almost everything, one up
+     * to 7 chars and two for longer ones. Two edits visit many more nodes, so
+     * they are kept for the queries where they are needed to find anything.
+     */
+    public static int defaultMaxEdits(int queryLength) {
+        if (queryLength <= 2) {
+            return 0;
+        }
+        return queryLength <= 7 ? 1 : 2;
+    }
+
+    public int getMaxEdits() {
+        return mMaxEdits;
+    }
+
+    /**
+     * @return the number of longs in a state
+     */
+    public int getStateSize() {
+        return mMaxEdits + 1;
+    }
+
+    /**
+     * Writes the start state, before any char of the text was read.
+     */
+    public void start(long[] states, int offset) {
+        for (int e = 0; e <= mMaxEdits; e++) {
+            //the first e query chars can be deleted
+            states[offset + e] = ((1L << (e + 1)) - 1) & mAllStates;
+        }
+    }
+
+    /**
+     * Reads one char of the text.
+     *
+     * @return false if the new state is dead, no text continuing it can be accepted
+     */
+    public boolean step(long[] from, int fromOffset, char c, long[] to, int toOffset) {
+        final long mask = maskOf(c);
+        long previousOld = 0;
+        long previousNew = 0;
+        boolean alive = false;
+        for (int e = 0; e <= mMaxEdits; e++) {
+            long old = from[fromOffset + e];
+            long next = (old << 1) & mask;
+            if (e > 0) {
+                //insertion, substitution, then deletions after reading c
+                next |= previousOld | (previousOld << 1) | (previousNew << 1);
+                next &= mAllStates;
+            }
+            to[toOffset + e] = next;
+            alive |= next != 0;
+            previousOld = old;
+            previousNew = next;
+        }
+        return alive;
+    }
+
+    /**
+     * @return the smallest number of edits with which the text read so far
+     * matches the whole query, or -1 if it does not match within the limit
+     */
+    public int acceptedEdits(long[] states, int offset) {
+        for (int e = 0; e <= mMaxEdits; e++) {
+            if ((states[offset + e] & mAcceptState) != 0) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the smallest number of edits with which some continuation of
+     * the text read so far could still be accepted, or -1 if the state is dead
+     */
+    public int minLiveEdits(long[] states, int offset) {
+        for (int e = 0; e <= mMaxEdits; e++) {
+            if (states[offset + e] != 0) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    private long maskOf(char c) {
+        if (c < 128) {
+            return mAsciiMasks[c];
+        }
+        for (int k = 0; k < mOtherChars.length; k++) {
+            if (mOtherChars[k] == c) {
+                return mOtherMasks[k];
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,54 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A local index that a {@link LocalSearchProvider} searches.
+ * <p/>
+ * <p>Each engine decides how a query matches: a {@link PrefixIndex} completes
+ * the whole query, an {@link InvertedIndex} matches every word of it.
+ * Implementations must be safe to search from several threads.</p>
+ * <p/>
+ * <p>A query with a letter or a digit that matches nothing must not match
+ * anything once more is typed, {@link LocalSearchProvider} skips those
+ * queries, see
+ * {@link tech.taoxi.libs.plainsearchview.search.PrefixSearchProvider}.</p>
+ * <p/>
+ * <p>The ids returned by a search are only meaningful to the engine that
+ * returned them: an engine that changes is searched through a
+ * {@link #snapshot()}.</p>
+ */
+public interface LocalSearchEngine {
+
+    /**
+     * Finds the best matches of a query.
+     *
+     * @param normalizedQuery the query, normalized with
+     *                        {@link tech.taoxi.libs.plainsearchview.search.QueryNormalizer}
+     * @param k               the maximum number of matches to return
+     * @param outDocIds       receives the ids of the matches, best first, must
+     *                        hold at least k ids
+     * @return the number of ids written to outDocIds
+     */
+    int search(@NonNull String normalizedQuery, int k, @NonNull int[] outDocIds);
+
+    /**
+     * @return the text shown for a match
+     */
+    @NonNull
+    String getText(int docId);
+
+    /**
+     * @return the key that identifies a match, for example to tell it
+     * apart from another match with the same text
+     */
+    @NonNull
+    String getKey(int docId);
+
+    /**
+     * @return an engine whose ids stay valid for as long as it is used,
+     * this engine if it never changes
+     */
+    @NonNull
+    LocalSearchEngine snapshot();
+}
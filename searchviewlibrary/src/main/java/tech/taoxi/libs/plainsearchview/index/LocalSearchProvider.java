@@ -0,0 +1,99 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tech.taoxi.libs.plainsearchview.search.PrefixSearchProvider;
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.SearchProvider;
+import tech.taoxi.libs.plainsearchview.suggestions.TextSuggestion;
+
+/**
+ * A {@link SearchProvider} that searches a {@link LocalSearchEngine}, so each
+ * provider picks how its query matches: a {@link PrefixIndex} completes the
+ * query as a whole, an {@link InvertedIndex} finds the documents that contain
+ * all of its words.
+ * <p/>
+ * <p>The query is normalized with {@link QueryNormalizer} before the engine
+ * is searched.</p>
+ * <p/>
+ * <p>Its data version changes when the engine is replaced, or when a
+ * {@link SegmentedIndex} engine commits changes.</p>
+ */
+public class LocalSearchProvider implements PrefixSearchProvider<TextSuggestion> {
+
+    public final static int DEFAULT_MAX_RESULTS = 8;
+
+    private volatile LocalSearchEngine mEngine;
+    private final int mMaxResults;
+    //guarded by this
+    private int mEngineChanges;
+
+    public LocalSearchProvider(@NonNull LocalSearchEngine engine) {
+        this(engine, DEFAULT_MAX_RESULTS);
+    }
+
+    public LocalSearchProvider(@NonNull LocalSearchEngine engine, int maxResults) {
+        mEngine = engine;
+        mMaxResults = maxResults;
+    }
+
+    /**
+     * Replaces the engine, for example after the index was rebuilt on
+     * a background thread. Searches that are running keep using the old one.
+     */
+    public synchronized void setEngine(@NonNull LocalSearchEngine engine) {
+        mEngine = engine;
+        mEngineChanges++;
+    }
+
+    @NonNull
+    public LocalSearchEngine getEngine() {
+        return mEngine;
+    }
+
+    @Override
+    public synchronized long getDataVersion() {
+        LocalSearchEngine engine = mEngine;
+        long version = engine instanceof SegmentedIndex ? ((SegmentedIndex) engine).getVersion() : 0;
+        return (long) mEngineChanges << 40 ^ version;
+    }
+
+    /**
+     * @return true if the query has a letter or a digit: the query "." finds
+     * nothing, but ".net" matches the documents with the word "net"
+     */
+    @Override
+    public boolean isPrefixClosed(@NonNull String normalizedQuery) {
+        for (int i = 0; i < normalizedQuery.length(); ) {
+            int codePoint = normalizedQuery.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public List<TextSuggestion> search(@NonNull String query, @NonNull CancellationSignal cancellationSignal) {
+        String normalized = QueryNormalizer.getDefault().normalize(query);
+        if (normalized.length() == 0) {
+            return Collections.emptyList();
+        }
+        //the ids are looked up in the same snapshot they were found in
+        LocalSearchEngine engine = mEngine.snapshot();
+        int[] docIds = new int[mMaxResults];
+        int count = engine.search(normalized, mMaxResults, docIds);
+        List<TextSuggestion> suggestions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            suggestions.add(new TextSuggestion(engine.getKey(docIds[i]), engine.getText(docIds[i])));
+        }
+        return suggestions;
+    }
+}
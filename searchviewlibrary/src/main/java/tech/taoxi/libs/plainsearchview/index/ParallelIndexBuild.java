@@ -0,0 +1,69 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tokenizes the documents of an {@link InvertedIndex} on a
+ * {@link ForkJoinPool}: the documents are split in halves until they fit
+ * in a partition, every partition is tokenized into sorted
+ * {@link TermPostings}, and the halves are merged back on the way up.
+ * <p/>
+ * <p>Only loaded from API 21, where {@link ForkJoinPool} is available.</p>
+ */
+//tasks are never serialized
+@SuppressWarnings("serial")
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+final class ParallelIndexBuild extends RecursiveTask<TermPostings> {
+
+    private final String[] mTexts;
+    private final String[][] mFacetTerms;
+    private final int mFrom;
+    private final int mTo;
+    private final int mPartitionSize;
+    private final AtomicInteger mPartitionCount;
+
+    private ParallelIndexBuild(String[] texts, String[][] facetTerms, int from, int to, int partitionSize,
+                               AtomicInteger partitionCount) {
+        mTexts = texts;
+        mFacetTerms = facetTerms;
+        mFrom = from;
+        mTo = to;
+        mPartitionSize = partitionSize;
+        mPartitionCount = partitionCount;
+    }
+
+    /**
+     * @param partitionCount receives the number of partitions
+     */
+    static TermPostings run(String[] texts, String[][] facetTerms, int parallelism, int partitionSize,
+                            AtomicInteger partitionCount) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new ParallelIndexBuild(texts, facetTerms, 0, texts.length, partitionSize,
+                    partitionCount));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    protected TermPostings compute() {
+        if (mTo - mFrom <= mPartitionSize) {
+            mPartitionCount.incrementAndGet();
+            return TermPostings.tokenize(mTexts, mFacetTerms, mFrom, mTo);
+        }
+        int middle = (mFrom + mTo) >>> 1;
+        ParallelIndexBuild first = new ParallelIndexBuild(mTexts, mFacetTerms, mFrom, middle, mPartitionSize,
+                mPartitionCount);
+        ParallelIndexBuild second = new ParallelIndexBuild(mTexts, mFacetTerms, middle, mTo, mPartitionSize,
+                mPartitionCount);
+        second.fork();
+        TermPostings firstPostings = first.compute();
+        return TermPostings.merge(firstPostings, second.join());
+    }
+}
@@ -0,0 +1,483 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable index of weighted terms that answers top-k prefix
+ * completion queries.
+ * <p/>
+ * <p>The terms are kept in a ternary search tree that is stored in parallel
+ * primitive arrays rather than in node objects, and every node knows the
+ * highest weight found below it. A lookup walks the prefix once and then
+ * expands the best subtrees first, so its cost depends on the length of the
+ * prefix and on k, not on the number of terms.</p>
+ * <p/>
+ * <p>Instances are created with a {@link Builder} and are safe to share
+ * between threads.</p>
+ */
+public final class PrefixIndex implements LocalSearchEngine {
+
+    //node 0 is never used, so that the zero filled child arrays mean "no child"
+    final static int NIL = 0;
+    final static int ROOT = 1;
+
+    private final static int KIND_TERMINAL = 0;
+    private final static int KIND_SUBTREE = 1;
+
+    private final int mNodeCount;
+    final char[] mSplitChars;
+    final int[] mLo;
+    final int[] mEq;
+    final int[] mHi;
+    //term id + 1 of the term ending at the node, 0 for none
+    final int[] mNodeTerms;
+    //highest term weight in the subtree of the node, including its lo and hi siblings
+    final int[] mSubtreeMax;
+
+    private final int mTermCount;
+    private final char[] mTermChars;
+    private final int[] mTermOffsets;
+    private final int[] mTermWeights;
+    private final int[] mTermValues;
+
+    /**
+     * Collects the terms of a {@link PrefixIndex}.
+     */
+    public static final class Builder {
+
+        private final Map<String, int[]> mTerms = new HashMap<>();
+
+        /**
+         * Adds a term with the given weight.
+         */
+        public Builder add(@NonNull String term, int weight) {
+            return add(term, weight, 0);
+        }
+
+        /**
+         * Adds a term with the given weight and an arbitrary value, for
+         * example the position of the object the term was taken from.
+         * When a term is added twice, the one with the highest weight is kept.
+         *
+         * @param term   the term, empty terms are ignored
+         * @param weight the weight of the term, higher is better, must not be negative
+         * @param value  a value that can be read back with {@link #getValue(int)}
+         */
+        public Builder add(@NonNull String term, int weight, int value) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("weight must not be negative: " + weight);
+            }
+            if (term.length() == 0) {
+                return this;
+            }
+            int[] existing = mTerms.get(term);
+            if (existing == null || weight > existing[0]) {
+                mTerms.put(term, new int[]{weight, value});
+            }
+            return this;
+        }
+
+        public PrefixIndex build() {
+            return new PrefixIndex(this);
+        }
+    }
+
+    /**
+     * The memory used by an index, to help sizing it.
+     */
+    public static final class MemoryReport {
+
+        public final int termCount;
+        public final int nodeCount;
+        public final long termBytes;
+        public final long nodeBytes;
+
+        MemoryReport(int termCount, int nodeCount, long termBytes, long nodeBytes) {
+            this.termCount = termCount;
+            this.nodeCount = nodeCount;
+            this.termBytes = termBytes;
+            this.nodeBytes = nodeBytes;
+        }
+
+        public long getTotalBytes() {
+            return termBytes + nodeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "PrefixIndex: %d terms, %d nodes, %d bytes (terms %d, nodes %d, %.1f bytes per term)",
+                    termCount, nodeCount, getTotalBytes(), termBytes, nodeBytes,
+                    termCount == 0 ? 0f : (float) getTotalBytes() / termCount);
+        }
+    }
+
+    private PrefixIndex(Builder builder) {
+        String[] terms = builder.mTerms.keySet().toArray(new String[builder.mTerms.size()]);
+        Arrays.sort(terms);
+
+        mTermCount = terms.length;
+        mTermOffsets = new int[mTermCount + 1];
+        mTermWeights = new int[mTermCount];
+        mTermValues = new int[mTermCount];
+        int charCount = 0;
+        for (int i = 0; i < mTermCount; i++) {
+            mTermOffsets[i] = charCount;
+            charCount += terms[i].length();
+            int[] weightAndValue = builder.mTerms.get(terms[i]);
+            mTermWeights[i] = weightAndValue[0];
+            mTermValues[i] = weightAndValue[1];
+        }
+        mTermOffsets[mTermCount] = charCount;
+        mTermChars = new char[charCount];
+        for (int i = 0; i < mTermCount; i++) {
+            terms[i].getChars(0, terms[i].length(), mTermChars, mTermOffsets[i]);
+        }
+
+        TreeBuilder tree = new TreeBuilder(Math.max(16, charCount / 2));
+        insertBalanced(tree, 0, mTermCount);
+
+        mNodeCount = tree.mCount;
+        mSplitChars = Arrays.copyOf(tree.mSplitChars, mNodeCount);
+        mLo = Arrays.copyOf(tree.mLinks[TreeBuilder.LO], mNodeCount);
+        mEq = Arrays.copyOf(tree.mLinks[TreeBuilder.EQ], mNodeCount);
+        mHi = Arrays.copyOf(tree.mLinks[TreeBuilder.HI], mNodeCount);
+        mNodeTerms = Arrays.copyOf(tree.mNodeTerms, mNodeCount);
+
+        //children are always created after their parent, so a reverse scan sees them first
+        mSubtreeMax = new int[mNodeCount];
+        for (int node = mNodeCount - 1; node >= ROOT; node--) {
+            int max = mNodeTerms[node] != 0 ? mTermWeights[mNodeTerms[node] - 1] : -1;
+            max = Math.max(max, subtreeMax(mLo[node]));
+            max = Math.max(max, subtreeMax(mEq[node]));
+            max = Math.max(max, subtreeMax(mHi[node]));
+            mSubtreeMax[node] = max;
+        }
+    }
+
+    //inserting the sorted terms median first keeps the tree balanced
+    private void insertBalanced(TreeBuilder tree, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        tree.insert(mid);
+        insertBalanced(tree, from, mid);
+        insertBalanced(tree, mid + 1, to);
+    }
+
+    int subtreeMax(int node) {
+        return node == NIL ? -1 : mSubtreeMax[node];
+    }
+
+    private class TreeBuilder {
+
+        final static int LO = 0;
+        final static int EQ = 1;
+        final static int HI = 2;
+
+        char[] mSplitChars;
+        final int[][] mLinks = new int[3][];
+        int[] mNodeTerms;
+        int mCount = ROOT;
+
+        TreeBuilder(int capacity) {
+            mSplitChars = new char[capacity];
+            mLinks[LO] = new int[capacity];
+            mLinks[EQ] = new int[capacity];
+            mLinks[HI] = new int[capacity];
+            mNodeTerms = new int[capacity];
+        }
+
+        void insert(int termId) {
+            final int offset = mTermOffsets[termId];
+            final int length = mTermOffsets[termId + 1] - offset;
+            if (mCount == ROOT) {
+                newNode(mTermChars[offset]);
+            }
+            int node = ROOT;
+            int i = 0;
+            while (true) {
+                char c = mTermChars[offset + i];
+                int link;
+                if (c < mSplitChars[node]) {
+                    link = LO;
+                } else if (c > mSplitChars[node]) {
+                    link = HI;
+                } else if (i == length - 1) {
+                    mNodeTerms[node] = termId + 1;
+                    return;
+                } else {
+                    i++;
+                    c = mTermChars[offset + i];
+                    link = EQ;
+                }
+                if (mLinks[link][node] == NIL) {
+                    int child = newNode(c);
+                    mLinks[link][node] = child;
+                }
+                node = mLinks[link][node];
+            }
+        }
+
+        private int newNode(char c) {
+            if (mCount == mSplitChars.length) {
+                int capacity = mCount * 2;
+                mSplitChars = Arrays.copyOf(mSplitChars, capacity);
+                for (int i = 0; i < mLinks.length; i++) {
+                    mLinks[i] = Arrays.copyOf(mLinks[i], capacity);
+                }
+                mNodeTerms = Arrays.copyOf(mNodeTerms, capacity);
+            }
+            mSplitChars[mCount] = c;
+            return mCount++;
+        }
+    }
+
+    public int getTermCount() {
+        return mTermCount;
+    }
+
+    public String getTerm(int termId) {
+        return new String(mTermChars, mTermOffsets[termId], mTermOffsets[termId + 1] - mTermOffsets[termId]);
+    }
+
+    public int getWeight(int termId) {
+        return mTermWeights[termId];
+    }
+
+    public int getValue(int termId) {
+        return mTermValues[termId];
+    }
+
+    /**
+     * Finds the node at which the given prefix ends.
+     *
+     * @return the node, or {@link #NIL} if no term starts with the prefix
+     */
+    int findPrefixNode(CharSequence prefix) {
+        int node = mNodeCount > ROOT ? ROOT : NIL;
+        int i = 0;
+        while (node != NIL) {
+            char c = prefix.charAt(i);
+            if (c < mSplitChars[node]) {
+                node = mLo[node];
+            } else if (c > mSplitChars[node]) {
+                node = mHi[node];
+            } else {
+                if (++i == prefix.length()) {
+                    return node;
+                }
+                node = mEq[node];
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * @return the id of the term that is exactly the given text, or -1
+     */
+    public int find(@NonNull CharSequence term) {
+        if (term.length() == 0) {
+            return -1;
+        }
+        int node = findPrefixNode(term);
+        return node == NIL ? -1 : mNodeTerms[node] - 1;
+    }
+
+    /**
+     * Finds the terms with the highest weight that start with the given prefix.
+     *
+     * @param prefix     the prefix, an empty prefix matches every term
+     * @param k          the maximum number of terms to return
+     * @param outTermIds receives the ids of the terms, best first, must
+     *                   hold at least k ids
+     * @return the number of terms written to outTermIds
+     */
+    public int complete(@NonNull CharSequence prefix, int k, @NonNull int[] outTermIds) {
+        if (k <= 0 || mNodeCount == ROOT) {
+            return 0;
+        }
+        NodeHeap heap = new NodeHeap(Math.max(16, k * 4));
+        if (prefix.length() == 0) {
+            heap.push(mSubtreeMax[ROOT], ROOT, KIND_SUBTREE);
+        } else {
+            int node = findPrefixNode(prefix);
+            if (node == NIL) {
+                return 0;
+            }
+            if (mNodeTerms[node] != 0) {
+                heap.push(mTermWeights[mNodeTerms[node] - 1], node, KIND_TERMINAL);
+            }
+            if (mEq[node] != NIL) {
+                heap.push(mSubtreeMax[mEq[node]], mEq[node], KIND_SUBTREE);
+            }
+        }
+        return collectBest(heap, k, outTermIds, 0);
+    }
+
+    /**
+     * Adds the best terms of the subtrees rooted at the given nodes to
+     * outTermIds, starting at offset. A subtree includes the term ending at
+     * its root, but not the lo and hi siblings of the root.
+     *
+     * @return the new number of ids in outTermIds
+     */
+    int completeSubtrees(int[] nodes, int nodeCount, int k, int[] outTermIds, int offset) {
+        NodeHeap heap = new NodeHeap(Math.max(16, nodeCount * 2));
+        for (int i = 0; i < nodeCount; i++) {
+            int node = nodes[i];
+            if (mNodeTerms[node] != 0) {
+                heap.push(mTermWeights[mNodeTerms[node] - 1], node, KIND_TERMINAL);
+            }
+            if (mEq[node] != NIL) {
+                heap.push(mSubtreeMax[mEq[node]], mEq[node], KIND_SUBTREE);
+            }
+        }
+        return collectBest(heap, k, outTermIds, offset);
+    }
+
+    private int collectBest(NodeHeap heap, int k, int[] outTermIds, int offset) {
+        int count = offset;
+        int limit = offset + k;
+        while (count < limit && !heap.isEmpty()) {
+            long top = heap.pop();
+            int node = NodeHeap.node(top);
+            if (NodeHeap.kind(top) == KIND_TERMINAL) {
+                outTermIds[count++] = mNodeTerms[node] - 1;
+                continue;
+            }
+            if (mNodeTerms[node] != 0) {
+                heap.push(mTermWeights[mNodeTerms[node] - 1], node, KIND_TERMINAL);
+            }
+            if (mLo[node] != NIL) {
+                heap.push(mSubtreeMax[mLo[node]], mLo[node], KIND_SUBTREE);
+            }
+            if (mEq[node] != NIL) {
+                heap.push(mSubtreeMax[mEq[node]], mEq[node], KIND_SUBTREE);
+            }
+            if (mHi[node] != NIL) {
+                heap.push(mSubtreeMax[mHi[node]], mHi[node], KIND_SUBTREE);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Convenience for {@link #complete(CharSequence, int, int[])} that
+     * returns the terms themselves.
+     */
+    public List<String> complete(@NonNull CharSequence prefix, int k) {
+        int[] termIds = new int[Math.max(0, k)];
+        int count = complete(prefix, k, termIds);
+        List<String> terms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            terms.add(getTerm(termIds[i]));
+        }
+        return terms;
+    }
+
+    /**
+     * Completes the whole query, see {@link #complete(CharSequence, int, int[])}.
+     * The documents are the terms.
+     */
+    @Override
+    public int search(@NonNull String normalizedQuery, int k, @NonNull int[] outDocIds) {
+        return complete(normalizedQuery, k, outDocIds);
+    }
+
+    @NonNull
+    @Override
+    public String getText(int docId) {
+        return getTerm(docId);
+    }
+
+    @NonNull
+    @Override
+    public String getKey(int docId) {
+        return getTerm(docId);
+    }
+
+    @NonNull
+    @Override
+    public LocalSearchEngine snapshot() {
+        return this;
+    }
+
+    public MemoryReport getMemoryReport() {
+        //char + 5 ints per node, chars + offset, weight and value per term
+        long nodeBytes = (long) mNodeCount * (2 + 5 * 4);
+        long termBytes = (long) mTermChars.length * 2 + (long) mTermCount * 3 * 4 + 4;
+        return new MemoryReport(mTermCount, mNodeCount - ROOT, termBytes, nodeBytes);
+    }
+
+    /**
+     * A max heap of (bound, node, kind) entries packed into longs, so
+     * that the expansion of the tree does not allocate an object per node.
+     */
+    private static final class NodeHeap {
+
+        private long[] mEntries;
+        private int mSize;
+
+        NodeHeap(int capacity) {
+            mEntries = new long[capacity];
+        }
+
+        static int node(long entry) {
+            return (int) (entry & 0xFFFFFFFFL) >>> 1;
+        }
+
+        static int kind(long entry) {
+            return (int) (entry & 1);
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        void push(int bound, int node, int kind) {
+            long entry = ((long) bound << 32) | ((long) node << 1) | kind;
+            if (mSize == mEntries.length) {
+                mEntries = Arrays.copyOf(mEntries, mSize * 2);
+            }
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mEntries[parent] >= entry) {
+                    break;
+                }
+                mEntries[i] = mEntries[parent];
+                i = parent;
+            }
+            mEntries[i] = entry;
+        }
+
+        long pop() {
+            long top = mEntries[0];
+            long last = mEntries[--mSize];
+            int i = 0;
+            int half = mSize >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < mSize && mEntries[child + 1] > mEntries[child]) {
+                    child++;
+                }
+                if (last >= mEntries[child]) {
+                    break;
+                }
+                mEntries[i] = mEntries[child];
+                i = child;
+            }
+            mEntries[i] = last;
+            return top;
+        }
+    }
+}
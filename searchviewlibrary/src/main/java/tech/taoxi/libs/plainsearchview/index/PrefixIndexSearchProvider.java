@@ -0,0 +1,103 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tech.taoxi.libs.plainsearchview.search.PrefixSearchProvider;
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.SearchProvider;
+import tech.taoxi.libs.plainsearchview.suggestions.TextSuggestion;
+
+/**
+ * A {@link SearchProvider} that completes the query from a local vocabulary
+ * held in a {@link PrefixIndex}.
+ * <p/>
+ * <p>The terms of the index are expected to be normalized with
+ * {@link QueryNormalizer}, the query is normalized before the lookup.</p>
+ */
+public class PrefixIndexSearchProvider implements PrefixSearchProvider<TextSuggestion> {
+
+    public final static int DEFAULT_MAX_RESULTS = 8;
+
+    private volatile FuzzyMatcher mMatcher;
+    private final int mMaxResults;
+    private volatile boolean mTypoTolerant;
+    //changes with the index and the typo tolerance
+    private volatile long mDataVersion;
+
+    public PrefixIndexSearchProvider(@NonNull PrefixIndex index) {
+        this(index, DEFAULT_MAX_RESULTS);
+    }
+
+    public PrefixIndexSearchProvider(@NonNull PrefixIndex index, int maxResults) {
+        mMatcher = new FuzzyMatcher(index);
+        mMaxResults = maxResults;
+    }
+
+    /**
+     * Replaces the index, for example after the vocabulary was rebuilt on
+     * a background thread. Searches that are running keep using the old one.
+     */
+    public void setIndex(@NonNull PrefixIndex index) {
+        mMatcher = new FuzzyMatcher(index);
+        mDataVersion++;
+    }
+
+    @NonNull
+    public PrefixIndex getIndex() {
+        return mMatcher.getIndex();
+    }
+
+    /**
+     * Sets whether terms starting with a few typos of the query are
+     * suggested too, after the exact completions. Disabled by default.
+     *
+     * @see FuzzyMatcher
+     */
+    public void setTypoTolerant(boolean typoTolerant) {
+        mTypoTolerant = typoTolerant;
+        mDataVersion++;
+    }
+
+    public boolean isTypoTolerant() {
+        return mTypoTolerant;
+    }
+
+    @Override
+    public long getDataVersion() {
+        return mDataVersion;
+    }
+
+    /**
+     * @return false while typo tolerant: longer queries allow more typos, so
+     * they may find terms that a prefix of them did not
+     */
+    @Override
+    public boolean isPrefixClosed(@NonNull String normalizedQuery) {
+        return !mTypoTolerant;
+    }
+
+    @NonNull
+    @Override
+    public List<TextSuggestion> search(@NonNull String query, @NonNull CancellationSignal cancellationSignal) {
+        String prefix = QueryNormalizer.getDefault().normalize(query);
+        if (prefix.length() == 0) {
+            return Collections.emptyList();
+        }
+        FuzzyMatcher matcher = mMatcher;
+        PrefixIndex index = matcher.getIndex();
+        int[] termIds = new int[mMaxResults];
+        int count = mTypoTolerant
+                ? matcher.match(prefix, mMaxResults, termIds, null)
+                : index.complete(prefix, mMaxResults, termIds);
+        List<TextSuggestion> suggestions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            suggestions.add(new TextSuggestion(index.getTerm(termIds[i])));
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,217 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles queries written in a small query language into
+ * {@link QueryPlan}s:
+ * <ul>
+ * <li><code>budget 2024</code> matches the documents with all the words,
+ * the last one may be the start of a word</li>
+ * <li><code>"new york"</code> matches the words next to each other</li>
+ * <li><code>type:pdf</code> matches the documents with the facet value, see
+ * {@link InvertedIndex.Builder#add(String, String, float, String...)}.
+ * The values of a field are ORed, different fields are ANDed</li>
+ * <li><code>-draft</code>, <code>-"old budget"</code> and <code>-type:doc</code>
+ * exclude the documents that match them</li>
+ * </ul>
+ * <p/>
+ * <p>Queries are normalized before they are compiled, so the facet values
+ * of a query only match facets whose values are normalized as well, lower
+ * cased for example.</p>
+ * <p/>
+ * <p>The plans of the last queries are cached. While the user types, only
+ * the last word of the query usually changes: its plan is then derived from
+ * the previous one instead of compiling the whole query again.</p>
+ * <p/>
+ * <p>Instances are thread safe.</p>
+ */
+public class QueryParser {
+
+    public final static int DEFAULT_CACHE_SIZE = 32;
+
+    private final Map<String, QueryPlan> mCache;
+    private QueryPlan mLastPlan;
+
+    public QueryParser() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public QueryParser(final int cacheSize) {
+        mCache = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param normalizedQuery the query, normalized with
+     *                        {@link tech.taoxi.libs.plainsearchview.search.QueryNormalizer}
+     * @return the plan of the query
+     */
+    @NonNull
+    public QueryPlan parse(@NonNull String normalizedQuery) {
+        QueryPlan lastPlan;
+        synchronized (mCache) {
+            QueryPlan cached = mCache.get(normalizedQuery);
+            if (cached != null) {
+                mLastPlan = cached;
+                return cached;
+            }
+            lastPlan = mLastPlan;
+        }
+        QueryPlan plan = lastPlan != null ? update(lastPlan, normalizedQuery) : null;
+        if (plan == null) {
+            plan = compile(normalizedQuery);
+        }
+        synchronized (mCache) {
+            mCache.put(normalizedQuery, plan);
+            mLastPlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * @return the plan of a query that only differs from the query of a plan
+     * by its last word, or null if it differs in more
+     */
+    static QueryPlan update(QueryPlan plan, String query) {
+        String lastQuery = plan.getQuery();
+        //the last word was edited
+        if (plan.prefixStart >= 0 && query.length() > plan.prefixStart
+                && query.regionMatches(0, lastQuery, 0, plan.prefixStart)
+                && isWord(query, plan.prefixStart)) {
+            return plan.withPrefix(query, plan.prefixStart, query.substring(plan.prefixStart), false);
+        }
+        //a word was added, the query is normalized so it is separated by a single space
+        int start = lastQuery.length() + 1;
+        if (!plan.openQuote && lastQuery.length() > 0 && query.length() > start
+                && query.startsWith(lastQuery) && query.charAt(start - 1) == ' ' && isWord(query, start)) {
+            return plan.withPrefix(query, start, query.substring(start), true);
+        }
+        return null;
+    }
+
+    //true if the query ends with a single token, from start
+    private static boolean isWord(String query, int start) {
+        for (int i = start; i < query.length(); ) {
+            int codePoint = query.codePointAt(i);
+            if (!Character.isLetterOrDigit(codePoint)) {
+                return false;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a whole query. A query is a list of clauses separated by
+     * spaces, a clause that can't be compiled is searched as text.
+     */
+    static QueryPlan compile(String query) {
+        List<String> terms = new ArrayList<>();
+        String prefix = null;
+        List<List<String>> phrases = new ArrayList<>();
+        boolean openPhrase = false;
+        SearchScope scope = SearchScope.ALL;
+        List<List<String>> excluded = new ArrayList<>();
+        List<String> excludedFacets = new ArrayList<>();
+        int prefixStart = -1;
+        boolean openQuote = false;
+
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            boolean negated = query.charAt(i) == '-' && i + 1 < length && query.charAt(i + 1) != ' ';
+            if (negated) {
+                i++;
+            }
+
+            String field = null;
+            int fieldEnd = fieldEnd(query, i);
+            if (fieldEnd >= 0) {
+                field = query.substring(i, fieldEnd);
+                i = fieldEnd + 1;
+            }
+            String text;
+            boolean quoted = i < length && query.charAt(i) == '"';
+            if (quoted) {
+                int quote = query.indexOf('"', i + 1);
+                openQuote = quote < 0;
+                text = query.substring(i + 1, openQuote ? length : quote);
+                i = openQuote ? length : quote + 1;
+            } else {
+                int space = query.indexOf(' ', i);
+                text = query.substring(i, space < 0 ? length : space);
+                i = space < 0 ? length : space;
+            }
+            boolean last = i == length;
+            while (i < length && query.charAt(i) == ' ') {
+                i++;
+            }
+
+            if (field != null) {
+                //a value that is still being typed is ignored
+                if (text.length() > 0) {
+                    if (negated) {
+                        excludedFacets.add(FacetTerms.term(field, text));
+                    } else {
+                        scope = scope.with(field, text);
+                    }
+                }
+                continue;
+            }
+            List<String> tokens = Tokenizer.tokenize(text);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            if (negated) {
+                excluded.add(Collections.unmodifiableList(tokens));
+                continue;
+            }
+            //the last word is a prefix, unless it is followed by a closing quote
+            boolean endsWithPrefix = last && (!quoted || openQuote);
+            if (endsWithPrefix) {
+                prefix = tokens.get(tokens.size() - 1);
+                if (!quoted && tokens.size() == 1 && text.length() == prefix.length()) {
+                    prefixStart = start;
+                }
+            }
+            terms.addAll(endsWithPrefix ? tokens.subList(0, tokens.size() - 1) : tokens);
+            if (quoted && tokens.size() > 1) {
+                phrases.add(Collections.unmodifiableList(tokens));
+                openPhrase = endsWithPrefix;
+            }
+        }
+        return new QueryPlan(query, Collections.unmodifiableList(terms), prefix,
+                Collections.unmodifiableList(phrases), openPhrase, scope,
+                Collections.unmodifiableList(excluded), Collections.unmodifiableList(excludedFacets),
+                prefixStart, openQuote);
+    }
+
+    //the index of the colon after a field name starting at start, or -1
+    private static int fieldEnd(String query, int start) {
+        if (start >= query.length() || !Character.isLetter(query.charAt(start))) {
+            return -1;
+        }
+        for (int i = start + 1; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == ':') {
+                return i;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,114 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query compiled by a {@link QueryParser}: the terms and phrases that the
+ * matches contain, the facet values they have, and the terms, phrases and
+ * facet values they must not have.
+ * <p/>
+ * <p>A plan does not depend on an engine, it is compiled once and can be
+ * run by any {@link FacetedSearchEngine}. Instances are immutable.</p>
+ */
+public final class QueryPlan {
+
+    //the complete terms that every match contains
+    final List<String> terms;
+    //the last term of the query, a term of every match starts with it, or null
+    final String prefix;
+    //runs of terms that are next to each other in the text of the matches,
+    //the last one ends with the prefix if openPhrase
+    final List<List<String>> phrases;
+    final boolean openPhrase;
+    //the facet values of the matches
+    final SearchScope scope;
+    //the terms and phrases that no match contains
+    final List<List<String>> excluded;
+    //the facet terms that no match has
+    final List<String> excludedFacets;
+
+    private final String mQuery;
+    //where the prefix starts in the query if it is all of the last clause, else -1
+    final int prefixStart;
+    //true if the query ends inside a quote
+    final boolean openQuote;
+
+    QueryPlan(String query, List<String> terms, String prefix, List<List<String>> phrases, boolean openPhrase,
+              SearchScope scope, List<List<String>> excluded, List<String> excludedFacets,
+              int prefixStart, boolean openQuote) {
+        mQuery = query;
+        this.terms = terms;
+        this.prefix = prefix;
+        this.phrases = phrases;
+        this.openPhrase = openPhrase;
+        this.scope = scope;
+        this.excluded = excluded;
+        this.excludedFacets = excludedFacets;
+        this.prefixStart = prefixStart;
+        this.openQuote = openQuote;
+    }
+
+    /**
+     * @return the plan of a query without any syntax: all its tokens, the
+     * last one as a prefix
+     */
+    static QueryPlan of(String query, List<String> tokens) {
+        List<String> terms = tokens.isEmpty() ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(tokens.subList(0, tokens.size() - 1)));
+        String prefix = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1);
+        return new QueryPlan(query, terms, prefix, Collections.<List<String>>emptyList(), false, SearchScope.ALL,
+                Collections.<List<String>>emptyList(), Collections.<String>emptyList(), -1, false);
+    }
+
+    /**
+     * @return this plan with another last term, replacing the prefix, or
+     * following it if keepPrefix
+     */
+    QueryPlan withPrefix(String query, int prefixStart, String prefix, boolean keepPrefix) {
+        List<String> terms = this.terms;
+        if (keepPrefix && this.prefix != null) {
+            List<String> newTerms = new ArrayList<>(terms.size() + 1);
+            newTerms.addAll(terms);
+            newTerms.add(this.prefix);
+            terms = Collections.unmodifiableList(newTerms);
+        }
+        return new QueryPlan(query, terms, prefix, phrases, false, scope, excluded, excludedFacets,
+                prefixStart, false);
+    }
+
+    /**
+     * @return the query that was compiled, normalized
+     */
+    @NonNull
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return true if the query has no term, phrase or facet value that the
+     * matches must have, so it matches nothing
+     */
+    public boolean isEmpty() {
+        return terms.isEmpty() && prefix == null && scope.isAll();
+    }
+
+    @Override
+    public String toString() {
+        List<String> excludedFacets = new ArrayList<>(this.excludedFacets.size());
+        for (String term : this.excludedFacets) {
+            excludedFacets.add(FacetTerms.toFacet(term));
+        }
+        return "QueryPlan{"
+                + "terms=" + terms
+                + ", prefix=" + prefix
+                + ", phrases=" + phrases + (openPhrase ? "..." : "")
+                + ", scope=" + scope
+                + ", excluded=" + excluded
+                + ", excludedFacets=" + excludedFacets
+                + '}';
+    }
+}
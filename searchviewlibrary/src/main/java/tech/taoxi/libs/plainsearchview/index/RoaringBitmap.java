@@ -0,0 +1,423 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed set of document ids, in the style of Roaring
+ * bitmaps.
+ * <p/>
+ * <p>The ids are split in chunks of 65536 by their high 16 bits, and every
+ * chunk is stored in the smallest of three containers: a sorted array of
+ * its low 16 bits when it is sparse, a 8 KB bitmap when it is dense, or a
+ * list of runs when the ids are mostly consecutive, as those of documents
+ * added together usually are.</p>
+ */
+final class RoaringBitmap {
+
+    //above this many values, a bitmap container is smaller than an array one
+    private final static int MAX_ARRAY_SIZE = 4096;
+    private final static int CHUNK_WORDS = 1024;
+
+    static final RoaringBitmap EMPTY = new RoaringBitmap(new char[0], new Container[0]);
+
+    //the high 16 bits of every chunk, ascending
+    private final char[] mKeys;
+    private final Container[] mContainers;
+
+    private RoaringBitmap(char[] keys, Container[] containers) {
+        mKeys = keys;
+        mContainers = containers;
+    }
+
+    /**
+     * Collects ascending ids into a {@link RoaringBitmap}.
+     */
+    static final class Builder {
+
+        private char[] mKeys = new char[4];
+        private Container[] mContainers = new Container[4];
+        private int mCount;
+        private final long[] mWords = new long[CHUNK_WORDS];
+        private int mKey = -1;
+        private int mLast = -1;
+
+        /**
+         * @param id an id greater than all the ones added before
+         */
+        void add(int id) {
+            if (id <= mLast) {
+                throw new IllegalArgumentException("ids must be ascending: " + id + " after " + mLast);
+            }
+            mLast = id;
+            int key = id >>> 16;
+            if (key != mKey) {
+                flush();
+                mKey = key;
+            }
+            mWords[(id & 0xffff) >>> 6] |= 1L << id;
+        }
+
+        RoaringBitmap build() {
+            flush();
+            return mCount == 0 ? EMPTY
+                    : new RoaringBitmap(Arrays.copyOf(mKeys, mCount), Arrays.copyOf(mContainers, mCount));
+        }
+
+        private void flush() {
+            if (mKey < 0) {
+                return;
+            }
+            Container container = Container.fromWords(mWords);
+            Arrays.fill(mWords, 0);
+            if (container == null) {
+                return;
+            }
+            if (mCount == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mCount * 2);
+                mContainers = Arrays.copyOf(mContainers, mCount * 2);
+            }
+            mKeys[mCount] = (char) mKey;
+            mContainers[mCount++] = container;
+        }
+    }
+
+    boolean isEmpty() {
+        return mKeys.length == 0;
+    }
+
+    int getCardinality() {
+        int cardinality = 0;
+        for (Container container : mContainers) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    boolean contains(int id) {
+        int index = Arrays.binarySearch(mKeys, (char) (id >>> 16));
+        return index >= 0 && mContainers[index].contains((char) id);
+    }
+
+    /**
+     * @return the number of ids that are also set in a plain bitset
+     */
+    int andCardinality(long[] bits) {
+        int cardinality = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            cardinality += mContainers[i].andCardinality(bits, mKeys[i] << 16);
+        }
+        return cardinality;
+    }
+
+    /**
+     * Sets the ids in a plain bitset, that must be large enough to hold them.
+     */
+    void addTo(long[] bits) {
+        long[] words = new long[CHUNK_WORDS];
+        for (int i = 0; i < mKeys.length; i++) {
+            mContainers[i].toWords(words);
+            int offset = mKeys[i] << 10;
+            for (int w = 0, count = Math.min(CHUNK_WORDS, bits.length - offset); w < count; w++) {
+                bits[offset + w] |= words[w];
+            }
+        }
+    }
+
+    RoaringBitmap and(RoaringBitmap other) {
+        int capacity = Math.min(mKeys.length, other.mKeys.length);
+        char[] keys = new char[capacity];
+        Container[] containers = new Container[capacity];
+        long[] words = new long[CHUNK_WORDS];
+        long[] otherWords = new long[CHUNK_WORDS];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mKeys.length && j < other.mKeys.length) {
+            if (mKeys[i] < other.mKeys[j]) {
+                i++;
+            } else if (mKeys[i] > other.mKeys[j]) {
+                j++;
+            } else {
+                mContainers[i].toWords(words);
+                other.mContainers[j].toWords(otherWords);
+                for (int w = 0; w < CHUNK_WORDS; w++) {
+                    words[w] &= otherWords[w];
+                }
+                Container container = Container.fromWords(words);
+                if (container != null) {
+                    keys[count] = mKeys[i];
+                    containers[count++] = container;
+                }
+                i++;
+                j++;
+            }
+        }
+        return count == 0 ? EMPTY
+                : new RoaringBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count));
+    }
+
+    RoaringBitmap or(RoaringBitmap other) {
+        int capacity = mKeys.length + other.mKeys.length;
+        char[] keys = new char[capacity];
+        Container[] containers = new Container[capacity];
+        long[] words = new long[CHUNK_WORDS];
+        long[] otherWords = new long[CHUNK_WORDS];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < mKeys.length || j < other.mKeys.length) {
+            if (j == other.mKeys.length || i < mKeys.length && mKeys[i] < other.mKeys[j]) {
+                keys[count] = mKeys[i];
+                containers[count++] = mContainers[i++];
+            } else if (i == mKeys.length || mKeys[i] > other.mKeys[j]) {
+                keys[count] = other.mKeys[j];
+                containers[count++] = other.mContainers[j++];
+            } else {
+                mContainers[i].toWords(words);
+                other.mContainers[j].toWords(otherWords);
+                for (int w = 0; w < CHUNK_WORDS; w++) {
+                    words[w] |= otherWords[w];
+                }
+                keys[count] = mKeys[i];
+                containers[count++] = Container.fromWords(words);
+                i++;
+                j++;
+            }
+        }
+        return new RoaringBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count));
+    }
+
+    //the low 16 bits of the ids of a chunk
+    private static abstract class Container {
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        //sets the values in a chunk sized bitmap, clearing it first
+        abstract void toWords(long[] words);
+
+        //counts the values, offset by base, that are set in bits
+        abstract int andCardinality(long[] bits, int base);
+
+        //the smallest container for a chunk, or null if it is empty
+        static Container fromWords(long[] words) {
+            int cardinality = 0;
+            int runs = 0;
+            long previousWord = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+                //a run starts at every 1 that follows a 0
+                runs += Long.bitCount(word & ~(word << 1 | previousWord >>> 63));
+                previousWord = word;
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            int arrayBytes = cardinality * 2;
+            int bitmapBytes = CHUNK_WORDS * 8;
+            int runBytes = runs * 4;
+            if (runBytes < Math.min(arrayBytes, bitmapBytes)) {
+                return RunContainer.fromWords(words, runs);
+            }
+            if (cardinality <= MAX_ARRAY_SIZE) {
+                return ArrayContainer.fromWords(words, cardinality);
+            }
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private final char[] mValues;
+
+        private ArrayContainer(char[] values) {
+            mValues = values;
+        }
+
+        static ArrayContainer fromWords(long[] words, int cardinality) {
+            char[] values = new char[cardinality];
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[count++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values);
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(mValues, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return mValues.length;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            Arrays.fill(words, 0);
+            for (char value : mValues) {
+                words[value >>> 6] |= 1L << value;
+            }
+        }
+
+        @Override
+        int andCardinality(long[] bits, int base) {
+            int cardinality = 0;
+            for (char value : mValues) {
+                int id = base + value;
+                if (id >>> 6 < bits.length && (bits[id >>> 6] & 1L << id) != 0) {
+                    cardinality++;
+                }
+            }
+            return cardinality;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private final long[] mWords;
+        private final int mCardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            mWords = words;
+            mCardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (mWords[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return mCardinality;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            System.arraycopy(mWords, 0, words, 0, CHUNK_WORDS);
+        }
+
+        @Override
+        int andCardinality(long[] bits, int base) {
+            int offset = base >>> 6;
+            int count = Math.min(CHUNK_WORDS, bits.length - offset);
+            int cardinality = 0;
+            for (int w = 0; w < count; w++) {
+                cardinality += Long.bitCount(mWords[w] & bits[offset + w]);
+            }
+            return cardinality;
+        }
+    }
+
+    private static final class RunContainer extends Container {
+
+        //the first value and the length - 1 of every run, ascending
+        private final char[] mStarts;
+        private final char[] mLengths;
+
+        private RunContainer(char[] starts, char[] lengths) {
+            mStarts = starts;
+            mLengths = lengths;
+        }
+
+        static RunContainer fromWords(long[] words, int runCount) {
+            char[] starts = new char[runCount];
+            char[] lengths = new char[runCount];
+            int count = 0;
+            int start = -1;
+            for (int value = 0; value <= CHUNK_WORDS * 64; value++) {
+                boolean set = value < CHUNK_WORDS * 64 && (words[value >>> 6] & 1L << value) != 0;
+                if (set && start < 0) {
+                    start = value;
+                } else if (!set && start >= 0) {
+                    starts[count] = (char) start;
+                    lengths[count++] = (char) (value - 1 - start);
+                    start = -1;
+                }
+            }
+            return new RunContainer(starts, lengths);
+        }
+
+        @Override
+        boolean contains(char value) {
+            int index = Arrays.binarySearch(mStarts, value);
+            if (index >= 0) {
+                return true;
+            }
+            int run = -index - 2;
+            return run >= 0 && value - mStarts[run] <= mLengths[run];
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = 0;
+            for (char length : mLengths) {
+                cardinality += length + 1;
+            }
+            return cardinality;
+        }
+
+        @Override
+        void toWords(long[] words) {
+            Arrays.fill(words, 0);
+            for (int i = 0; i < mStarts.length; i++) {
+                setRange(words, mStarts[i], mStarts[i] + mLengths[i]);
+            }
+        }
+
+        @Override
+        int andCardinality(long[] bits, int base) {
+            int cardinality = 0;
+            int limit = bits.length * 64 - 1;
+            for (int i = 0; i < mStarts.length; i++) {
+                int from = base + mStarts[i];
+                int to = Math.min(from + mLengths[i], limit);
+                if (from > to) {
+                    break;
+                }
+                cardinality += countRange(bits, from, to);
+            }
+            return cardinality;
+        }
+
+        //sets the bits [from, to]
+        private static void setRange(long[] words, int from, int to) {
+            int first = from >>> 6;
+            int last = to >>> 6;
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> (63 - (to & 63));
+            if (first == last) {
+                words[first] |= firstMask & lastMask;
+                return;
+            }
+            words[first] |= firstMask;
+            for (int w = first + 1; w < last; w++) {
+                words[w] = -1L;
+            }
+            words[last] |= lastMask;
+        }
+
+        //counts the bits set in [from, to]
+        private static int countRange(long[] bits, int from, int to) {
+            int first = from >>> 6;
+            int last = to >>> 6;
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> (63 - (to & 63));
+            if (first == last) {
+                return Long.bitCount(bits[first] & firstMask & lastMask);
+            }
+            int count = Long.bitCount(bits[first] & firstMask);
+            for (int w = first + 1; w < last; w++) {
+                count += Long.bitCount(bits[w]);
+            }
+            return count + Long.bitCount(bits[last] & lastMask);
+        }
+    }
+}
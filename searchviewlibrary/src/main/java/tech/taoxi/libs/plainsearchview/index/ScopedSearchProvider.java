@@ -0,0 +1,140 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.SearchProvider;
+import tech.taoxi.libs.plainsearchview.suggestions.TextSuggestion;
+
+/**
+ * A {@link SearchProvider} that searches the documents of a
+ * {@link FacetedSearchEngine} that are in a {@link SearchScope}, and can
+ * count the facet values of the matches.
+ * <p/>
+ * <p>Queries are compiled by a {@link QueryParser}, so they can also narrow
+ * the search with facet values, phrases and exclusions, as in
+ * <code>type:pdf budget -draft</code>.</p>
+ * <p/>
+ * <p>Changing the scope does not search again by itself: the results cached
+ * for the previous scope are still valid for the executor, see
+ * {@link tech.taoxi.libs.plainsearchview.PlainSearchView#bindScopeToMenuItem(int, ScopedSearchProvider, SearchScope)}
+ * and {@link tech.taoxi.libs.plainsearchview.PlainSearchView#requery()}.</p>
+ */
+public class ScopedSearchProvider implements SearchProvider<TextSuggestion> {
+
+    public final static int DEFAULT_MAX_RESULTS = LocalSearchProvider.DEFAULT_MAX_RESULTS;
+
+    /**
+     * Receives the facet counts of the searches on the main thread.
+     */
+    public interface OnFacetCountsListener {
+
+        /**
+         * Called after every search of the engine. Results that the executor
+         * finds in its cache are delivered without a search, and without counts.
+         *
+         * @param query  the query that was searched
+         * @param scope  the scope that was searched
+         * @param counts the facet values of all the matches
+         */
+        void onFacetCounts(String query, SearchScope scope, FacetCounts counts);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final QueryParser mParser = new QueryParser();
+    private volatile FacetedSearchEngine mEngine;
+    private volatile SearchScope mScope = SearchScope.ALL;
+    private final int mMaxResults;
+    private volatile OnFacetCountsListener mFacetCountsListener;
+    private volatile String[] mCountedFields = new String[0];
+
+    public ScopedSearchProvider(@NonNull FacetedSearchEngine engine) {
+        this(engine, DEFAULT_MAX_RESULTS);
+    }
+
+    public ScopedSearchProvider(@NonNull FacetedSearchEngine engine, int maxResults) {
+        mEngine = engine;
+        mMaxResults = maxResults;
+    }
+
+    /**
+     * Replaces the engine. Searches that are running keep using the old one.
+     */
+    public void setEngine(@NonNull FacetedSearchEngine engine) {
+        mEngine = engine;
+    }
+
+    @NonNull
+    public FacetedSearchEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * Sets the documents that the next searches are narrowed to,
+     * {@link SearchScope#ALL} by default.
+     */
+    public void setScope(@NonNull SearchScope scope) {
+        mScope = scope;
+    }
+
+    @NonNull
+    public SearchScope getScope() {
+        return mScope;
+    }
+
+    /**
+     * Sets the listener that receives, after every search, the number of
+     * matches with each value of the given fields.
+     *
+     * @param listener the listener, or null to stop counting
+     * @param fields   the facet fields to count
+     */
+    public void setOnFacetCountsListener(OnFacetCountsListener listener, @NonNull String... fields) {
+        mCountedFields = fields.clone();
+        mFacetCountsListener = listener;
+    }
+
+    @NonNull
+    @Override
+    public List<TextSuggestion> search(@NonNull final String query,
+                                       @NonNull CancellationSignal cancellationSignal) {
+        String normalized = QueryNormalizer.getDefault().normalize(query);
+        if (normalized.length() == 0) {
+            return Collections.emptyList();
+        }
+        QueryPlan plan = mParser.parse(normalized);
+        if (plan.isEmpty()) {
+            return Collections.emptyList();
+        }
+        FacetedSearchEngine engine = mEngine.snapshot();
+        final SearchScope scope = mScope;
+        final OnFacetCountsListener listener = mFacetCountsListener;
+        final FacetCounts counts = listener != null ? new FacetCounts(mCountedFields) : null;
+
+        int[] docIds = new int[mMaxResults];
+        int count = engine.search(plan, scope, mMaxResults, docIds, counts);
+        List<TextSuggestion> suggestions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            suggestions.add(new TextSuggestion(engine.getKey(docIds[i]), engine.getText(docIds[i])));
+        }
+
+        if (counts != null && !cancellationSignal.isCanceled()) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFacetCountsListener == listener) {
+                        listener.onFacetCounts(query, scope, counts);
+                    }
+                }
+            });
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,128 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of facet values that narrows a search, such as
+ * "category:food" and "region:eu".
+ * <p/>
+ * <p>A document is in scope if, for every field of the scope, it has one of
+ * the values of that field.</p>
+ *
+ * @see FacetedSearchEngine
+ */
+public final class SearchScope {
+
+    /**
+     * The scope of all the documents.
+     */
+    public static final SearchScope ALL = new SearchScope(new TreeMap<String, Set<String>>());
+
+    private final Map<String, Set<String>> mValues;
+
+    private SearchScope(TreeMap<String, Set<String>> values) {
+        mValues = values;
+    }
+
+    /**
+     * @return the scope of the documents that have the given facet value
+     */
+    @NonNull
+    public static SearchScope of(@NonNull String field, @NonNull String value) {
+        return ALL.with(field, value);
+    }
+
+    /**
+     * @return a copy of this scope that also accepts the given value for
+     * the field, or only accepts it if the field was not in the scope
+     */
+    @NonNull
+    public SearchScope with(@NonNull String field, @NonNull String value) {
+        if (field.indexOf(FacetTerms.SEPARATOR) >= 0 || field.indexOf(':') >= 0) {
+            throw new IllegalArgumentException("Invalid facet field: " + field);
+        }
+        TreeMap<String, Set<String>> values = copyValues();
+        Set<String> fieldValues = values.get(field);
+        TreeSet<String> copy = fieldValues != null ? new TreeSet<>(fieldValues) : new TreeSet<String>();
+        copy.add(value);
+        values.put(field, Collections.unmodifiableSet(copy));
+        return new SearchScope(values);
+    }
+
+    /**
+     * @return a copy of this scope that accepts any value for the field
+     */
+    @NonNull
+    public SearchScope without(@NonNull String field) {
+        if (!mValues.containsKey(field)) {
+            return this;
+        }
+        TreeMap<String, Set<String>> values = copyValues();
+        values.remove(field);
+        return values.isEmpty() ? ALL : new SearchScope(values);
+    }
+
+    /**
+     * @return true if this scope accepts all the documents
+     */
+    public boolean isAll() {
+        return mValues.isEmpty();
+    }
+
+    @NonNull
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(mValues.keySet());
+    }
+
+    /**
+     * @return the accepted values of a field, empty if it is not in the scope
+     */
+    @NonNull
+    public Set<String> getValues(@NonNull String field) {
+        Set<String> values = mValues.get(field);
+        return values != null ? values : Collections.<String>emptySet();
+    }
+
+    private TreeMap<String, Set<String>> copyValues() {
+        return new TreeMap<>(mValues);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SearchScope && mValues.equals(((SearchScope) o).mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return mValues.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (mValues.isEmpty()) {
+            return "SearchScope{all}";
+        }
+        StringBuilder builder = new StringBuilder("SearchScope{");
+        for (Map.Entry<String, Set<String>> field : mValues.entrySet()) {
+            if (builder.length() > "SearchScope{".length()) {
+                builder.append(' ');
+            }
+            builder.append(field.getKey()).append(':');
+            boolean first = true;
+            for (String value : field.getValue()) {
+                if (!first) {
+                    builder.append('|');
+                }
+                builder.append(value);
+                first = false;
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
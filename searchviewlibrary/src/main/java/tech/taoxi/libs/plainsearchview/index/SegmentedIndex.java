@@ -0,0 +1,528 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import tech.taoxi.libs.plainsearchview.search.SearchExecutors;
+
+/**
+ * A {@link LocalSearchEngine} over documents that change, without rebuilding
+ * the whole index for every change.
+ * <p/>
+ * <p>The documents live in immutable {@link InvertedIndex} segments. An
+ * {@link Edit} is indexed into a new small segment, and the older documents
+ * it replaces or deletes are marked in deletion bitsets, which are copied
+ * rather than modified. The segments and their bitsets are published
+ * together as an immutable {@link Snapshot} through a single volatile
+ * reference, so searches never take a lock and always see a consistent
+ * state. When there are more than {@link #setMaxSegments(int) a few}
+ * segments, the small ones are merged into one on a background thread.</p>
+ * <p/>
+ * <p>Searches may run on any thread. Edits may be committed from any thread
+ * and are applied one at a time.</p>
+ */
+public final class SegmentedIndex implements FacetedSearchEngine {
+
+    public final static int DEFAULT_MAX_SEGMENTS = 8;
+
+    //a segment is merged with the newer ones once they hold a quarter as many documents
+    private final static int MERGE_FACTOR = 4;
+
+    private final static String[] NO_FACETS = new String[0];
+
+    private final Object mWriteLock = new Object();
+    //held for a whole merge, so that merges never overlap
+    private final Object mMergeLock = new Object();
+    private final ExecutorService mMergeExecutor = SearchExecutors.newSerialExecutor("PlainSearchView-index-merge");
+
+    private volatile Snapshot mSnapshot;
+    //changed by every commit, written under mWriteLock
+    private volatile long mVersion;
+
+    //guarded by mWriteLock
+    private int mMaxSegments = DEFAULT_MAX_SEGMENTS;
+    private boolean mMergeScheduled;
+
+    /**
+     * The segments of a {@link SegmentedIndex} at one point in time.
+     * Document ids run through the segments, oldest first.
+     */
+    public static final class Snapshot implements FacetedSearchEngine {
+
+        final InvertedIndex[] segments;
+        //the deleted documents of every segment, null for none
+        final long[][] deleted;
+        final int[] deletedCounts;
+        //the id of the first document of every segment, and the total
+        private final int[] mDocBases;
+
+        Snapshot(InvertedIndex[] segments, long[][] deleted, int[] deletedCounts) {
+            this.segments = segments;
+            this.deleted = deleted;
+            this.deletedCounts = deletedCounts;
+            mDocBases = new int[segments.length + 1];
+            for (int i = 0; i < segments.length; i++) {
+                mDocBases[i + 1] = mDocBases[i] + segments[i].getDocumentCount();
+            }
+        }
+
+        public int getSegmentCount() {
+            return segments.length;
+        }
+
+        /**
+         * @return the number of documents that are not deleted
+         */
+        public int getDocumentCount() {
+            int count = 0;
+            for (int i = 0; i < segments.length; i++) {
+                count += segments[i].getDocumentCount() - deletedCounts[i];
+            }
+            return count;
+        }
+
+        /**
+         * @return the id of the document with the given key, or -1
+         */
+        public int findDocument(@NonNull CharSequence key) {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                int docId = segments[i].findDocument(key);
+                if (docId >= 0 && !isDeleted(deleted[i], docId)) {
+                    return mDocBases[i] + docId;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int search(@NonNull String normalizedQuery, int k, @NonNull int[] outDocIds) {
+            return search(normalizedQuery, SearchScope.ALL, k, outDocIds, null);
+        }
+
+        @Override
+        public int search(@NonNull String normalizedQuery, @NonNull SearchScope scope, int k,
+                          @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+            List<String> tokens = Tokenizer.tokenize(normalizedQuery);
+            if (tokens.isEmpty()) {
+                return 0;
+            }
+            return search(QueryPlan.of(normalizedQuery, tokens), scope, k, outDocIds, counts);
+        }
+
+        @Override
+        public int search(@NonNull QueryPlan plan, @NonNull SearchScope scope, int k,
+                          @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+            if (plan.isEmpty()) {
+                return 0;
+            }
+            TopKCollector top = new TopKCollector(Math.max(k, 0));
+            for (int i = 0; i < segments.length; i++) {
+                segments[i].collect(plan, scope, deleted[i], mDocBases[i], top, counts);
+            }
+            return top.drainTo(outDocIds);
+        }
+
+        @NonNull
+        @Override
+        public String getText(int docId) {
+            int segment = segmentOf(docId);
+            return segments[segment].getText(docId - mDocBases[segment]);
+        }
+
+        @NonNull
+        @Override
+        public String getKey(int docId) {
+            int segment = segmentOf(docId);
+            return segments[segment].getKey(docId - mDocBases[segment]);
+        }
+
+        public float getWeight(int docId) {
+            int segment = segmentOf(docId);
+            return segments[segment].getWeight(docId - mDocBases[segment]);
+        }
+
+        @NonNull
+        @Override
+        public Snapshot snapshot() {
+            return this;
+        }
+
+        private int segmentOf(int docId) {
+            int segment = Arrays.binarySearch(mDocBases, docId);
+            if (segment < 0) {
+                return -segment - 2;
+            }
+            //skips the empty segments that start at the same id
+            while (mDocBases[segment + 1] == docId) {
+                segment++;
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * A batch of changes, applied at once by {@link #commit()}. When a key is
+     * changed twice in an edit, the last change wins.
+     */
+    public final class Edit {
+
+        //the new document of every changed key, null to delete it
+        private final Map<String, Document> mChanges = new LinkedHashMap<>();
+
+        private Edit() {
+        }
+
+        /**
+         * Adds or replaces a document whose key is its text.
+         */
+        public Edit put(@NonNull String text, float weight) {
+            return put(text, text, weight);
+        }
+
+        /**
+         * Adds a document, or replaces the one with the same key.
+         *
+         * @see InvertedIndex.Builder#add(String, String, float, String...)
+         */
+        public Edit put(@NonNull String key, @NonNull String text, float weight, @NonNull String... facets) {
+            //checked now rather than when the edit is committed
+            for (String facet : facets) {
+                FacetTerms.fromFacet(facet);
+            }
+            mChanges.put(key, new Document(text, weight, facets));
+            return this;
+        }
+
+        /**
+         * Deletes the document with the given key, if there is one.
+         */
+        public Edit delete(@NonNull String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        /**
+         * Applies the changes. Searches started afterwards see all of them,
+         * searches that are running see none. The edit is empty afterwards
+         * and can be reused.
+         * <p/>
+         * <p>The new documents are indexed on the calling thread.</p>
+         */
+        public void commit() {
+            if (mChanges.isEmpty()) {
+                return;
+            }
+            InvertedIndex.Builder builder = new InvertedIndex.Builder().setParallelism(1);
+            for (Map.Entry<String, Document> change : mChanges.entrySet()) {
+                Document document = change.getValue();
+                if (document != null) {
+                    builder.add(change.getKey(), document.text, document.weight, document.facets);
+                }
+            }
+            InvertedIndex added = builder.getDocumentCount() > 0 ? builder.build() : null;
+
+            synchronized (mWriteLock) {
+                Snapshot current = mSnapshot;
+                int count = current.segments.length;
+                Deletions deletions = new Deletions(current, count + 1);
+                for (String key : mChanges.keySet()) {
+                    for (int i = 0; i < count; i++) {
+                        deletions.delete(i, current.segments[i].findDocument(key));
+                    }
+                }
+                if (added != null) {
+                    deletions.append(added);
+                }
+                mSnapshot = deletions.toSnapshot();
+                mVersion++;
+                scheduleMergeIfNeeded();
+            }
+            mChanges.clear();
+        }
+    }
+
+    private static final class Document {
+
+        final String text;
+        final float weight;
+        final String[] facets;
+
+        Document(String text, float weight, String[] facets) {
+            this.text = text;
+            this.weight = weight;
+            this.facets = facets;
+        }
+    }
+
+    //the segments and bitsets of a snapshot being derived from another one,
+    //a bitset is copied the first time it changes
+    private static final class Deletions {
+
+        private InvertedIndex[] mSegments;
+        private long[][] mDeleted;
+        private int[] mDeletedCounts;
+        private final boolean[] mCopied;
+        private int mCount;
+
+        Deletions(Snapshot snapshot, int capacity) {
+            mCount = snapshot.segments.length;
+            mSegments = Arrays.copyOf(snapshot.segments, capacity);
+            mDeleted = Arrays.copyOf(snapshot.deleted, capacity);
+            mDeletedCounts = Arrays.copyOf(snapshot.deletedCounts, capacity);
+            mCopied = new boolean[capacity];
+        }
+
+        void delete(int segment, int docId) {
+            if (docId < 0 || isDeleted(mDeleted[segment], docId)) {
+                return;
+            }
+            if (!mCopied[segment]) {
+                long[] bits = mDeleted[segment];
+                mDeleted[segment] = bits != null ? bits.clone()
+                        : new long[(mSegments[segment].getDocumentCount() + 63) >>> 6];
+                mCopied[segment] = true;
+            }
+            mDeleted[segment][docId >>> 6] |= 1L << docId;
+            mDeletedCounts[segment]++;
+        }
+
+        void append(InvertedIndex segment) {
+            mSegments[mCount] = segment;
+            mDeleted[mCount] = null;
+            mDeletedCounts[mCount] = 0;
+            mCount++;
+        }
+
+        //replaces the segments [from, to) with one, or with none if it is null
+        void replace(int from, int to, InvertedIndex segment) {
+            int inserted = segment != null ? 1 : 0;
+            int tail = mCount - to;
+            System.arraycopy(mSegments, to, mSegments, from + inserted, tail);
+            System.arraycopy(mDeleted, to, mDeleted, from + inserted, tail);
+            System.arraycopy(mDeletedCounts, to, mDeletedCounts, from + inserted, tail);
+            System.arraycopy(mCopied, to, mCopied, from + inserted, tail);
+            if (segment != null) {
+                mSegments[from] = segment;
+                mDeleted[from] = null;
+                mDeletedCounts[from] = 0;
+                mCopied[from] = false;
+            }
+            mCount = from + inserted + tail;
+        }
+
+        Snapshot toSnapshot() {
+            return new Snapshot(Arrays.copyOf(mSegments, mCount), Arrays.copyOf(mDeleted, mCount),
+                    Arrays.copyOf(mDeletedCounts, mCount));
+        }
+    }
+
+    public SegmentedIndex() {
+        this(null);
+    }
+
+    /**
+     * @param base the initial documents, for example a snapshot opened with
+     *             {@link InvertedIndex#open(java.io.File)}, or null
+     */
+    public SegmentedIndex(@Nullable InvertedIndex base) {
+        InvertedIndex[] segments = base != null ? new InvertedIndex[]{base} : new InvertedIndex[0];
+        mSnapshot = new Snapshot(segments, new long[segments.length][], new int[segments.length]);
+    }
+
+    /**
+     * Sets how many segments there may be before the small ones are merged,
+     * {@link #DEFAULT_MAX_SEGMENTS} by default.
+     */
+    public void setMaxSegments(int maxSegments) {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        }
+        synchronized (mWriteLock) {
+            mMaxSegments = maxSegments;
+            scheduleMergeIfNeeded();
+        }
+    }
+
+    /**
+     * @return a new empty edit
+     */
+    @NonNull
+    public Edit edit() {
+        return new Edit();
+    }
+
+    /**
+     * @return a number that changes whenever a commit changes the documents,
+     * and not when the segments are merged
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the current segments, which never change
+     */
+    @NonNull
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @NonNull
+    @Override
+    public Snapshot snapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public int search(@NonNull String normalizedQuery, int k, @NonNull int[] outDocIds) {
+        return mSnapshot.search(normalizedQuery, k, outDocIds);
+    }
+
+    @Override
+    public int search(@NonNull String normalizedQuery, @NonNull SearchScope scope, int k,
+                      @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+        return mSnapshot.search(normalizedQuery, scope, k, outDocIds, counts);
+    }
+
+    @Override
+    public int search(@NonNull QueryPlan plan, @NonNull SearchScope scope, int k,
+                      @NonNull int[] outDocIds, @Nullable FacetCounts counts) {
+        return mSnapshot.search(plan, scope, k, outDocIds, counts);
+    }
+
+    /**
+     * Only valid while the segments have not changed since the search that
+     * returned the id, search a {@link #snapshot()} instead.
+     */
+    @NonNull
+    @Override
+    public String getText(int docId) {
+        return mSnapshot.getText(docId);
+    }
+
+    /**
+     * Only valid while the segments have not changed since the search that
+     * returned the id, search a {@link #snapshot()} instead.
+     */
+    @NonNull
+    @Override
+    public String getKey(int docId) {
+        return mSnapshot.getKey(docId);
+    }
+
+    /**
+     * Merges all the segments into one, dropping the deleted documents, on
+     * the calling thread. Edits can still be committed meanwhile.
+     */
+    public void forceMerge() {
+        merge(true);
+    }
+
+    private void scheduleMergeIfNeeded() {
+        if (mMergeScheduled || mSnapshot.segments.length <= mMaxSegments) {
+            return;
+        }
+        mMergeScheduled = true;
+        mMergeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                merge(false);
+                synchronized (mWriteLock) {
+                    mMergeScheduled = false;
+                    //edits committed during the merge may have added segments
+                    scheduleMergeIfNeeded();
+                }
+            }
+        });
+    }
+
+    private void merge(boolean all) {
+        synchronized (mMergeLock) {
+            //only merges remove segments, so those of the source stay at
+            //the same positions while edits are committed
+            Snapshot source = mSnapshot;
+            int to = source.segments.length;
+            int from;
+            if (all) {
+                from = 0;
+            } else {
+                int maxSegments;
+                synchronized (mWriteLock) {
+                    maxSegments = mMaxSegments;
+                }
+                from = pickMergeStart(source, maxSegments);
+            }
+            if (to - from < 2 && (to == from || source.deletedCounts[from] == 0)) {
+                return;
+            }
+
+            InvertedIndex.Builder builder = new InvertedIndex.Builder();
+            for (int i = from; i < to; i++) {
+                InvertedIndex segment = source.segments[i];
+                long[] deleted = source.deleted[i];
+                String[][] facets = segment.readFacets();
+                for (int docId = 0, count = segment.getDocumentCount(); docId < count; docId++) {
+                    if (!isDeleted(deleted, docId)) {
+                        builder.add(segment.getKey(docId), segment.getText(docId), segment.getWeight(docId),
+                                facets[docId] != null ? facets[docId] : NO_FACETS);
+                    }
+                }
+            }
+            InvertedIndex merged = builder.getDocumentCount() > 0 ? builder.build() : null;
+
+            synchronized (mWriteLock) {
+                Snapshot current = mSnapshot;
+                Deletions deletions = new Deletions(current, current.segments.length);
+                deletions.replace(from, to, merged);
+                if (merged != null) {
+                    //documents deleted while the segments were merged are deleted from the merged one
+                    for (int i = from; i < to; i++) {
+                        long[] before = source.deleted[i];
+                        long[] after = current.deleted[i];
+                        if (after == before) {
+                            continue;
+                        }
+                        InvertedIndex segment = current.segments[i];
+                        for (int word = 0; word < after.length; word++) {
+                            long bits = after[word] & ~(before != null ? before[word] : 0);
+                            while (bits != 0) {
+                                int docId = word << 6 | Long.numberOfTrailingZeros(bits);
+                                deletions.delete(from, merged.findDocument(segment.getKey(docId)));
+                                bits &= bits - 1;
+                            }
+                        }
+                    }
+                }
+                mSnapshot = deletions.toSnapshot();
+            }
+        }
+    }
+
+    //the first segment to merge with all the newer ones
+    private static int pickMergeStart(Snapshot snapshot, int maxSegments) {
+        int count = snapshot.segments.length;
+        int from = count;
+        int newer = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int total = snapshot.segments[i].getDocumentCount();
+            int live = total - snapshot.deletedCounts[i];
+            //small segments, and segments that are mostly deleted
+            if (live <= newer * MERGE_FACTOR || snapshot.deletedCounts[i] * 2 >= total) {
+                from = i;
+            }
+            newer += live;
+        }
+        //enough segments to get back under the limit
+        return Math.min(from, count - Math.min(count, count - maxSegments + 1));
+    }
+
+    static boolean isDeleted(long[] deleted, int docId) {
+        return deleted != null && (deleted[docId >>> 6] & 1L << docId) != 0;
+    }
+}
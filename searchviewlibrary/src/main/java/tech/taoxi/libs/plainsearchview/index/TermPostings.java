@@ -0,0 +1,117 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+
+/**
+ * The sorted terms of a range of documents, each with the ascending ids of
+ * the documents that contain it. This is what {@link InvertedIndex} encodes,
+ * and what the partitions of a parallel build produce and merge.
+ */
+final class TermPostings {
+
+    final String[] terms;
+    final int[][] postings;
+
+    private TermPostings(String[] terms, int[][] postings) {
+        this.terms = terms;
+        this.postings = postings;
+    }
+
+    /**
+     * Tokenizes the documents texts[from, to), whose ids are their positions.
+     *
+     * @param facetTerms the {@link FacetTerms facet terms} of every document,
+     *                   null for none
+     */
+    static TermPostings tokenize(String[] texts, String[][] facetTerms, int from, int to) {
+        //documents are normalized once each, caching them would only evict the queries
+        QueryNormalizer normalizer = new QueryNormalizer(0);
+        Map<String, PostingsBuilder> postings = new HashMap<>();
+        for (int docId = from; docId < to; docId++) {
+            for (String token : Tokenizer.tokenize(normalizer.normalize(texts[docId]))) {
+                add(postings, token, docId);
+            }
+            if (facetTerms[docId] != null) {
+                for (String term : facetTerms[docId]) {
+                    add(postings, term, docId);
+                }
+            }
+        }
+
+        String[] terms = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(terms);
+        int[][] termPostings = new int[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            termPostings[i] = postings.get(terms[i]).toArray();
+        }
+        return new TermPostings(terms, termPostings);
+    }
+
+    private static void add(Map<String, PostingsBuilder> postings, String term, int docId) {
+        PostingsBuilder list = postings.get(term);
+        if (list == null) {
+            list = new PostingsBuilder();
+            postings.put(term, list);
+        }
+        list.add(docId);
+    }
+
+    /**
+     * Merges the postings of two ranges of documents, all the documents of
+     * the second one coming after those of the first one.
+     */
+    static TermPostings merge(TermPostings first, TermPostings second) {
+        String[] terms = new String[first.terms.length + second.terms.length];
+        int[][] postings = new int[terms.length][];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < first.terms.length || j < second.terms.length) {
+            int cmp = i == first.terms.length ? 1
+                    : j == second.terms.length ? -1
+                    : first.terms[i].compareTo(second.terms[j]);
+            if (cmp < 0) {
+                terms[count] = first.terms[i];
+                postings[count++] = first.postings[i++];
+            } else if (cmp > 0) {
+                terms[count] = second.terms[j];
+                postings[count++] = second.postings[j++];
+            } else {
+                int[] a = first.postings[i];
+                int[] b = second.postings[j];
+                int[] merged = Arrays.copyOf(a, a.length + b.length);
+                System.arraycopy(b, 0, merged, a.length, b.length);
+                terms[count] = first.terms[i++];
+                postings[count++] = merged;
+                j++;
+            }
+        }
+        return new TermPostings(Arrays.copyOf(terms, count), Arrays.copyOf(postings, count));
+    }
+
+    //the ascending ids of the documents that contain a token
+    private static final class PostingsBuilder {
+
+        private int[] mDocIds = new int[4];
+        private int mSize;
+
+        void add(int docId) {
+            //a token that appears twice in a document is listed once
+            if (mSize > 0 && mDocIds[mSize - 1] == docId) {
+                return;
+            }
+            if (mSize == mDocIds.length) {
+                mDocIds = Arrays.copyOf(mDocIds, mSize * 2);
+            }
+            mDocIds[mSize++] = docId;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mDocIds, mSize);
+        }
+    }
+}
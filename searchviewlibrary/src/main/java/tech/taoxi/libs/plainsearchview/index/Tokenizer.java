@@ -0,0 +1,45 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits normalized text into the tokens of an {@link InvertedIndex}: the
+ * runs of letters and digits, everything else separates tokens.
+ */
+final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param normalized text normalized with
+     *                   {@link tech.taoxi.libs.plainsearchview.search.QueryNormalizer}
+     * @return the tokens, in the order they appear
+     */
+    @NonNull
+    static List<String> tokenize(@NonNull String normalized) {
+        List<String> tokens = new ArrayList<>();
+        int length = normalized.length();
+        int start = -1;
+        int i = 0;
+        while (i < length) {
+            int codePoint = normalized.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            tokens.add(normalized.substring(start));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,145 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Keeps the k best scored documents out of any number offered to it.
+ * <p/>
+ * <p>The documents are kept in a bounded heap whose root is the worst one,
+ * stored in parallel {@code int[]} and {@code float[]} arrays, so collecting
+ * candidates never allocates however many there are, and a candidate that
+ * is worse than the k kept so far costs a single comparison. One collector
+ * is shared by all the segments that are searched for a query. Ties go to
+ * the lowest document id.</p>
+ * <p/>
+ * <p>Instances are not thread safe.</p>
+ */
+public final class TopKCollector {
+
+    private final int[] mDocIds;
+    private final float[] mScores;
+    private int mSize;
+
+    /**
+     * @param k the number of documents to keep
+     */
+    public TopKCollector(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        mDocIds = new int[k];
+        mScores = new float[k];
+    }
+
+    public int getCapacity() {
+        return mDocIds.length;
+    }
+
+    /**
+     * @return the number of documents kept so far
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the score a document must beat to be kept, negative infinity
+     * until k documents were kept, positive infinity if k is 0
+     */
+    public float getMinCompetitiveScore() {
+        if (mDocIds.length == 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return mSize < mDocIds.length ? Float.NEGATIVE_INFINITY : mScores[0];
+    }
+
+    /**
+     * Offers a candidate.
+     *
+     * @return true if it is kept, for now
+     */
+    public boolean offer(int docId, float score) {
+        if (mSize < mDocIds.length) {
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isWorse(score, docId, mScores[parent], mDocIds[parent])) {
+                    break;
+                }
+                mDocIds[i] = mDocIds[parent];
+                mScores[i] = mScores[parent];
+                i = parent;
+            }
+            mDocIds[i] = docId;
+            mScores[i] = score;
+            return true;
+        }
+        if (mSize > 0 && isWorse(mScores[0], mDocIds[0], score, docId)) {
+            siftDown(docId, score, mSize);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the documents best first and empties the collector.
+     *
+     * @param outDocIds receives the ids, must hold {@link #size()} ids
+     * @return the number of ids written
+     */
+    public int drainTo(@NonNull int[] outDocIds) {
+        return drainTo(outDocIds, null);
+    }
+
+    /**
+     * Same as {@link #drainTo(int[])}, also writing the scores.
+     *
+     * @param outScores receives the scores, or null
+     */
+    public int drainTo(@NonNull int[] outDocIds, float[] outScores) {
+        int count = mSize;
+        for (int i = count - 1; i >= 0; i--) {
+            outDocIds[i] = mDocIds[0];
+            if (outScores != null) {
+                outScores[i] = mScores[0];
+            }
+            mSize--;
+            siftDown(mDocIds[mSize], mScores[mSize], mSize);
+        }
+        return count;
+    }
+
+    /**
+     * Empties the collector so that it can be used for another query.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    //puts a document at the root and moves it down the heap of the given size
+    private void siftDown(int docId, float score, int size) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isWorse(mScores[child + 1], mDocIds[child + 1],
+                    mScores[child], mDocIds[child])) {
+                child++;
+            }
+            if (!isWorse(mScores[child], mDocIds[child], score, docId)) {
+                break;
+            }
+            mDocIds[i] = mDocIds[child];
+            mScores[i] = mScores[child];
+            i = child;
+        }
+        mDocIds[i] = docId;
+        mScores[i] = score;
+    }
+
+    private static boolean isWorse(float score, int docId, float otherScore, int otherDocId) {
+        return score < otherScore || score == otherScore && docId > otherDocId;
+    }
+}
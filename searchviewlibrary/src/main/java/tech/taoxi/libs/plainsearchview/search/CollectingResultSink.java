@@ -0,0 +1,26 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ResultSink} that collects all the batches into one list.
+ *
+ * @param <T> the type of the results
+ */
+public class CollectingResultSink<T> implements ResultSink<T> {
+
+    private final List<T> mResults = new ArrayList<>();
+
+    @Override
+    public void emit(@NonNull List<? extends T> batch) {
+        mResults.addAll(batch);
+    }
+
+    @NonNull
+    public List<T> getResults() {
+        return mResults;
+    }
+}
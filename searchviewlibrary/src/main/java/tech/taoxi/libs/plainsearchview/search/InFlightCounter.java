@@ -0,0 +1,48 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+/**
+ * Counts the queries that are running across one or more
+ * {@link QueryExecutor}s and reports when the count moves between
+ * zero and non-zero.
+ * <p/>
+ * <p>Must only be used from the main thread.</p>
+ */
+public class InFlightCounter {
+
+    public interface OnIdleChangedListener {
+
+        /**
+         * @param idle true when the last running query finished,
+         *             false when the first one started
+         */
+        void onIdleChanged(boolean idle);
+    }
+
+    private int mCount;
+    private OnIdleChangedListener mListener;
+
+    public void setOnIdleChangedListener(OnIdleChangedListener listener) {
+        mListener = listener;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    void increment() {
+        mCount++;
+        if (mCount == 1 && mListener != null) {
+            mListener.onIdleChanged(false);
+        }
+    }
+
+    void decrement() {
+        if (mCount == 0) {
+            return;
+        }
+        mCount--;
+        if (mCount == 0 && mListener != null) {
+            mListener.onIdleChanged(true);
+        }
+    }
+}
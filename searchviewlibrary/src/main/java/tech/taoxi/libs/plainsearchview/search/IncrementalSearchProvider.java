@@ -0,0 +1,35 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * A {@link SearchProvider} that can derive the results of a query from
+ * the results of the previous query and the edit between the two, for
+ * example by narrowing the previous candidates when chars were appended.
+ *
+ * @param <T> the type of the results
+ */
+public interface IncrementalSearchProvider<T> extends SearchProvider<T> {
+
+    /**
+     * Refines the results of the previous query. This is called on a
+     * background thread instead of {@link #search(String, CancellationSignal)}
+     * whenever results of a previous query are available.
+     *
+     * @param previousQuery      the query the previous results belong to
+     * @param previousResults    the previous results, must not be modified
+     * @param edit               the edit from previousQuery to query
+     * @param query              the query to search for
+     * @param cancellationSignal signal for the current query
+     * @return the results, or null to fall back to a full search
+     * @throws Exception if the search failed
+     */
+    @Nullable
+    List<T> refine(@NonNull String previousQuery, @NonNull List<T> previousResults,
+                   @NonNull QueryEdit edit, @NonNull String query,
+                   @NonNull CancellationSignal cancellationSignal) throws Exception;
+}
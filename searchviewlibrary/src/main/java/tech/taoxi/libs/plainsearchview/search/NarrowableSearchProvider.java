@@ -0,0 +1,29 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link SearchProvider} whose results can be narrowed locally when
+ * the query grows.
+ * <p/>
+ * <p>Implementing this interface is a promise that every result for a query
+ * is also a result for any prefix of that query, and that
+ * {@link #search(String, android.os.CancellationSignal)} returns all the matches
+ * rather than a truncated list. The results of "piz" can then be computed by
+ * filtering the results of "pi" with {@link #matches(String, Object)}, without
+ * calling the provider.</p>
+ *
+ * @param <T> the type of the results
+ */
+public interface NarrowableSearchProvider<T> extends SearchProvider<T> {
+
+    /**
+     * Tells whether a result of a shorter query still matches the given
+     * query. This is called on a background thread and should be cheap.
+     *
+     * @param query  the query to match
+     * @param result a result of a prefix of query
+     * @return true to keep the result
+     */
+    boolean matches(@NonNull String query, @NonNull T result);
+}
@@ -0,0 +1,142 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the normalized queries that a {@link PrefixSearchProvider} found
+ * nothing for, so that the queries extending them are known to find nothing
+ * either.
+ * <p/>
+ * <p>The queries are kept in a small LRU set. A Bloom filter of 1 KB sits in
+ * front of it: checking a query looks up every prefix of it in the filter,
+ * hashed as the prefix grows, and only the prefixes that the filter may hold
+ * are looked up in the set. The filter can't forget a query, it is rebuilt
+ * from the set once the set evicted as many queries as it holds.</p>
+ * <p/>
+ * <p>Everything is forgotten when the data version of the provider
+ * changes. Safe to use from any thread.</p>
+ */
+public class NegativeResultCache {
+
+    public final static int DEFAULT_MAX_QUERIES = 256;
+
+    //1 KB of bits, 4 of them per query: about one false positive in 5000
+    //lookups when the set is full
+    private final static int FILTER_BITS = 8192;
+    private final static int HASH_COUNT = 4;
+
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    private final int mMaxQueries;
+    private final LinkedHashMap<String, Boolean> mQueries;
+    private final long[] mFilter = new long[FILTER_BITS / 64];
+    private int mEvictions;
+    private long mVersion;
+
+    public NegativeResultCache() {
+        this(DEFAULT_MAX_QUERIES);
+    }
+
+    public NegativeResultCache(final int maxQueries) {
+        mMaxQueries = maxQueries;
+        mQueries = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                if (size() > mMaxQueries) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param normalizedQuery the query, normalized with {@link QueryNormalizer}
+     * @param dataVersion     the data version of the provider
+     * @return true if the query, or a prefix of it, found nothing with the
+     * same data version
+     */
+    public synchronized boolean isKnownEmpty(@NonNull String normalizedQuery, long dataVersion) {
+        if (dataVersion != mVersion) {
+            clear();
+            mVersion = dataVersion;
+            return false;
+        }
+        if (mQueries.isEmpty()) {
+            return false;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, length = normalizedQuery.length(); i < length; i++) {
+            hash = (hash ^ normalizedQuery.charAt(i)) * FNV_PRIME;
+            if (mightContain(hash) && mQueries.get(normalizedQuery.substring(0, i + 1)) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a query found nothing.
+     *
+     * @param normalizedQuery the query, normalized with {@link QueryNormalizer}
+     * @param dataVersion     the data version of the provider when the query
+     *                        was searched, the query is not recorded if it
+     *                        changed since
+     */
+    public synchronized void put(@NonNull String normalizedQuery, long dataVersion) {
+        if (dataVersion != mVersion || normalizedQuery.length() == 0) {
+            return;
+        }
+        mQueries.put(normalizedQuery, Boolean.TRUE);
+        add(hash(normalizedQuery));
+        if (mEvictions >= mMaxQueries) {
+            Arrays.fill(mFilter, 0);
+            for (String query : mQueries.keySet()) {
+                add(hash(query));
+            }
+            mEvictions = 0;
+        }
+    }
+
+    public synchronized void clear() {
+        mQueries.clear();
+        Arrays.fill(mFilter, 0);
+        mEvictions = 0;
+    }
+
+    private static long hash(String query) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, length = query.length(); i < length; i++) {
+            hash = (hash ^ query.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    //the bits of a query are derived from the two halves of its hash
+    private void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & (FILTER_BITS - 1);
+            mFilter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & (FILTER_BITS - 1);
+            if ((mFilter[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
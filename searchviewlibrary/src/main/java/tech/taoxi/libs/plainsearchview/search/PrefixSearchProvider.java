@@ -0,0 +1,27 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link VersionedSearchProvider} that knows which of the queries it
+ * found nothing for can't be extended into queries that find something, as
+ * providers that complete what is typed do.
+ * <p/>
+ * <p>The {@link QueryExecutor} remembers the normalized queries that found
+ * nothing, and answers the queries that extend them without calling the
+ * provider, see {@link NegativeResultCache}. What it remembers is forgotten
+ * when the data version of the provider changes.</p>
+ *
+ * @param <T> the type of the results
+ */
+public interface PrefixSearchProvider<T> extends VersionedSearchProvider<T> {
+
+    /**
+     * Called on a background thread after the query found nothing.
+     *
+     * @param normalizedQuery a query, normalized with {@link QueryNormalizer}
+     * @return true if no query that extends it can find anything either, so
+     * that it can be remembered
+     */
+    boolean isPrefixClosed(@NonNull String normalizedQuery);
+}
@@ -0,0 +1,145 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Describes how a query changed into the next one: the range
+ * [start, start + removedLength) of the old query was replaced by
+ * insertedLength chars of the new query.
+ * <p/>
+ * <p>Instances handed to {@link tech.taoxi.libs.plainsearchview.PlainSearchView.OnQueryEditListener}
+ * are reused for every keystroke, don't keep a reference to them.</p>
+ */
+public final class QueryEdit {
+
+    /**
+     * Chars were added at the end of the query, the old query
+     * is a prefix of the new one.
+     */
+    public final static int TYPE_APPEND = 1;
+
+    /**
+     * Chars were removed from the end of the query, the new query
+     * is a prefix of the old one.
+     */
+    public final static int TYPE_DELETE_TAIL = 2;
+
+    /**
+     * Any other change.
+     */
+    public final static int TYPE_REPLACE_RANGE = 3;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({TYPE_APPEND, TYPE_DELETE_TAIL, TYPE_REPLACE_RANGE})
+    public @interface Type {
+    }
+
+    @Type
+    private int mType = TYPE_REPLACE_RANGE;
+    private int mOldLength;
+    private int mStart;
+    private int mRemovedLength;
+    private int mInsertedLength;
+    private CharSequence mNewQuery = "";
+
+    /**
+     * Computes the edit that turns oldQuery into newQuery, using their
+     * common prefix and suffix.
+     */
+    public static QueryEdit between(@NonNull CharSequence oldQuery, @NonNull CharSequence newQuery) {
+        QueryEdit edit = new QueryEdit();
+        edit.set(oldQuery, 0, oldQuery.length(), newQuery.length(), newQuery);
+        return edit;
+    }
+
+    /**
+     * Updates this edit from the arguments of
+     * {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}.
+     * <p/>
+     * <p>The common prefix and suffix of the replaced and the inserted chars
+     * are left out of the edit: an IME that replaces its composing region
+     * "hel" with "hell" reports the whole region, which is an append.</p>
+     *
+     * @param oldQuery the query before the edit
+     */
+    public void set(@NonNull CharSequence oldQuery, int start, int before, int count,
+                    @NonNull CharSequence newQuery) {
+        int prefix = 0;
+        int maxPrefix = Math.min(before, count);
+        while (prefix < maxPrefix && oldQuery.charAt(start + prefix) == newQuery.charAt(start + prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && oldQuery.charAt(start + before - 1 - suffix) == newQuery.charAt(start + count - 1 - suffix)) {
+            suffix++;
+        }
+        set(oldQuery.length(), start + prefix, before - prefix - suffix, count - prefix - suffix, newQuery);
+    }
+
+    private void set(int oldLength, int start, int before, int count, CharSequence newQuery) {
+        mOldLength = oldLength;
+        mStart = start;
+        mRemovedLength = before;
+        mInsertedLength = count;
+        mNewQuery = newQuery;
+        if (before == 0 && start == oldLength && count > 0) {
+            mType = TYPE_APPEND;
+        } else if (count == 0 && before > 0 && start + before == oldLength) {
+            mType = TYPE_DELETE_TAIL;
+        } else {
+            mType = TYPE_REPLACE_RANGE;
+        }
+    }
+
+    @Type
+    public int getType() {
+        return mType;
+    }
+
+    public int getOldLength() {
+        return mOldLength;
+    }
+
+    /**
+     * @return the index of the first changed char, in both the
+     * old and the new query
+     */
+    public int getStart() {
+        return mStart;
+    }
+
+    public int getRemovedLength() {
+        return mRemovedLength;
+    }
+
+    public int getInsertedLength() {
+        return mInsertedLength;
+    }
+
+    /**
+     * @return the query after the edit
+     */
+    public CharSequence getNewQuery() {
+        return mNewQuery;
+    }
+
+    /**
+     * @return the chars that were inserted, this allocates a new
+     * CharSequence
+     */
+    public CharSequence getInserted() {
+        return mNewQuery.subSequence(mStart, mStart + mInsertedLength);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryEdit{type=" + mType + ", start=" + mStart + ", removed=" + mRemovedLength
+                + ", inserted=" + mInsertedLength + "}";
+    }
+}
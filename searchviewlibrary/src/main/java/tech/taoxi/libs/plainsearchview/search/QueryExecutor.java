@@ -0,0 +1,386 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a {@link SearchProvider} off the main thread, one query at a time.
+ * <p/>
+ * <p>Every submitted query gets a new generation. Submitting a query cancels
+ * and interrupts the work of the previous one, and results of an older
+ * generation are dropped before they reach the main thread, so the
+ * callback only ever sees results for the latest query.</p>
+ * <p/>
+ * <p>The batches of a {@link StreamingSearchProvider} are posted to the main
+ * thread as they are emitted, if the callback is a {@link PartialResultsCallback}.</p>
+ * <p/>
+ * <p>The queries that extend a query a {@link PrefixSearchProvider} found
+ * nothing for are answered without calling it, see {@link NegativeResultCache}.</p>
+ * <p/>
+ * <p>The cached results, and the results that the next queries are narrowed
+ * or refined from, are forgotten when the data version of a
+ * {@link VersionedSearchProvider} changes.</p>
+ * <p/>
+ * <p>Executors that search the same query with the same provider at the same
+ * time share a single search, see {@link SingleFlight}.</p>
+ * <p/>
+ * <p>All the public methods must be called from the main thread.</p>
+ *
+ * @param <T> the type of the results
+ */
+public class QueryExecutor<T> {
+
+    /**
+     * Receives the outcome of the latest query on the main thread.
+     */
+    public interface Callback<T> {
+
+        void onResults(String query, List<T> results);
+
+        void onError(String query, Exception error);
+    }
+
+    /**
+     * A {@link Callback} that also receives the batches of a
+     * {@link StreamingSearchProvider} before the search is over.
+     */
+    public interface PartialResultsCallback<T> extends Callback<T> {
+
+        /**
+         * Called on the main thread for every batch emitted for the latest
+         * query. {@link #onResults(String, List)} is called with all of them
+         * once the search is over.
+         *
+         * @param query the query the results are for
+         * @param batch the results emitted since the last call
+         */
+        void onPartialResults(String query, List<T> batch);
+    }
+
+    private final SearchProvider<T> mProvider;
+    private final ResultNarrower<T> mNarrower;
+    private final NegativeResultCache mNegativeCache;
+    private final QueryResultCache<T> mResultCache = new QueryResultCache<>();
+    private final ExecutorService mExecutor;
+    private final Executor mMainThread;
+    private final AtomicLong mGeneration = new AtomicLong();
+    private Callback<T> mCallback;
+    private InFlightCounter mInFlightCounter;
+    private SingleFlight mSingleFlight = SingleFlight.getDefault();
+
+    private SingleFlight.Call mInFlight;
+
+    //the last delivered results, the base for incremental providers
+    private String mLastQuery;
+    private List<T> mLastResults;
+    //the data version of the provider the cached results were found with
+    private long mDataVersion;
+
+    public QueryExecutor(@NonNull SearchProvider<T> provider) {
+        this(provider, SearchExecutors.searchExecutor());
+    }
+
+    public QueryExecutor(@NonNull SearchProvider<T> provider, @NonNull ExecutorService executor) {
+        this(provider, executor, SearchExecutors.mainThreadExecutor());
+    }
+
+    //the tests run the callbacks without a main thread
+    QueryExecutor(SearchProvider<T> provider, ExecutorService executor, Executor mainThread) {
+        mProvider = provider;
+        mExecutor = executor;
+        mMainThread = mainThread;
+        if (provider instanceof NarrowableSearchProvider) {
+            mNarrower = new ResultNarrower<>((NarrowableSearchProvider<T>) provider);
+        } else {
+            mNarrower = null;
+        }
+        mNegativeCache = provider instanceof PrefixSearchProvider ? new NegativeResultCache() : null;
+    }
+
+    public void setCallback(Callback<T> callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the counter that tracks whether this executor has
+     * a query running.
+     */
+    public void setInFlightCounter(InFlightCounter counter) {
+        if (mInFlightCounter != null && isBusy()) {
+            mInFlightCounter.decrement();
+        }
+        mInFlightCounter = counter;
+        if (mInFlightCounter != null && isBusy()) {
+            mInFlightCounter.increment();
+        }
+    }
+
+    /**
+     * Sets the searches that this executor joins instead of searching the
+     * same query again, {@link SingleFlight#getDefault()} by default.
+     *
+     * @param singleFlight the searches to join, or null to never share them
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        mSingleFlight = singleFlight;
+    }
+
+    public SearchProvider<T> getProvider() {
+        return mProvider;
+    }
+
+    /**
+     * @return the cache that is consulted before the provider is searched
+     */
+    public QueryResultCache<T> getResultCache() {
+        return mResultCache;
+    }
+
+    /**
+     * @return the queries known to find nothing, null if the provider is not
+     * a {@link PrefixSearchProvider}
+     */
+    public NegativeResultCache getNegativeResultCache() {
+        return mNegativeCache;
+    }
+
+    /**
+     * Starts a search for the given query, superseding any query that
+     * is still running.
+     * <p/>
+     * <p>If the results of the query are cached, or known to be empty, they
+     * are delivered right away and the provider is not searched.</p>
+     *
+     * @return the generation of the new query
+     */
+    public long submit(@NonNull String query) {
+        return submit(query, QueryResultCache.normalize(query));
+    }
+
+    /**
+     * Same as {@link #submit(String)}, for a query that was already
+     * normalized with {@link QueryNormalizer}.
+     *
+     * @param query           the query, as passed to the provider
+     * @param normalizedQuery the normalized query, the key of the result cache
+     * @return the generation of the new query
+     */
+    public long submit(@NonNull final String query, @NonNull final String normalizedQuery) {
+        final long dataVersion = mProvider instanceof VersionedSearchProvider
+                ? ((VersionedSearchProvider<T>) mProvider).getDataVersion() : 0;
+        if (dataVersion != mDataVersion) {
+            //the narrower and the negative cache check the version themselves
+            mDataVersion = dataVersion;
+            mResultCache.clear();
+            mLastQuery = null;
+            mLastResults = null;
+        }
+        List<T> cached = mResultCache.get(normalizedQuery);
+        if (cached != null) {
+            cancel();
+            deliver(query, cached, null);
+            return mGeneration.get();
+        }
+        if (mNegativeCache != null && mNegativeCache.isKnownEmpty(normalizedQuery, dataVersion)) {
+            cancel();
+            deliver(query, Collections.<T>emptyList(), null);
+            return mGeneration.get();
+        }
+
+        final long generation = mGeneration.incrementAndGet();
+        boolean wasBusy = isBusy();
+        cancelInFlight();
+
+        final String previousQuery = mLastQuery;
+        final List<T> previousResults = mLastResults;
+        SingleFlight.Search<T> search = new SingleFlight.Search<T>() {
+            @Override
+            public List<T> search(CancellationSignal signal) throws Exception {
+                List<T> results = runProvider(previousQuery, previousResults, query, dataVersion, signal,
+                        new PostingResultSink(generation, query));
+                if (mNegativeCache != null && results.isEmpty() && !signal.isCanceled()
+                        && ((PrefixSearchProvider<T>) mProvider).isPrefixClosed(normalizedQuery)) {
+                    mNegativeCache.put(normalizedQuery, dataVersion);
+                }
+                return results;
+            }
+        };
+        SingleFlight.Listener<T> listener = new SingleFlight.Listener<T>() {
+            @Override
+            public void onComplete(List<T> results, Exception error) {
+                if (isStale(generation)) {
+                    return;
+                }
+                postOutcome(generation, query, normalizedQuery, results, error);
+            }
+        };
+        mInFlight = mSingleFlight != null
+                ? mSingleFlight.join(mProvider, normalizedQuery, dataVersion, search, mExecutor, listener)
+                : SingleFlight.run(search, mExecutor, listener);
+        if (!wasBusy && mInFlightCounter != null) {
+            mInFlightCounter.increment();
+        }
+        return generation;
+    }
+
+    /**
+     * Cancels the running query, if any. Its results will not be delivered.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        boolean wasBusy = isBusy();
+        cancelInFlight();
+        if (wasBusy && mInFlightCounter != null) {
+            mInFlightCounter.decrement();
+        }
+    }
+
+    /**
+     * Cancels the running query and forgets the cached and previous results,
+     * for example because the data or the scope of the provider changed.
+     * The next query is searched from scratch.
+     */
+    public void invalidate() {
+        cancel();
+        //the searches of other executors that are running may be stale as well
+        if (mSingleFlight != null) {
+            mSingleFlight.invalidate(mProvider);
+        }
+        mResultCache.clear();
+        if (mNarrower != null) {
+            mNarrower.clear();
+        }
+        if (mNegativeCache != null) {
+            mNegativeCache.clear();
+        }
+        mLastQuery = null;
+        mLastResults = null;
+    }
+
+    /**
+     * @return true if a query was submitted and its outcome has not been delivered yet
+     */
+    public boolean isBusy() {
+        return mInFlight != null;
+    }
+
+    private List<T> runProvider(String previousQuery, List<T> previousResults, String query, long dataVersion,
+                                CancellationSignal signal, PostingResultSink sink) throws Exception {
+        if (mNarrower != null) {
+            List<T> narrowed = mNarrower.lookup(query, dataVersion, signal);
+            if (narrowed != null) {
+                return narrowed;
+            }
+        }
+        if (mProvider instanceof IncrementalSearchProvider && previousResults != null) {
+            IncrementalSearchProvider<T> provider = (IncrementalSearchProvider<T>) mProvider;
+            List<T> refined = provider.refine(previousQuery, previousResults,
+                    QueryEdit.between(previousQuery, query), query, signal);
+            if (refined != null) {
+                return refined;
+            }
+        }
+        List<T> results;
+        if (mProvider instanceof StreamingSearchProvider) {
+            ((StreamingSearchProvider<T>) mProvider).search(query, sink, signal);
+            results = sink.mResults;
+        } else {
+            results = mProvider.search(query, signal);
+        }
+        //a cancelled search may have been invalidated, it must not be narrowed later
+        if (mNarrower != null && !signal.isCanceled()) {
+            results = mNarrower.put(query, results, dataVersion);
+        }
+        return results;
+    }
+
+    private boolean isStale(long generation) {
+        return generation != mGeneration.get();
+    }
+
+    //the search itself is only cancelled if no other executor joined it
+    private void cancelInFlight() {
+        if (mInFlight != null) {
+            mInFlight.cancel();
+            mInFlight = null;
+        }
+    }
+
+    private void postOutcome(final long generation, final String query, final String normalizedQuery,
+                             final List<T> results, final Exception error) {
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                //a newer query may have been submitted while this was queued
+                if (isStale(generation)) {
+                    return;
+                }
+                mInFlight = null;
+                if (mInFlightCounter != null) {
+                    mInFlightCounter.decrement();
+                }
+                if (error == null) {
+                    mResultCache.put(normalizedQuery, results);
+                }
+                deliver(query, results, error);
+            }
+        });
+    }
+
+    //collects the batches of a streaming provider and posts them as they come
+    private final class PostingResultSink implements ResultSink<T> {
+
+        private final long mSinkGeneration;
+        private final String mQuery;
+        final List<T> mResults = new ArrayList<>();
+
+        PostingResultSink(long generation, String query) {
+            mSinkGeneration = generation;
+            mQuery = query;
+        }
+
+        @Override
+        public void emit(@NonNull List<? extends T> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            //the results are kept for the executors that joined the search
+            final List<T> copy = new ArrayList<>(batch);
+            mResults.addAll(copy);
+            if (isStale(mSinkGeneration) || !(mCallback instanceof PartialResultsCallback)) {
+                return;
+            }
+            mMainThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isStale(mSinkGeneration) || !(mCallback instanceof PartialResultsCallback)) {
+                        return;
+                    }
+                    ((PartialResultsCallback<T>) mCallback).onPartialResults(mQuery, copy);
+                }
+            });
+        }
+    }
+
+    private void deliver(String query, List<T> results, Exception error) {
+        if (error == null) {
+            mLastQuery = query;
+            mLastResults = results;
+        }
+        if (mCallback == null) {
+            return;
+        }
+        if (error != null) {
+            mCallback.onError(query, error);
+        } else {
+            mCallback.onResults(query, results);
+        }
+    }
+}
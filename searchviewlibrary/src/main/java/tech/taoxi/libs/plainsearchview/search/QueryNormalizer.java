@@ -0,0 +1,143 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns a query into a normalized key: compatibility decomposed, without
+ * diacritics, lower cased, trimmed and with runs of whitespace collapsed
+ * into a single space. "  Caf&eacute;  Cr&egrave;me " becomes "cafe creme".
+ * <p/>
+ * <p>Plain ASCII queries, the common case, are normalized in a single pass
+ * without going through {@link Normalizer}. The keys of the other queries
+ * are kept in a small cache, so that normalizing the same query again, for
+ * example from every provider, is a lookup.</p>
+ * <p/>
+ * <p>Instances are thread safe.</p>
+ */
+public class QueryNormalizer {
+
+    public final static int DEFAULT_CACHE_SIZE = 32;
+
+    private static volatile QueryNormalizer sDefault;
+
+    private final Map<String, String> mCache;
+
+    /**
+     * @return the instance shared by the search view and the providers,
+     * so that they share its cache
+     */
+    public static QueryNormalizer getDefault() {
+        if (sDefault == null) {
+            synchronized (QueryNormalizer.class) {
+                if (sDefault == null) {
+                    sDefault = new QueryNormalizer(DEFAULT_CACHE_SIZE);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    public QueryNormalizer(final int cacheSize) {
+        mCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the normalized key of the query
+     */
+    @NonNull
+    public String normalize(@NonNull CharSequence query) {
+        if (isAscii(query)) {
+            return normalizeAscii(query);
+        }
+        String text = query.toString();
+        synchronized (mCache) {
+            String cached = mCache.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String normalized = normalizeUnicode(text);
+        synchronized (mCache) {
+            mCache.put(text, normalized);
+        }
+        return normalized;
+    }
+
+    private static boolean isAscii(CharSequence text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeAscii(CharSequence query) {
+        final int length = query.length();
+        char[] chars = new char[length];
+        int count = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (c <= ' ') {
+                pendingSpace = count > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                chars[count++] = ' ';
+                pendingSpace = false;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            chars[count++] = c;
+        }
+        if (query instanceof String && count == length && sameChars(chars, query)) {
+            return (String) query;
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static boolean sameChars(char[] chars, CharSequence text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            if (chars[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeUnicode(String query) {
+        String decomposed = Normalizer.normalize(query, Normalizer.Form.NFKD);
+        StringBuilder builder = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0, length = decomposed.length(); i < length; ) {
+            int codePoint = decomposed.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isWhitespace(codePoint) || Character.isSpaceChar(codePoint)) {
+                pendingSpace = builder.length() > 0;
+                continue;
+            }
+            int type = Character.getType(codePoint);
+            if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                    || type == Character.COMBINING_SPACING_MARK) {
+                continue;
+            }
+            if (pendingSpace) {
+                builder.append(' ');
+                pendingSpace = false;
+            }
+            builder.appendCodePoint(Character.toLowerCase(codePoint));
+        }
+        return builder.toString();
+    }
+}
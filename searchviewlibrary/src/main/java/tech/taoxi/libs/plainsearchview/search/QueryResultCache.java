@@ -0,0 +1,200 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A least recently used cache of result lists, keyed by normalized query and
+ * bounded by an approximate size in bytes rather than by entry count.
+ * <p/>
+ * <p>The budget shrinks when the system asks the app to trim memory, see
+ * {@link #onTrimMemory(int)}. Must only be used from the main thread.</p>
+ *
+ * @param <T> the type of the results
+ */
+public class QueryResultCache<T> {
+
+    public final static int DEFAULT_MAX_BYTES = 512 * 1024;
+
+    /**
+     * Estimates the memory retained by a single result.
+     */
+    public interface Sizer<T> {
+
+        /**
+         * @return the approximate size of the result in bytes
+         */
+        int sizeOf(@NonNull T result);
+    }
+
+    //rough sizes of a HashMap entry, a list and a reference on ART
+    private final static int ENTRY_OVERHEAD_BYTES = 64;
+    private final static int REFERENCE_BYTES = 4;
+    private final static int OBJECT_OVERHEAD_BYTES = 16;
+
+    private final LinkedHashMap<String, CacheEntry<T>> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final Sizer<T> mSizer;
+    private final int mBaseMaxBytes;
+    private int mMaxBytes;
+    private int mSizeBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private static class CacheEntry<T> {
+
+        final List<T> results;
+        final int sizeBytes;
+
+        CacheEntry(List<T> results, int sizeBytes) {
+            this.results = results;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    public QueryResultCache() {
+        this(DEFAULT_MAX_BYTES, null);
+    }
+
+    /**
+     * @param maxBytes the budget of the cache
+     * @param sizer    estimates the size of a result, or null to estimate
+     *                 strings by their length and anything else as a small object
+     */
+    public QueryResultCache(int maxBytes, @Nullable Sizer<T> sizer) {
+        mBaseMaxBytes = maxBytes;
+        mMaxBytes = maxBytes;
+        mSizer = sizer;
+    }
+
+    /**
+     * Turns a query into the key used by the cache.
+     *
+     * @see QueryNormalizer
+     */
+    public static String normalize(@NonNull String query) {
+        return QueryNormalizer.getDefault().normalize(query);
+    }
+
+    /**
+     * @return the cached results for the key, or null on a miss
+     */
+    @Nullable
+    public List<T> get(@NonNull String key) {
+        CacheEntry<T> entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.results;
+    }
+
+    public void put(@NonNull String key, @NonNull List<T> results) {
+        int sizeBytes = sizeOf(key, results);
+        CacheEntry<T> previous = mEntries.remove(key);
+        if (previous != null) {
+            mSizeBytes -= previous.sizeBytes;
+        }
+        if (sizeBytes > mMaxBytes) {
+            //would evict everything else and still not fit
+            return;
+        }
+        mEntries.put(key, new CacheEntry<>(results, sizeBytes));
+        mSizeBytes += sizeBytes;
+        trimToSize(mMaxBytes);
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mSizeBytes = 0;
+    }
+
+    /**
+     * Shrinks the budget according to the given trim level. Pass the
+     * level received by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            setMaxBytes(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            setMaxBytes(Math.min(mMaxBytes, mBaseMaxBytes / 4));
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            setMaxBytes(Math.min(mMaxBytes, mBaseMaxBytes / 2));
+        }
+    }
+
+    /**
+     * Restores the budget the cache was created with, after it was
+     * shrunk by {@link #onTrimMemory(int)}.
+     */
+    public void restoreMaxBytes() {
+        mMaxBytes = mBaseMaxBytes;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+        trimToSize(mMaxBytes);
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimToSize(int maxBytes) {
+        Iterator<CacheEntry<T>> it = mEntries.values().iterator();
+        while (mSizeBytes > maxBytes && it.hasNext()) {
+            CacheEntry<T> eldest = it.next();
+            it.remove();
+            mSizeBytes -= eldest.sizeBytes;
+            mEvictionCount++;
+        }
+    }
+
+    private int sizeOf(String key, List<T> results) {
+        int size = ENTRY_OVERHEAD_BYTES + key.length() * 2;
+        for (int i = 0, count = results.size(); i < count; i++) {
+            T result = results.get(i);
+            size += REFERENCE_BYTES;
+            if (mSizer != null) {
+                size += mSizer.sizeOf(result);
+            } else if (result instanceof CharSequence) {
+                size += OBJECT_OVERHEAD_BYTES + ((CharSequence) result).length() * 2;
+            } else {
+                size += OBJECT_OVERHEAD_BYTES;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "QueryResultCache[size=%d/%d bytes, entries=%d, hits=%d, misses=%d, evictions=%d]",
+                mSizeBytes, mMaxBytes, mEntries.size(), mHitCount, mMissCount, mEvictionCount);
+    }
+}
@@ -0,0 +1,145 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last few result sets of a {@link NarrowableSearchProvider} and
+ * answers queries that extend one of them by filtering its results.
+ * <p/>
+ * <p>When the query shrinks, for example on backspace, the result set of the
+ * shorter query is usually still cached and is returned as is. Safe to use
+ * from any thread.</p>
+ * <p/>
+ * <p>Empty result sets are never narrowed, as providers usually return
+ * nothing for the empty query, or for a query they can't search yet, rather
+ * than all of their matches. The queries that extend one that truly found
+ * nothing are skipped by a {@link NegativeResultCache} instead, if the
+ * provider is a {@link PrefixSearchProvider}.</p>
+ * <p/>
+ * <p>The result sets are kept for a data version of the provider, see
+ * {@link VersionedSearchProvider}: they are all forgotten when it changes,
+ * and the ones found with another version are not kept.</p>
+ *
+ * @param <T> the type of the results
+ */
+public class ResultNarrower<T> {
+
+    public final static int DEFAULT_MAX_RESULT_SETS = 8;
+
+    private final static int CANCELLATION_CHECK_INTERVAL = 256;
+
+    private final NarrowableSearchProvider<T> mProvider;
+    private final LinkedHashMap<String, List<T>> mResultSets;
+    //the data version of the result sets, guarded by mResultSets
+    private long mVersion;
+
+    public ResultNarrower(@NonNull NarrowableSearchProvider<T> provider) {
+        this(provider, DEFAULT_MAX_RESULT_SETS);
+    }
+
+    public ResultNarrower(@NonNull NarrowableSearchProvider<T> provider, final int maxResultSets) {
+        mProvider = provider;
+        mResultSets = new LinkedHashMap<String, List<T>>(maxResultSets, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<T>> eldest) {
+                return size() > maxResultSets;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #lookup(String, long, CancellationSignal)}, for a
+     * provider whose data never changes.
+     */
+    @Nullable
+    public List<T> lookup(@NonNull String query, @NonNull CancellationSignal signal) {
+        return lookup(query, 0, signal);
+    }
+
+    /**
+     * Returns the results for the query if they can be derived from a
+     * cached result set, either directly or by narrowing the results of
+     * the longest cached prefix.
+     *
+     * @param dataVersion the data version of the provider
+     * @return the results, or null if the provider has to be searched
+     */
+    @Nullable
+    public List<T> lookup(@NonNull String query, long dataVersion, @NonNull CancellationSignal signal) {
+        List<T> base = null;
+        String baseQuery = null;
+        synchronized (mResultSets) {
+            if (dataVersion != mVersion) {
+                mResultSets.clear();
+                mVersion = dataVersion;
+                return null;
+            }
+            List<T> exact = mResultSets.get(query);
+            if (exact != null) {
+                return exact;
+            }
+            for (Map.Entry<String, List<T>> entry : mResultSets.entrySet()) {
+                String key = entry.getKey();
+                if (key.length() > 0 && !entry.getValue().isEmpty() && query.startsWith(key)
+                        && (baseQuery == null || key.length() > baseQuery.length())) {
+                    baseQuery = key;
+                    base = entry.getValue();
+                }
+            }
+        }
+        if (base == null) {
+            return null;
+        }
+
+        List<T> narrowed = new ArrayList<>();
+        for (int i = 0, size = base.size(); i < size; i++) {
+            if (i % CANCELLATION_CHECK_INTERVAL == 0) {
+                signal.throwIfCanceled();
+            }
+            T result = base.get(i);
+            if (mProvider.matches(query, result)) {
+                narrowed.add(result);
+            }
+        }
+        return put(query, narrowed, dataVersion);
+    }
+
+    /**
+     * Same as {@link #put(String, List, long)}, for a provider whose data
+     * never changes.
+     */
+    public List<T> put(@NonNull String query, @NonNull List<T> results) {
+        return put(query, results, 0);
+    }
+
+    /**
+     * Stores the complete results of a query.
+     *
+     * @param dataVersion the data version of the provider when the query was
+     *                    searched, the results are not stored if it changed since
+     * @return the unmodifiable results
+     */
+    public List<T> put(@NonNull String query, @NonNull List<T> results, long dataVersion) {
+        List<T> stored = Collections.unmodifiableList(results);
+        synchronized (mResultSets) {
+            if (dataVersion == mVersion) {
+                mResultSets.put(query, stored);
+            }
+        }
+        return stored;
+    }
+
+    public void clear() {
+        synchronized (mResultSets) {
+            mResultSets.clear();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Receives the results of a {@link StreamingSearchProvider} in batches.
+ *
+ * @param <T> the type of the results
+ */
+public interface ResultSink<T> {
+
+    /**
+     * Emits a batch of results. Can be called any number of times from the
+     * thread running the search, each batch follows the previous ones.
+     *
+     * @param batch the results, the sink keeps a copy so the list can be reused
+     */
+    void emit(@NonNull List<? extends T> batch);
+}
@@ -0,0 +1,109 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the background executor that is shared by all the search views
+ * of the process, and the executor that posts the outcome of the searches
+ * to the main thread.
+ */
+public final class SearchExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile ExecutorService sSearchExecutor;
+    private static volatile Executor sMainThreadExecutor;
+
+    private SearchExecutors() {
+    }
+
+    /**
+     * Returns the shared executor used to run search providers. It is
+     * created on first use, and its threads time out when idle.
+     */
+    public static ExecutorService searchExecutor() {
+        if (sSearchExecutor == null) {
+            synchronized (SearchExecutors.class) {
+                if (sSearchExecutor == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new BackgroundThreadFactory("PlainSearchView-search"));
+                    executor.allowCoreThreadTimeOut(true);
+                    sSearchExecutor = executor;
+                }
+            }
+        }
+        return sSearchExecutor;
+    }
+
+    /**
+     * Returns an executor that posts its tasks to the main thread.
+     */
+    public static Executor mainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            synchronized (SearchExecutors.class) {
+                if (sMainThreadExecutor == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    sMainThreadExecutor = new Executor() {
+                        @Override
+                        public void execute(@NonNull Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+            }
+        }
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * Creates a new executor that runs its tasks one at a time, in
+     * submission order, on a background thread. The thread times out
+     * when idle.
+     *
+     * @param name the name of the thread
+     */
+    public static ExecutorService newSerialExecutor(String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String mNamePrefix;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        BackgroundThreadFactory(String namePrefix) {
+            mNamePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, mNamePrefix + "-" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * A source of search results that {@link tech.taoxi.libs.plainsearchview.PlainSearchView}
+ * queries on a background thread whenever the query changes.
+ *
+ * @param <T> the type of the results
+ */
+public interface SearchProvider<T> {
+
+    /**
+     * Runs a search for the given query. This is called on a background
+     * thread.
+     * <p/>
+     * <p>When the user moves on to another query, the cancellation signal is
+     * cancelled and the thread is interrupted. Long running providers should check
+     * {@link CancellationSignal#isCanceled()} or
+     * {@link CancellationSignal#throwIfCanceled()} periodically, or pass the
+     * signal on to the APIs that accept one.</p>
+     *
+     * @param query              the query to search for
+     * @param cancellationSignal signal for the current query
+     * @return the results, never null
+     * @throws Exception if the search failed
+     */
+    @NonNull
+    List<T> search(@NonNull String query, @NonNull CancellationSignal cancellationSignal) throws Exception;
+}
@@ -0,0 +1,294 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * De-duplicates the searches that run at the same time: the
+ * {@link QueryExecutor}s that search the same normalized query with the same
+ * provider join a single search, and all receive its results.
+ * <p/>
+ * <p>Every executor that joins a search holds a reference to it. An executor
+ * that moves on to another query only gives up its reference, the search is
+ * cancelled and interrupted when the last one is given up.</p>
+ * <p/>
+ * <p>A search is only joined with the same data version of the provider,
+ * and never after the provider was invalidated, see
+ * {@link #invalidate(SearchProvider)}: the searches started before could
+ * find stale results.</p>
+ * <p/>
+ * <p>The batches of a {@link StreamingSearchProvider} are only posted to the
+ * executor that started the search, the others receive the results once it
+ * is over.</p>
+ * <p/>
+ * <p>Instances are thread safe.</p>
+ */
+public final class SingleFlight {
+
+    private final static SingleFlight sDefault = new SingleFlight();
+
+    //the searches that are running, guarded by this
+    private final Map<Key, Flight<?>> mFlights = new HashMap<>();
+
+    /**
+     * @return the instance shared by all the executors of the process, so
+     * that search views that share a provider share its searches
+     */
+    public static SingleFlight getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Runs a search on the worker thread, with the signal shared by all the
+     * executors that joined it.
+     */
+    interface Search<T> {
+
+        List<T> search(CancellationSignal signal) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of a search on the worker thread, unless the
+     * reference to it was given up before.
+     */
+    interface Listener<T> {
+
+        void onComplete(List<T> results, Exception error);
+    }
+
+    /**
+     * A reference to a search.
+     */
+    interface Call {
+
+        /**
+         * Gives up the reference: the listener is not called anymore, and the
+         * search is cancelled if it was the last reference.
+         */
+        void cancel();
+    }
+
+    /**
+     * Joins the search of a query that is running, or starts it.
+     *
+     * @param provider        the provider to search
+     * @param normalizedQuery the query, normalized with {@link QueryNormalizer}
+     * @param dataVersion     the data version of the provider, see
+     *                        {@link VersionedSearchProvider#getDataVersion()}
+     * @param search          runs the search, if it is not running yet
+     * @param executor        runs the search, if it is not running yet
+     * @param listener        receives the outcome of the search
+     */
+    <T> Call join(SearchProvider<T> provider, String normalizedQuery, long dataVersion, Search<T> search,
+                  ExecutorService executor, Listener<T> listener) {
+        Key key = new Key(provider, normalizedQuery, dataVersion);
+        Flight<T> flight;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Flight<T> running = (Flight<T>) mFlights.get(key);
+            if (running != null) {
+                return running.join(listener);
+            }
+            flight = new Flight<>(this, key, search);
+            mFlights.put(key, flight);
+        }
+        return flight.start(executor, listener);
+    }
+
+    /**
+     * Stops the searches of a provider that are running from being joined,
+     * for example because its data or its scope changed. They still complete
+     * for the executors that joined them.
+     */
+    void invalidate(SearchProvider<?> provider) {
+        synchronized (this) {
+            Iterator<Key> keys = mFlights.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().mProvider == provider) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a search that no other executor can join.
+     */
+    static <T> Call run(Search<T> search, ExecutorService executor, Listener<T> listener) {
+        return new Flight<>(null, null, search).start(executor, listener);
+    }
+
+    private static final class Key {
+
+        private final SearchProvider<?> mProvider;
+        private final String mQuery;
+        private final long mDataVersion;
+
+        Key(SearchProvider<?> provider, String query, long dataVersion) {
+            mProvider = provider;
+            mQuery = query;
+            mDataVersion = dataVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mProvider == key.mProvider && mDataVersion == key.mDataVersion && mQuery.equals(key.mQuery);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * System.identityHashCode(mProvider) + mQuery.hashCode();
+            return 31 * result + (int) (mDataVersion ^ (mDataVersion >>> 32));
+        }
+    }
+
+    //a running search and the references to it, its state is guarded by the lock
+    private static final class Flight<T> implements Runnable {
+
+        private final Object mLock = new Object();
+        //the registry and key, or null if the search can't be joined
+        private final SingleFlight mOwner;
+        private final Key mKey;
+        private final Search<T> mSearch;
+        private final CancellationSignal mSignal = new CancellationSignal();
+        private final List<FlightCall> mCalls = new ArrayList<>(2);
+        private Future<?> mFuture;
+        private boolean mDone;
+
+        Flight(SingleFlight owner, Key key, Search<T> search) {
+            mOwner = owner;
+            mKey = key;
+            mSearch = search;
+        }
+
+        Call start(ExecutorService executor, Listener<T> listener) {
+            Call call = join(listener);
+            Future<?> future;
+            try {
+                future = executor.submit(this);
+            } catch (RuntimeException e) {
+                unregister();
+                throw e;
+            }
+            synchronized (mLock) {
+                //every reference may already have been given up
+                if (mSignal.isCanceled()) {
+                    future.cancel(true);
+                } else {
+                    mFuture = future;
+                }
+            }
+            return call;
+        }
+
+        Call join(Listener<T> listener) {
+            FlightCall call = new FlightCall(listener);
+            synchronized (mLock) {
+                mCalls.add(call);
+            }
+            return call;
+        }
+
+        @Override
+        public void run() {
+            if (mSignal.isCanceled()) {
+                return;
+            }
+            List<T> results = null;
+            Exception error = null;
+            try {
+                results = mSearch.search(mSignal);
+            } catch (Exception e) {
+                error = e;
+            }
+            //no one can join anymore, the ones that joined get the outcome
+            unregister();
+            List<FlightCall> calls;
+            synchronized (mLock) {
+                mDone = true;
+                if (mSignal.isCanceled()) {
+                    return;
+                }
+                calls = new ArrayList<>(mCalls);
+                mCalls.clear();
+            }
+            for (FlightCall call : calls) {
+                call.mListener.onComplete(results, error);
+            }
+        }
+
+        private void unregister() {
+            if (mOwner == null) {
+                return;
+            }
+            synchronized (mOwner) {
+                if (mOwner.mFlights.get(mKey) == this) {
+                    mOwner.mFlights.remove(mKey);
+                }
+            }
+        }
+
+        private void leave(FlightCall call) {
+            boolean last;
+            synchronized (mLock) {
+                last = mCalls.remove(call) && mCalls.isEmpty() && !mDone;
+            }
+            if (!last) {
+                return;
+            }
+            //joining takes the lock of the owner first, then the one of the flight
+            if (mOwner != null) {
+                synchronized (mOwner) {
+                    synchronized (mLock) {
+                        //someone may have joined meanwhile
+                        if (!mCalls.isEmpty()) {
+                            return;
+                        }
+                        if (mOwner.mFlights.get(mKey) == this) {
+                            mOwner.mFlights.remove(mKey);
+                        }
+                    }
+                }
+            }
+            Future<?> future;
+            synchronized (mLock) {
+                if (!mCalls.isEmpty() || mDone) {
+                    return;
+                }
+                mSignal.cancel();
+                future = mFuture;
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private final class FlightCall implements Call {
+
+            final Listener<T> mListener;
+
+            FlightCall(Listener<T> listener) {
+                mListener = listener;
+            }
+
+            @Override
+            public void cancel() {
+                leave(this);
+            }
+        }
+    }
+}
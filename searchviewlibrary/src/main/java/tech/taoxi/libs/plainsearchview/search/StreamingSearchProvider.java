@@ -0,0 +1,38 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link SearchProvider} that produces its results in batches, for
+ * example while scanning a catalog or reading a streamed response, so they
+ * can be shown before the search is over.
+ * <p/>
+ * <p>{@link #search(String, CancellationSignal)} is still used where the
+ * results are needed at once, it can be implemented with a
+ * {@link CollectingResultSink}:</p>
+ * <pre>
+ * public List&lt;T&gt; search(String query, CancellationSignal signal) throws Exception {
+ *     CollectingResultSink&lt;T&gt; sink = new CollectingResultSink&lt;&gt;();
+ *     search(query, sink, signal);
+ *     return sink.getResults();
+ * }
+ * </pre>
+ *
+ * @param <T> the type of the results
+ */
+public interface StreamingSearchProvider<T> extends SearchProvider<T> {
+
+    /**
+     * Runs a search for the given query, emitting the results to the sink
+     * as they are found. This is called on a background thread, and the
+     * results of the query are all the emitted batches once it returns.
+     *
+     * @param query              the query to search for
+     * @param sink               receives the results
+     * @param cancellationSignal signal for the current query
+     * @throws Exception if the search failed
+     */
+    void search(@NonNull String query, @NonNull ResultSink<T> sink,
+                @NonNull CancellationSignal cancellationSignal) throws Exception;
+}
@@ -0,0 +1,21 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+/**
+ * A {@link SearchProvider} whose data changes, and that tells when it did.
+ * <p/>
+ * <p>The {@link QueryExecutor} forgets the results it cached and the ones
+ * it narrows from when the data version changes, so that a query that was
+ * already searched is searched again.</p>
+ *
+ * @param <T> the type of the results
+ */
+public interface VersionedSearchProvider<T> extends SearchProvider<T> {
+
+    /**
+     * Called on the main thread before every search, so it should be cheap.
+     *
+     * @return a number that changes whenever the results of a query may
+     * have changed, for example after the data was updated
+     */
+    long getDataVersion();
+}
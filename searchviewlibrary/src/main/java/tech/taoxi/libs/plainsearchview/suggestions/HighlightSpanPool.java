@@ -0,0 +1,37 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.graphics.Typeface;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.util.SparseArray;
+
+/**
+ * Shared span objects for highlighting the query in suggestions.
+ * <p/>
+ * <p>Character style spans hold no state of their own, so a single instance
+ * can be set on any number of texts at once. Handing out the same instances
+ * saves allocating new spans for every suggestion that is laid out.</p>
+ */
+final class HighlightSpanPool {
+
+    private final static StyleSpan BOLD = new StyleSpan(Typeface.BOLD);
+    private final static SparseArray<ForegroundColorSpan> sColorSpans = new SparseArray<>();
+
+    private HighlightSpanPool() {
+    }
+
+    static StyleSpan bold() {
+        return BOLD;
+    }
+
+    static ForegroundColorSpan foreground(int color) {
+        synchronized (sColorSpans) {
+            ForegroundColorSpan span = sColorSpans.get(color);
+            if (span == null) {
+                span = new ForegroundColorSpan(color);
+                sColorSpans.put(color, span);
+            }
+            return span;
+        }
+    }
+}
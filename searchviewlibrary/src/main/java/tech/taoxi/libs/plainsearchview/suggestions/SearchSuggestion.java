@@ -0,0 +1,26 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.support.annotation.NonNull;
+
+/**
+ * An item shown in the suggestions section of
+ * {@link tech.taoxi.libs.plainsearchview.PlainSearchView}.
+ */
+public interface SearchSuggestion {
+
+    /**
+     * Returns a key that identifies the suggestion across updates
+     * of the list. Two suggestions with the same key are treated as
+     * the same item, possibly with changed content.
+     *
+     * @return the stable key of the suggestion
+     */
+    @NonNull
+    String getSuggestionKey();
+
+    /**
+     * @return the text shown for the suggestion
+     */
+    @NonNull
+    String getBody();
+}
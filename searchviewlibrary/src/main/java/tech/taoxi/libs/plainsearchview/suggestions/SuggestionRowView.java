@@ -0,0 +1,94 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A suggestion row that draws a text layout taken from a
+ * {@link TextLayoutCache}, instead of measuring and laying out its text
+ * on the main thread like a TextView.
+ */
+public class SuggestionRowView extends View {
+
+    private TextLayoutCache mLayoutCache;
+    private String mText;
+    private int mHighlightStart;
+    private int mHighlightEnd;
+    private Layout mLayout;
+
+    public SuggestionRowView(Context context) {
+        super(context);
+    }
+
+    public SuggestionRowView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public SuggestionRowView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Shows the given text. If the row was measured before, its layout
+     * is taken from the cache right away.
+     */
+    public void bind(TextLayoutCache layoutCache, String text, int highlightStart, int highlightEnd) {
+        mLayoutCache = layoutCache;
+        mText = text;
+        mHighlightStart = highlightStart;
+        mHighlightEnd = highlightEnd;
+        setContentDescription(text);
+
+        int oldHeight = mLayout != null ? mLayout.getHeight() : -1;
+        mLayout = null;
+        if (getWidth() > 0) {
+            resolveLayout(getWidth());
+        }
+        if (mLayout == null || mLayout.getHeight() != oldHeight) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        resolveLayout(width);
+        int textHeight = mLayout != null ? mLayout.getHeight() : 0;
+        int height = Math.max(getSuggestedMinimumHeight(), getPaddingTop() + textHeight + getPaddingBottom());
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    private void resolveLayout(int width) {
+        if (mLayoutCache == null || mText == null) {
+            return;
+        }
+        int contentWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+        if (mLayout != null && mLayout.getWidth() == contentWidth) {
+            return;
+        }
+        mLayoutCache.setWidth(contentWidth);
+        mLayout = mLayoutCache.getLayout(mText, mHighlightStart, mHighlightEnd, contentWidth);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mLayout == null) {
+            return;
+        }
+        int top = getPaddingTop();
+        int available = getHeight() - top - getPaddingBottom();
+        canvas.save();
+        canvas.translate(getPaddingLeft(), top + (available - mLayout.getHeight()) / 2);
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+}
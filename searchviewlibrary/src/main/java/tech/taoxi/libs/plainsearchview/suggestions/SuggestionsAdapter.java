@@ -0,0 +1,254 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.recyclerview.extensions.AsyncListDiffer;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tech.taoxi.libs.plainsearchview.R;
+import tech.taoxi.libs.plainsearchview.search.SearchExecutors;
+
+/**
+ * Adapter for the suggestions section.
+ * <p/>
+ * <p>New lists are diffed against the current one on a background thread,
+ * and only the items that actually changed are dispatched to the
+ * RecyclerView, so updating a long list does not rebind every row on
+ * the main thread.</p>
+ * <p/>
+ * <p>Before a list is diffed, the text layouts of its first rows, with the
+ * query highlighted, are built on a background thread into a
+ * {@link TextLayoutCache}, so that binding a row only has to look its layout
+ * up.</p>
+ */
+public class SuggestionsAdapter extends RecyclerView.Adapter<SuggestionsAdapter.ViewHolder> {
+
+    //about a screen of rows
+    private final static int PREFETCH_ROWS = 16;
+
+    public interface OnItemClickListener {
+
+        void onItemClicked(SearchSuggestion suggestion);
+    }
+
+    //a suggestion with the range of its body that matches the query
+    private static final class Row {
+
+        final SearchSuggestion suggestion;
+        final String body;
+        final int highlightStart;
+        final int highlightEnd;
+
+        Row(SearchSuggestion suggestion, String query) {
+            this.suggestion = suggestion;
+            this.body = suggestion.getBody();
+            int start = indexOfIgnoreCase(body, query);
+            this.highlightStart = Math.max(start, 0);
+            this.highlightEnd = start >= 0 ? start + query.length() : 0;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Row> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Row>() {
+                @Override
+                public boolean areItemsTheSame(Row oldItem, Row newItem) {
+                    return oldItem.suggestion.getSuggestionKey().equals(newItem.suggestion.getSuggestionKey());
+                }
+
+                @Override
+                public boolean areContentsTheSame(Row oldItem, Row newItem) {
+                    return oldItem.body.equals(newItem.body)
+                            && oldItem.highlightStart == newItem.highlightStart
+                            && oldItem.highlightEnd == newItem.highlightEnd;
+                }
+            };
+
+    private final AsyncListDiffer<Row> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mSubmitGeneration = new AtomicInteger();
+    private final TextLayoutCache mLayoutCache;
+    private OnItemClickListener mOnItemClickListener;
+
+    private final List<SearchSuggestion> mCurrentSuggestions = new AbstractList<SearchSuggestion>() {
+        @Override
+        public SearchSuggestion get(int index) {
+            return mDiffer.getCurrentList().get(index).suggestion;
+        }
+
+        @Override
+        public int size() {
+            return mDiffer.getCurrentList().size();
+        }
+    };
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+
+        final SuggestionRowView body;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            body = itemView.findViewById(R.id.suggestion_body);
+        }
+    }
+
+    public SuggestionsAdapter(Context context) {
+        mLayoutCache = new TextLayoutCache(new TextLayoutCache.Style(
+                context.getResources().getDimension(R.dimen.search_bar_text_size),
+                ContextCompat.getColor(context, R.color.dark_gray), null, 0));
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    /**
+     * @param color the text color, -1 keeps the default one
+     */
+    public void setTextColor(int color) {
+        if (color == -1) {
+            return;
+        }
+        TextLayoutCache.Style style = mLayoutCache.getStyle();
+        setStyle(new TextLayoutCache.Style(style.getTextSize(), color, style.paint.getTypeface(),
+                style.getHighlightColor()));
+    }
+
+    /**
+     * Sets the color of the part of the suggestions that matches the
+     * query, or 0 to only make it bold.
+     */
+    public void setHighlightColor(int color) {
+        TextLayoutCache.Style style = mLayoutCache.getStyle();
+        setStyle(new TextLayoutCache.Style(style.getTextSize(), style.getTextColor(), style.paint.getTypeface(),
+                color));
+    }
+
+    private void setStyle(TextLayoutCache.Style style) {
+        mLayoutCache.setStyle(style);
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    public TextLayoutCache getLayoutCache() {
+        return mLayoutCache;
+    }
+
+    /**
+     * Replaces the suggestions, without highlighting.
+     *
+     * @see #submitList(List, CharSequence)
+     */
+    public void submitList(List<SearchSuggestion> suggestions) {
+        submitList(suggestions, null);
+    }
+
+    /**
+     * Replaces the suggestions. The list is diffed in the background and
+     * must not be modified afterwards.
+     *
+     * @param suggestions    the new suggestions
+     * @param highlightQuery the query whose first match in each suggestion is
+     *                       highlighted, or null
+     */
+    public void submitList(List<SearchSuggestion> suggestions, CharSequence highlightQuery) {
+        final int generation = mSubmitGeneration.incrementAndGet();
+        if (suggestions == null) {
+            mDiffer.submitList(null);
+            return;
+        }
+
+        String query = highlightQuery != null ? highlightQuery.toString().trim() : "";
+        final List<Row> rows = new ArrayList<>(suggestions.size());
+        for (SearchSuggestion suggestion : suggestions) {
+            rows.add(new Row(suggestion, query));
+        }
+        final int width = mLayoutCache.getWidth();
+        if (width <= 0 || rows.isEmpty()) {
+            //no row was measured yet, so there is no width to build layouts for
+            mDiffer.submitList(rows);
+            return;
+        }
+
+        SearchExecutors.searchExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                int count = Math.min(rows.size(), PREFETCH_ROWS);
+                for (int i = 0; i < count; i++) {
+                    if (generation != mSubmitGeneration.get()) {
+                        return;
+                    }
+                    Row row = rows.get(i);
+                    mLayoutCache.getLayout(row.body, row.highlightStart, row.highlightEnd, width);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mSubmitGeneration.get()) {
+                            mDiffer.submitList(rows);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the suggestions that are currently shown
+     */
+    public List<SearchSuggestion> getCurrentList() {
+        return mCurrentSuggestions;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.suggestion_item_layout, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                    mOnItemClickListener.onItemClicked(mDiffer.getCurrentList().get(position).suggestion);
+                }
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Row row = mDiffer.getCurrentList().get(position);
+        holder.body.bind(mLayoutCache, row.body, row.highlightStart, row.highlightEnd);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
+    }
+
+    private static int indexOfIgnoreCase(String text, String query) {
+        int length = query.length();
+        if (length == 0) {
+            return -1;
+        }
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            if (text.regionMatches(true, i, query, 0, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
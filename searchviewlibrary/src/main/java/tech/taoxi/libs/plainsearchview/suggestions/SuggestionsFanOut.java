@@ -0,0 +1,382 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tech.taoxi.libs.plainsearchview.search.InFlightCounter;
+import tech.taoxi.libs.plainsearchview.search.QueryExecutor;
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+import tech.taoxi.libs.plainsearchview.search.SearchProvider;
+import tech.taoxi.libs.plainsearchview.util.FrameBudgetApplier;
+
+/**
+ * Searches several suggestion providers in parallel and merges their
+ * results into one list.
+ * <p/>
+ * <p>Every provider runs in its own {@link QueryExecutor} on the shared search
+ * executor, so each one keeps its own cache and cancellation. The merged list is
+ * delivered as providers answer, so a slow provider never holds back the others.
+ * A provider that has not answered by its deadline is cancelled and left out of
+ * the results of that query.</p>
+ * <p/>
+ * <p>The list is ranked by provider, in the order they were added, and keeps
+ * the order of each provider's results. A suggestion whose
+ * {@link SearchSuggestion#getSuggestionKey() key} is also suggested by an
+ * earlier provider is dropped.</p>
+ * <p/>
+ * <p>Results, including the batches of a
+ * {@link tech.taoxi.libs.plainsearchview.search.StreamingSearchProvider}, are
+ * merged by a {@link FrameBudgetApplier}: a large burst is spread over several
+ * frames, and the merged list is delivered at most once per frame.</p>
+ * <p/>
+ * <p>Must only be used from the main thread.</p>
+ */
+public class SuggestionsFanOut {
+
+    public final static long NO_DEADLINE = 0;
+
+    /**
+     * Receives the merged suggestions on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * @param query       the query the suggestions are for
+         * @param suggestions the merged suggestions
+         * @param complete    true if every provider answered, failed or missed
+         *                    its deadline, false if more suggestions may follow
+         */
+        void onSuggestions(String query, List<SearchSuggestion> suggestions, boolean complete);
+
+        /**
+         * Called when a provider failed. The other providers' suggestions
+         * are still delivered.
+         */
+        void onProviderError(String query, SearchProvider<?> provider, Exception error);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Source<?>> mSources = new ArrayList<>();
+    private final Callback mCallback;
+    private final FrameBudgetApplier mApplier;
+    private InFlightCounter mInFlightCounter;
+
+    //the source each suggested key is shown for
+    private final Map<String, Source<?>> mKeyOwners = new HashMap<>();
+
+    private String mQuery;
+    //false until a provider answered the current query, the previous list is kept until then
+    private boolean mHasFreshResults;
+
+    public SuggestionsFanOut(@NonNull Callback callback) {
+        mCallback = callback;
+        mApplier = new FrameBudgetApplier(new FrameBudgetApplier.Target() {
+            @Override
+            public void onFrameApplied(boolean idle) {
+                deliverMerged();
+            }
+        });
+    }
+
+    /**
+     * Sets the counter that tracks whether a provider is running.
+     */
+    public void setInFlightCounter(InFlightCounter counter) {
+        mInFlightCounter = counter;
+        for (Source<?> source : mSources) {
+            source.executor.setInFlightCounter(counter);
+        }
+    }
+
+    /**
+     * Sets how long merging results may take in a frame.
+     *
+     * @see FrameBudgetApplier#setFrameBudgetNanos(long)
+     */
+    public void setFrameBudgetNanos(long budgetNanos) {
+        mApplier.setFrameBudgetNanos(budgetNanos);
+    }
+
+    /**
+     * Adds a provider after the ones already added.
+     *
+     * @param provider       the provider
+     * @param deadlineMillis how long the provider may take for a query before
+     *                       it is cancelled, or {@link #NO_DEADLINE}
+     */
+    public <T extends SearchSuggestion> void addProvider(@NonNull SearchProvider<T> provider, long deadlineMillis) {
+        Source<T> source = new Source<>(provider, deadlineMillis, mSources.size());
+        source.executor.setInFlightCounter(mInFlightCounter);
+        mSources.add(source);
+    }
+
+    /**
+     * Removes a provider, cancelling its running search.
+     *
+     * @return true if the provider was added before
+     */
+    public boolean removeProvider(SearchProvider<?> provider) {
+        for (int i = 0; i < mSources.size(); i++) {
+            Source<?> source = mSources.get(i);
+            if (source.executor.getProvider() == provider) {
+                source.cancel();
+                release(source);
+                mSources.remove(i);
+                for (int j = i; j < mSources.size(); j++) {
+                    mSources.get(j).rank = j;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the providers, cancelling their running searches.
+     */
+    public void clearProviders() {
+        cancel();
+        mSources.clear();
+        mKeyOwners.clear();
+    }
+
+    public int getProviderCount() {
+        return mSources.size();
+    }
+
+    /**
+     * Searches all the providers for the given query, superseding the
+     * previous one.
+     */
+    public void submit(@NonNull String query) {
+        submit(query, QueryNormalizer.getDefault().normalize(query));
+    }
+
+    /**
+     * Same as {@link #submit(String)}, for a query that was already
+     * normalized with {@link QueryNormalizer}.
+     */
+    public void submit(@NonNull String query, @NonNull String normalizedQuery) {
+        mApplier.clear();
+        mQuery = query;
+        mHasFreshResults = false;
+        //cached results are delivered from submit, so every source is reset first
+        for (Source<?> source : mSources) {
+            source.reset();
+        }
+        for (Source<?> source : mSources) {
+            source.submit(query, normalizedQuery);
+        }
+    }
+
+    /**
+     * Cancels the running searches. The pending results are not delivered.
+     */
+    public void cancel() {
+        mApplier.clear();
+        for (Source<?> source : mSources) {
+            source.cancel();
+        }
+    }
+
+    /**
+     * Cancels the running searches and forgets the cached results of all
+     * the providers, see {@link QueryExecutor#invalidate()}.
+     */
+    public void invalidate() {
+        mApplier.clear();
+        for (Source<?> source : mSources) {
+            source.reset();
+            source.executor.invalidate();
+        }
+    }
+
+    /**
+     * Trims the result caches of all the providers.
+     *
+     * @see tech.taoxi.libs.plainsearchview.search.QueryResultCache#onTrimMemory(int)
+     */
+    public void onTrimMemory(int level) {
+        for (Source<?> source : mSources) {
+            source.executor.getResultCache().onTrimMemory(level);
+        }
+    }
+
+    /**
+     * Gives the result caches of all the providers their full size back.
+     */
+    public void restoreCacheSizes() {
+        for (Source<?> source : mSources) {
+            source.executor.getResultCache().restoreMaxBytes();
+        }
+    }
+
+    private void markFresh() {
+        if (!mHasFreshResults) {
+            //results of the previous query would not match the new one
+            for (Source<?> each : mSources) {
+                release(each);
+            }
+            mHasFreshResults = true;
+        }
+    }
+
+    private void claim(Source<?> source, SearchSuggestion suggestion) {
+        String key = suggestion.getSuggestionKey();
+        Source<?> owner = mKeyOwners.get(key);
+        if (owner != null && owner.rank <= source.rank) {
+            return;
+        }
+        if (owner != null) {
+            //an earlier provider takes the key over
+            owner.removeKey(key);
+        }
+        mKeyOwners.put(key, source);
+        source.shown.add(suggestion);
+    }
+
+    private void release(Source<?> source) {
+        for (SearchSuggestion suggestion : source.shown) {
+            String key = suggestion.getSuggestionKey();
+            if (mKeyOwners.get(key) == source) {
+                mKeyOwners.remove(key);
+            }
+        }
+        source.shown.clear();
+    }
+
+    private void deliverMerged() {
+        int size = 0;
+        boolean complete = true;
+        for (Source<?> source : mSources) {
+            size += source.shown.size();
+            complete &= source.done;
+        }
+        List<SearchSuggestion> merged = new ArrayList<>(size);
+        for (Source<?> source : mSources) {
+            merged.addAll(source.shown);
+        }
+        mCallback.onSuggestions(mQuery, merged, complete);
+    }
+
+    //adds results of a source, replacing its previous ones if replace is set
+    private final class MergeWork implements FrameBudgetApplier.Work {
+
+        private final Source<?> mSource;
+        private final List<? extends SearchSuggestion> mSuggestions;
+        private final boolean mReplace;
+        private final boolean mLast;
+
+        MergeWork(Source<?> source, List<? extends SearchSuggestion> suggestions, boolean replace, boolean last) {
+            mSource = source;
+            mSuggestions = suggestions;
+            mReplace = replace;
+            mLast = last;
+        }
+
+        @Override
+        public int size() {
+            return mSuggestions.size();
+        }
+
+        @Override
+        public void apply(int from, int to) {
+            if (from == 0) {
+                markFresh();
+                if (mReplace) {
+                    release(mSource);
+                }
+            }
+            for (int i = from; i < to; i++) {
+                claim(mSource, mSuggestions.get(i));
+            }
+            if (mLast && to == mSuggestions.size()) {
+                mSource.done = true;
+            }
+        }
+    }
+
+    private final class Source<T extends SearchSuggestion>
+            implements QueryExecutor.PartialResultsCallback<T>, Runnable {
+
+        final QueryExecutor<T> executor;
+        final long deadlineMillis;
+        int rank;
+        //the suggestions of this source that are in the merged list
+        final List<SearchSuggestion> shown = new ArrayList<>();
+        boolean streamed;
+        boolean done;
+
+        Source(SearchProvider<T> provider, long deadlineMillis, int rank) {
+            this.executor = new QueryExecutor<>(provider);
+            this.deadlineMillis = deadlineMillis;
+            this.rank = rank;
+            executor.setCallback(this);
+        }
+
+        void reset() {
+            mMainHandler.removeCallbacks(this);
+            streamed = false;
+            done = false;
+        }
+
+        void submit(String query, String normalizedQuery) {
+            executor.submit(query, normalizedQuery);
+            //cached results were delivered already, there is nothing to wait for
+            if (deadlineMillis > 0 && executor.isBusy()) {
+                mMainHandler.postDelayed(this, deadlineMillis);
+            }
+        }
+
+        void cancel() {
+            mMainHandler.removeCallbacks(this);
+            executor.cancel();
+        }
+
+        void removeKey(String key) {
+            for (int i = 0; i < shown.size(); i++) {
+                if (shown.get(i).getSuggestionKey().equals(key)) {
+                    shown.remove(i);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onPartialResults(String query, List<T> batch) {
+            streamed = true;
+            mApplier.enqueue(new MergeWork(this, batch, false, false));
+        }
+
+        @Override
+        public void onResults(String query, List<T> results) {
+            mMainHandler.removeCallbacks(this);
+            if (streamed) {
+                //the batches are already queued
+                mApplier.enqueue(new MergeWork(this, new ArrayList<T>(0), false, true));
+            } else {
+                mApplier.enqueue(new MergeWork(this, results, true, true));
+            }
+        }
+
+        @Override
+        public void onError(String query, Exception error) {
+            mMainHandler.removeCallbacks(this);
+            mCallback.onProviderError(query, executor.getProvider(), error);
+            mApplier.enqueue(new MergeWork(this, new ArrayList<T>(0), true, true));
+        }
+
+        //the deadline passed, the batches already received are kept
+        @Override
+        public void run() {
+            executor.cancel();
+            mApplier.enqueue(new MergeWork(this, new ArrayList<T>(0), !streamed, true));
+        }
+    }
+}
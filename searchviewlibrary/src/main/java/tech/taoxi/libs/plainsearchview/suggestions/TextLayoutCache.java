@@ -0,0 +1,180 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.v4.util.LruCache;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+/**
+ * Caches the single line layouts of suggestion texts, so that they can be
+ * built on a background thread before the rows showing them are bound.
+ * <p/>
+ * <p>Layouts are keyed by text, highlighted range, width and {@link Style}.
+ * A style and its paint are never modified once created. Measuring and
+ * drawing text mutates the paint it is given though, so every layout is
+ * built with its own copy of the paint of the style: that is what makes it
+ * safe to build layouts on several threads and draw them on the main
+ * thread.</p>
+ */
+public class TextLayoutCache {
+
+    public final static int DEFAULT_MAX_ENTRIES = 128;
+
+    /**
+     * The look of the text, used as part of the cache key.
+     */
+    public static final class Style {
+
+        final TextPaint paint;
+        final int highlightColor;
+
+        /**
+         * @param textSize       the text size in pixels
+         * @param textColor      the text color
+         * @param typeface       the typeface, or null for the default
+         * @param highlightColor the color of the text matching the query, or 0
+         *                       to only make it bold
+         */
+        public Style(float textSize, int textColor, Typeface typeface, int highlightColor) {
+            paint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+            paint.setTextSize(textSize);
+            paint.setColor(textColor);
+            paint.setTypeface(typeface);
+            this.highlightColor = highlightColor;
+        }
+
+        public float getTextSize() {
+            return paint.getTextSize();
+        }
+
+        public int getTextColor() {
+            return paint.getColor();
+        }
+
+        public int getHighlightColor() {
+            return highlightColor;
+        }
+    }
+
+    private static final class Key {
+
+        final Style style;
+        final String text;
+        final int highlightStart;
+        final int highlightEnd;
+        final int width;
+
+        Key(Style style, String text, int highlightStart, int highlightEnd, int width) {
+            this.style = style;
+            this.text = text;
+            this.highlightStart = highlightStart;
+            this.highlightEnd = highlightEnd;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return style == other.style && width == other.width && highlightStart == other.highlightStart
+                    && highlightEnd == other.highlightEnd && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(style);
+            result = 31 * result + text.hashCode();
+            result = 31 * result + highlightStart;
+            result = 31 * result + highlightEnd;
+            return 31 * result + width;
+        }
+    }
+
+    private final LruCache<Key, Layout> mLayouts;
+    private volatile Style mStyle;
+    //the content width of the rows, as last measured
+    private volatile int mWidth;
+
+    public TextLayoutCache(@NonNull Style style) {
+        this(style, DEFAULT_MAX_ENTRIES);
+    }
+
+    public TextLayoutCache(@NonNull Style style, int maxEntries) {
+        mStyle = style;
+        mLayouts = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Sets the style of the layouts built from now on, and drops the
+     * layouts of the previous style.
+     */
+    public void setStyle(@NonNull Style style) {
+        mStyle = style;
+        mLayouts.evictAll();
+    }
+
+    @NonNull
+    public Style getStyle() {
+        return mStyle;
+    }
+
+    /**
+     * @return the width the rows were last measured with, or 0 if no row
+     * was measured yet
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    void setWidth(int width) {
+        mWidth = width;
+    }
+
+    /**
+     * Returns the layout of the given text, building it if it is not cached.
+     * Can be called from any thread.
+     *
+     * @param text           the text
+     * @param highlightStart the start of the highlighted range
+     * @param highlightEnd   the end of the highlighted range, equal to the start for none
+     * @param width          the width available to the text
+     */
+    @NonNull
+    public Layout getLayout(@NonNull String text, int highlightStart, int highlightEnd, int width) {
+        Style style = mStyle;
+        Key key = new Key(style, text, highlightStart, highlightEnd, width);
+        Layout layout = mLayouts.get(key);
+        if (layout == null) {
+            layout = buildLayout(style, text, highlightStart, highlightEnd, width);
+            mLayouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    private static Layout buildLayout(Style style, String text, int highlightStart, int highlightEnd, int width) {
+        CharSequence source = text;
+        if (highlightStart < highlightEnd) {
+            SpannableString spannable = new SpannableString(text);
+            spannable.setSpan(HighlightSpanPool.bold(), highlightStart, highlightEnd,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            if (style.highlightColor != 0) {
+                spannable.setSpan(HighlightSpanPool.foreground(style.highlightColor), highlightStart, highlightEnd,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            source = spannable;
+        }
+        //the layout keeps the paint to draw with, it must not be shared with other builds
+        TextPaint paint = new TextPaint(style.paint);
+        //a single line, ellipsized like the TextView the rows used to be
+        CharSequence line = TextUtils.ellipsize(source, paint, width, TextUtils.TruncateAt.END);
+        return new StaticLayout(line, paint, Math.max(0, width),
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+    }
+}
@@ -0,0 +1,52 @@
+package tech.taoxi.libs.plainsearchview.suggestions;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A plain text suggestion, whose key is its text unless another one is given.
+ */
+public class TextSuggestion implements SearchSuggestion {
+
+    private final String mKey;
+    private final String mBody;
+
+    public TextSuggestion(@NonNull String body) {
+        this(body, body);
+    }
+
+    public TextSuggestion(@NonNull String key, @NonNull String body) {
+        mKey = key;
+        mBody = body;
+    }
+
+    @NonNull
+    @Override
+    public String getSuggestionKey() {
+        return mKey;
+    }
+
+    @NonNull
+    @Override
+    public String getBody() {
+        return mBody;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TextSuggestion)) {
+            return false;
+        }
+        TextSuggestion other = (TextSuggestion) o;
+        return mKey.equals(other.mKey) && mBody.equals(other.mBody);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKey.hashCode() + mBody.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mBody;
+    }
+}
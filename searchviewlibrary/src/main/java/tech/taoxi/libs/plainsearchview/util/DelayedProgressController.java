@@ -0,0 +1,99 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Decides when a progress indicator should be visible so that it
+ * does not flicker for short running work.
+ * <p/>
+ * <p>The indicator is only shown if the work is still running after the show
+ * delay, and once shown it stays visible for at least the minimum show time.
+ * Must only be used from the main thread.</p>
+ */
+public class DelayedProgressController {
+
+    public interface Target {
+
+        void showProgress();
+
+        void hideProgress();
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Target mTarget;
+
+    private long mShowDelayMillis;
+    private long mMinShowMillis;
+
+    private boolean mBusy;
+    private boolean mShown;
+    private long mShownAt;
+
+    private final Runnable mDelayedShow = new Runnable() {
+        @Override
+        public void run() {
+            if (mBusy && !mShown) {
+                mShown = true;
+                mShownAt = SystemClock.uptimeMillis();
+                mTarget.showProgress();
+            }
+        }
+    };
+
+    private final Runnable mDelayedHide = new Runnable() {
+        @Override
+        public void run() {
+            if (!mBusy && mShown) {
+                mShown = false;
+                mTarget.hideProgress();
+            }
+        }
+    };
+
+    public DelayedProgressController(Target target, long showDelayMillis, long minShowMillis) {
+        mTarget = target;
+        setTimings(showDelayMillis, minShowMillis);
+    }
+
+    public void setTimings(long showDelayMillis, long minShowMillis) {
+        mShowDelayMillis = Math.max(0, showDelayMillis);
+        mMinShowMillis = Math.max(0, minShowMillis);
+    }
+
+    /**
+     * Reports whether work is currently running.
+     */
+    public void setBusy(boolean busy) {
+        if (busy == mBusy) {
+            return;
+        }
+        mBusy = busy;
+        if (busy) {
+            mHandler.removeCallbacks(mDelayedHide);
+            if (!mShown) {
+                mHandler.postDelayed(mDelayedShow, mShowDelayMillis);
+            }
+        } else {
+            mHandler.removeCallbacks(mDelayedShow);
+            if (mShown) {
+                long shownFor = SystemClock.uptimeMillis() - mShownAt;
+                mHandler.postDelayed(mDelayedHide, Math.max(0, mMinShowMillis - shownFor));
+            }
+        }
+    }
+
+    /**
+     * Drops any scheduled change and hides the indicator if it is shown.
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mDelayedShow);
+        mHandler.removeCallbacks(mDelayedHide);
+        mBusy = false;
+        if (mShown) {
+            mShown = false;
+            mTarget.hideProgress();
+        }
+    }
+}
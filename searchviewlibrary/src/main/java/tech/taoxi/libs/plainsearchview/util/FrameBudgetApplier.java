@@ -0,0 +1,146 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+
+/**
+ * Applies queued work on the main thread in slices that fit in a per-frame
+ * time budget, so that a burst of results does not drop frames.
+ * <p/>
+ * <p>Each {@link Work} is a number of units, applied a few at a time from a
+ * {@link Choreographer} frame callback until the budget of the frame is spent.
+ * What is left is applied in the next frames. Once per frame, after the slice,
+ * the {@link Target} is told so it can publish the outcome, for example
+ * submit a new list to an adapter.</p>
+ * <p/>
+ * <p>Must only be used from the main thread.</p>
+ */
+public class FrameBudgetApplier {
+
+    public final static long DEFAULT_FRAME_BUDGET_NANOS = 4000000L;
+
+    //units applied between two checks of the clock
+    private final static int UNITS_PER_CHECK = 16;
+
+    /**
+     * Work that is applied in slices.
+     */
+    public interface Work {
+
+        /**
+         * @return the number of units, 0 for work that is applied at once
+         */
+        int size();
+
+        /**
+         * Applies the units from from, inclusive, to to, exclusive. Called
+         * in order, and once with 0, 0 for work of size 0.
+         */
+        void apply(int from, int to);
+    }
+
+    public interface Target {
+
+        /**
+         * Called once per frame in which some work was applied.
+         *
+         * @param idle true if all the queued work was applied
+         */
+        void onFrameApplied(boolean idle);
+    }
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final ArrayDeque<Work> mQueue = new ArrayDeque<>();
+    private final Target mTarget;
+    private long mBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+
+    //units of the work at the head of the queue already applied
+    private int mHeadApplied;
+    private boolean mScheduled;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScheduled = false;
+            applySlice();
+        }
+    };
+
+    public FrameBudgetApplier(Target target) {
+        mTarget = target;
+    }
+
+    /**
+     * Sets how long the work may run in a frame. Units are applied in small
+     * groups, so a frame can go slightly over.
+     */
+    public void setFrameBudgetNanos(long budgetNanos) {
+        mBudgetNanos = Math.max(0, budgetNanos);
+    }
+
+    public long getFrameBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    /**
+     * Queues work after the work already queued. It starts being applied
+     * in the next frame.
+     */
+    public void enqueue(Work work) {
+        mQueue.add(work);
+        if (!mScheduled) {
+            mScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    /**
+     * Drops the queued work that was not applied yet.
+     */
+    public void clear() {
+        mQueue.clear();
+        mHeadApplied = 0;
+        if (mScheduled) {
+            mScheduled = false;
+            mChoreographer.removeFrameCallback(mFrameCallback);
+        }
+    }
+
+    public boolean isIdle() {
+        return mQueue.isEmpty();
+    }
+
+    private void applySlice() {
+        final long deadline = System.nanoTime() + mBudgetNanos;
+        boolean applied = false;
+        while (!mQueue.isEmpty()) {
+            Work work = mQueue.peek();
+            int size = work.size();
+            int to = Math.min(size, mHeadApplied + UNITS_PER_CHECK);
+            if (to > mHeadApplied || size == 0) {
+                work.apply(mHeadApplied, to);
+                applied = true;
+                if (mQueue.peek() != work) {
+                    //the work cleared the queue
+                    continue;
+                }
+            }
+            mHeadApplied = to;
+            if (mHeadApplied >= size) {
+                mQueue.poll();
+                mHeadApplied = 0;
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        if (!mQueue.isEmpty()) {
+            mScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+        if (applied) {
+            mTarget.onFrameApplied(mQueue.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import android.support.annotation.NonNull;
+import android.text.GetChars;
+
+/**
+ * A reusable, growable char buffer that holds a copy of the query text.
+ * <p/>
+ * <p>Copying into the buffer and comparing against it does not allocate once
+ * the backing array is large enough, which makes it suitable for per-keystroke
+ * bookkeeping. A String is only created when {@link #toString()} is called, and
+ * it is cached until the content changes.</p>
+ */
+public final class QueryBuffer implements CharSequence {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private char[] mChars = new char[INITIAL_CAPACITY];
+    private int mLength;
+    private String mString = "";
+
+    /**
+     * Replaces the content of this buffer with the given text.
+     *
+     * @param text the text to copy, null is treated as empty
+     */
+    public void set(CharSequence text) {
+        if (text == null) {
+            clear();
+            return;
+        }
+        final int length = text.length();
+        ensureCapacity(length);
+        //same as TextUtils.getChars(), which the JVM tests can't call
+        if (text instanceof String) {
+            ((String) text).getChars(0, length, mChars, 0);
+        } else if (text instanceof GetChars) {
+            ((GetChars) text).getChars(0, length, mChars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                mChars[i] = text.charAt(i);
+            }
+        }
+        mLength = length;
+        //keep a String source around for free, anything else is copied lazily
+        mString = text instanceof String ? (String) text : null;
+    }
+
+    /**
+     * Replaces the content of this buffer with the content of another buffer.
+     */
+    public void set(QueryBuffer other) {
+        ensureCapacity(other.mLength);
+        System.arraycopy(other.mChars, 0, mChars, 0, other.mLength);
+        mLength = other.mLength;
+        mString = other.mString;
+    }
+
+    public void clear() {
+        mLength = 0;
+        mString = "";
+    }
+
+    /**
+     * Compares the content of this buffer with the given text without
+     * allocating.
+     *
+     * @return true if both contain the same sequence of chars
+     */
+    public boolean contentEquals(CharSequence text) {
+        if (text == null || text.length() != mLength) {
+            return false;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if (mChars[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (mString == null) {
+            mString = new String(mChars, 0, mLength);
+        }
+        return mString;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mChars.length < capacity) {
+            char[] newChars = new char[Math.max(capacity, mChars.length * 2)];
+            System.arraycopy(mChars, 0, newChars, 0, mLength);
+            mChars = newChars;
+        }
+    }
+}
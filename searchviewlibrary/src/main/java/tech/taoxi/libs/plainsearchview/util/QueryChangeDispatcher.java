@@ -0,0 +1,147 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Delivers query changes to a {@link Target} either immediately, after
+ * a trailing debounce, or throttled with a leading and a trailing call.
+ * <p/>
+ * <p>Edits that happen while a delivery is pending are coalesced into a single
+ * callback carrying the old query of the first edit and the new query of the
+ * last edit. Must only be used from the main thread.</p>
+ */
+public class QueryChangeDispatcher {
+
+    public final static int MODE_IMMEDIATE = 0;
+    public final static int MODE_DEBOUNCE = 1;
+    public final static int MODE_THROTTLE = 2;
+
+    public interface Target {
+
+        void onDeliverQueryChange(CharSequence oldQuery, CharSequence newQuery);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Target mTarget;
+
+    private int mMode = MODE_IMMEDIATE;
+    private long mDelayMillis;
+
+    private final QueryBuffer mPendingOldQuery = new QueryBuffer();
+    private final QueryBuffer mPendingNewQuery = new QueryBuffer();
+    private boolean mHasPending;
+
+    //end of the current throttle window, 0 when no window is open
+    private long mThrottleWindowEnd;
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimerFired();
+        }
+    };
+
+    public QueryChangeDispatcher(Target target) {
+        mTarget = target;
+    }
+
+    /**
+     * Sets the delivery mode. Any pending change is delivered
+     * before the new mode takes effect.
+     *
+     * @param mode        one of {@link #MODE_IMMEDIATE}, {@link #MODE_DEBOUNCE}
+     *                    or {@link #MODE_THROTTLE}
+     * @param delayMillis the debounce delay or throttle window
+     */
+    public void setMode(int mode, long delayMillis) {
+        flush();
+        mMode = mode;
+        mDelayMillis = Math.max(0, delayMillis);
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public long getDelayMillis() {
+        return mDelayMillis;
+    }
+
+    /**
+     * Reports a query change. Depending on the mode, the target is
+     * invoked now or later with the coalesced change.
+     */
+    public void onQueryChanged(CharSequence oldQuery, CharSequence newQuery) {
+        if (mMode == MODE_IMMEDIATE || mDelayMillis == 0) {
+            mTarget.onDeliverQueryChange(oldQuery, newQuery);
+            return;
+        }
+
+        if (mMode == MODE_THROTTLE && mThrottleWindowEnd == 0) {
+            //leading edge
+            mTarget.onDeliverQueryChange(oldQuery, newQuery);
+            openThrottleWindow();
+            return;
+        }
+
+        if (!mHasPending) {
+            mPendingOldQuery.set(oldQuery);
+            mHasPending = true;
+        }
+        mPendingNewQuery.set(newQuery);
+
+        if (mMode == MODE_DEBOUNCE) {
+            mHandler.removeCallbacks(mDeliverRunnable);
+            mHandler.postDelayed(mDeliverRunnable, mDelayMillis);
+        }
+    }
+
+    /**
+     * Delivers any pending change right away.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mDeliverRunnable);
+        mThrottleWindowEnd = 0;
+        deliverPending();
+    }
+
+    /**
+     * Drops any pending change without delivering it.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mDeliverRunnable);
+        mThrottleWindowEnd = 0;
+        mHasPending = false;
+    }
+
+    private void onTimerFired() {
+        if (mMode == MODE_THROTTLE) {
+            mThrottleWindowEnd = 0;
+            if (mHasPending) {
+                //trailing edge, keep throttling the edits that follow it
+                deliverPending();
+                openThrottleWindow();
+            }
+        } else {
+            deliverPending();
+        }
+    }
+
+    private void openThrottleWindow() {
+        mThrottleWindowEnd = SystemClock.uptimeMillis() + mDelayMillis;
+        mHandler.postAtTime(mDeliverRunnable, mThrottleWindowEnd);
+    }
+
+    private void deliverPending() {
+        if (!mHasPending) {
+            return;
+        }
+        mHasPending = false;
+        //typing and then deleting back to the old query is not a change
+        if (!mPendingOldQuery.contentEquals(mPendingNewQuery)) {
+            mTarget.onDeliverQueryChange(mPendingOldQuery, mPendingNewQuery);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package tech.taoxi.libs.plainsearchview.history;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import tech.taoxi.libs.plainsearchview.search.QueryNormalizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchHistoryStoreTest {
+
+    private final static String[] WORDS = {"pizza", "Pizza", "pie", "pasta", "café", "cafe", "new york", "newark"};
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SearchHistoryStore newStore(int maxEntries) {
+        Context context = new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return mFolder.getRoot();
+            }
+        };
+        //the log is read and written, and the listeners called, on the test thread
+        Executor direct = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        //the index tells keys 2^-20 apart, a short half-life keeps the visits of the test farther apart
+        SearchHistoryStore store = new SearchHistoryStore(context, "history.log", maxEntries,
+                new FrecencyScorer(60 * 1000), new DirectExecutor(), direct);
+        store.load();
+        return store;
+    }
+
+    @Test
+    public void completesLikeBruteForce() {
+        for (int maxEntries : new int[]{30, 1000}) {
+            Random random = new Random(maxEntries);
+            SearchHistoryStore store = newStore(maxEntries);
+            List<String> queries = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                queries.add(WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(40));
+            }
+            for (int step = 0; step < 3000; step++) {
+                long version = store.getVersion();
+                int op = random.nextInt(100);
+                if (op == 0) {
+                    store.clear();
+                } else if (op < 10) {
+                    String query = queries.get(random.nextInt(queries.size()));
+                    boolean found = false;
+                    for (HistoryEntry entry : store.getEntries()) {
+                        found |= entry.getQuery().equals(query);
+                    }
+                    store.remove(query);
+                    assertEquals(found, version != store.getVersion());
+                } else {
+                    //the few most used queries are visited again and again
+                    int bound = random.nextBoolean() ? 10 : queries.size();
+                    store.record(queries.get(random.nextInt(bound)));
+                    assertTrue(version != store.getVersion());
+                }
+
+                for (String prefix : new String[]{"", "p", "pi", "piz", "cafe", "new y", "pasta 1", "x"}) {
+                    for (int k : new int[]{1, 5, 25}) {
+                        assertSameKeys(prefix + ", k=" + k, bruteForce(store.getEntries(), prefix, k),
+                                store.complete(prefix, k));
+                    }
+                }
+                assertSameKeys("top", FrecencyScorer.top(store.getEntries(), 20), store.getTopEntries(20));
+            }
+
+            //the log replays to the same history
+            List<String> expected = queriesOf(store.getEntries());
+            assertEquals(expected, queriesOf(newStore(maxEntries).getEntries()));
+            store.clear();
+        }
+    }
+
+    @Test
+    public void trimsTheRemovedQueries() {
+        SearchHistoryStore store = newStore(10);
+        store.record(" pizza ");
+        store.record("pasta");
+        store.remove("pizza ");
+        assertEquals(Collections.singletonList("pasta"), queriesOf(store.getEntries()));
+        assertEquals(Collections.singletonList("pasta"), queriesOf(newStore(10).getEntries()));
+    }
+
+    //the best entry of every term starting with the prefix, by frecency, all the entries for no prefix
+    private static List<HistoryEntry> bruteForce(List<HistoryEntry> entries, String prefix, int k) {
+        QueryNormalizer normalizer = QueryNormalizer.getDefault();
+        String normalized = normalizer.normalize(prefix);
+        if (normalized.length() == 0) {
+            return FrecencyScorer.top(entries, k);
+        }
+        Map<String, HistoryEntry> best = new HashMap<>();
+        for (HistoryEntry entry : entries) {
+            String term = normalizer.normalize(entry.getQuery());
+            HistoryEntry existing = best.get(term);
+            if (term.startsWith(normalized)
+                    && (existing == null || entry.getFrecencyKey() > existing.getFrecencyKey())) {
+                best.put(term, entry);
+            }
+        }
+        return FrecencyScorer.top(best.values(), k);
+    }
+
+    //the order of the entries with the same weight in the index is not defined
+    private static void assertSameKeys(String message, List<HistoryEntry> expected, List<HistoryEntry> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.get(i).getFrecencyKey(), actual.get(i).getFrecencyKey(), 1.0 / (1 << 20));
+        }
+    }
+
+    private static List<String> queriesOf(List<HistoryEntry> entries) {
+        List<String> queries = new ArrayList<>(entries.size());
+        for (HistoryEntry entry : entries) {
+            queries.add(entry.getQuery());
+        }
+        return queries;
+    }
+
+    private static final class DirectExecutor extends AbstractExecutorService {
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @NonNull
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, @NonNull TimeUnit unit) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures {@link FuzzyMatcher} with 100k terms and queries of 8 to 12
+ * chars, the queries that may be matched with two edits.
+ * <p/>
+ * <p>Terms made of syllables branch about like the words of a real
+ * vocabulary, terms made of random letters are the worst case. The queries
+ * are prefixes of terms with one or two chars replaced.</p>
+ * <p/>
+ * <p>Not a test, run its main method on the JVM. A mid-range device is
+ * about 3 to 5 times slower than a desktop JVM.</p>
+ */
+public class FuzzyMatcherBenchmark {
+
+    private final static int TERM_COUNT = 100000;
+    private final static int QUERY_COUNT = 2000;
+    private final static int K = 10;
+    private final static int DEFAULT_EDITS = -1;
+
+    private final static String[] SYLLABLES = {
+            "ka", "ro", "mi", "te", "lu", "san", "bel", "or", "ia", "ne", "st", "qui", "pa", "dor", "en",
+            "ti", "ver", "al", "mon", "ch", "ra", "so", "ul", "ex", "fi", "gra", "tor", "ion", "ma", "de"};
+
+    public static void main(String[] args) {
+        run("syllables", false);
+        run("random letters", true);
+    }
+
+    private static void run(String name, boolean randomLetters) {
+        Random random = new Random(42);
+        String[] vocabulary = vocabulary(randomLetters, random);
+        PrefixIndex.Builder builder = new PrefixIndex.Builder();
+        for (String term : vocabulary) {
+            builder.add(term, random.nextInt(1000));
+        }
+        FuzzyMatcher matcher = new FuzzyMatcher(builder.build());
+        String[] oneTypo = queries(vocabulary, 1, random);
+        String[] twoTypos = queries(vocabulary, 2, random);
+
+        //warm up the JIT
+        for (int i = 0; i < 3; i++) {
+            time(matcher, oneTypo, DEFAULT_EDITS);
+            time(matcher, twoTypos, LevenshteinAutomaton.MAX_EDITS);
+        }
+
+        System.out.println(name + ":");
+        report("one typo, one edit", time(matcher, oneTypo, 1));
+        report("one typo, default edits", time(matcher, oneTypo, DEFAULT_EDITS));
+        report("one typo, two edits", time(matcher, oneTypo, 2));
+        report("two typos, default edits", time(matcher, twoTypos, DEFAULT_EDITS));
+        report("two typos, two edits", time(matcher, twoTypos, 2));
+    }
+
+    private static String[] vocabulary(boolean randomLetters, Random random) {
+        Set<String> terms = new HashSet<>();
+        StringBuilder term = new StringBuilder();
+        while (terms.size() < TERM_COUNT) {
+            term.setLength(0);
+            int parts = 2 + random.nextInt(5);
+            for (int i = 0; i < parts; i++) {
+                if (randomLetters) {
+                    term.append((char) ('a' + random.nextInt(26))).append((char) ('a' + random.nextInt(26)));
+                } else {
+                    term.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+            }
+            terms.add(term.toString());
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    //prefixes of the terms with the given number of chars replaced
+    private static String[] queries(String[] vocabulary, int typos, Random random) {
+        String[] queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; ) {
+            String term = vocabulary[random.nextInt(vocabulary.length)];
+            if (term.length() < 8) {
+                continue;
+            }
+            char[] query = term.substring(0, Math.min(term.length(), 8 + random.nextInt(5))).toCharArray();
+            for (int t = 0; t < typos; t++) {
+                int at = 1 + random.nextInt(query.length - 1);
+                query[at] = query[at] == 'z' ? 'y' : 'z';
+            }
+            queries[i++] = new String(query);
+        }
+        return queries;
+    }
+
+    //the duration of every query in nanoseconds
+    private static long[] time(FuzzyMatcher matcher, String[] queries, int maxEdits) {
+        int[] termIds = new int[K];
+        long[] durations = new long[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            long start = System.nanoTime();
+            if (maxEdits == DEFAULT_EDITS) {
+                matcher.match(queries[i], K, termIds, null);
+            } else {
+                matcher.match(queries[i], maxEdits, K, termIds, null);
+            }
+            durations[i] = System.nanoTime() - start;
+        }
+        return durations;
+    }
+
+    private static void report(String name, long[] durations) {
+        long[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long duration : sorted) {
+            total += duration;
+        }
+        System.out.printf("  %-26s mean %7.1f us, median %7.1f us, p95 %7.1f us%n", name,
+                total / 1000.0 / sorted.length, sorted[sorted.length / 2] / 1000.0,
+                sorted[sorted.length * 95 / 100] / 1000.0);
+    }
+}
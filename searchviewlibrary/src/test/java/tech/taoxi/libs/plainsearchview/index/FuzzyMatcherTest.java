@@ -0,0 +1,201 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyMatcherTest {
+
+    //few letters, so that most queries are a few edits away from many terms
+    private final static String ALPHABET = "abcdeéñü";
+    private final static int TERM_COUNT = 3000;
+
+    private static PrefixIndex sIndex;
+    private static FuzzyMatcher sMatcher;
+    private static String[] sTerms;
+
+    @BeforeClass
+    public static void buildIndex() {
+        Random random = new Random(3);
+        Set<String> terms = new LinkedHashSet<>();
+        while (terms.size() < TERM_COUNT) {
+            terms.add(randomText(random, 2 + random.nextInt(9)));
+        }
+        sTerms = terms.toArray(new String[terms.size()]);
+        //distinct weights, so that the order of the terms is defined
+        List<Integer> weights = new ArrayList<>();
+        for (int i = 0; i < sTerms.length; i++) {
+            weights.add(i);
+        }
+        Collections.shuffle(weights, random);
+        PrefixIndex.Builder builder = new PrefixIndex.Builder();
+        for (int i = 0; i < sTerms.length; i++) {
+            builder.add(sTerms[i], weights.get(i));
+        }
+        sIndex = builder.build();
+        sMatcher = new FuzzyMatcher(sIndex);
+    }
+
+    @Test
+    public void matchesLikeBruteForce() {
+        Random random = new Random(5);
+        int[] hits = new int[LevenshteinAutomaton.MAX_EDITS + 1];
+        for (int round = 0; round < 300; round++) {
+            String query = randomQuery(random);
+            int[] distances = new int[sIndex.getTermCount()];
+            for (int termId = 0; termId < distances.length; termId++) {
+                distances[termId] = prefixDistance(query, sIndex.getTerm(termId));
+            }
+            for (int maxEdits = 0; maxEdits <= LevenshteinAutomaton.MAX_EDITS; maxEdits++) {
+                for (int k : new int[]{1, 7, 100}) {
+                    List<String> expected = bruteForce(distances, maxEdits, query.length(), k);
+                    int[] termIds = new int[k];
+                    int[] edits = new int[k];
+                    int count = sMatcher.match(query, maxEdits, k, termIds, edits);
+                    String message = query + ", maxEdits=" + maxEdits + ", k=" + k;
+                    assertEquals(message, expected, describe(termIds, edits, count));
+                    for (int i = 0; i < count; i++) {
+                        hits[edits[i]]++;
+                    }
+                }
+            }
+
+            //one edit first, two only if one finds nothing
+            int defaultEdits = LevenshteinAutomaton.defaultMaxEdits(query.length());
+            List<String> expected = bruteForce(distances, Math.min(defaultEdits, 1), query.length(), 10);
+            if (expected.isEmpty()) {
+                expected = bruteForce(distances, defaultEdits, query.length(), 10);
+            }
+            int[] termIds = new int[10];
+            int[] edits = new int[10];
+            int count = sMatcher.match(query, 10, termIds, edits);
+            assertEquals(query, expected, describe(termIds, edits, count));
+        }
+        //the queries did need every number of edits
+        for (int edits : hits) {
+            assertTrue(Arrays.toString(hits), edits > 100);
+        }
+    }
+
+    @Test
+    public void findsNonAsciiTypos() {
+        PrefixIndex index = new PrefixIndex.Builder()
+                .add("crème brûlée", 3)
+                .add("café", 2)
+                .add("cafeteria", 1)
+                .build();
+        FuzzyMatcher matcher = new FuzzyMatcher(index);
+        assertEquals(Arrays.asList("cafeteria", "café"), matcher.match("cafe", 10));
+        assertEquals(Arrays.asList("café", "cafeteria"), matcher.match("cafë", 10));
+        assertEquals(Collections.singletonList("crème brûlée"), matcher.match("crème brulée", 10));
+        assertEquals(Collections.singletonList("crème brûlée"), matcher.match("creme brûlee", 10));
+        assertEquals(Collections.<String>emptyList(), matcher.match("creme brulee", 10));
+    }
+
+    //the terms within maxEdits edits, as "term/edits", fewest edits then highest weight first
+    private static List<String> bruteForce(final int[] distances, int maxEdits, int queryLength, int k) {
+        //like the matcher, a query is never edited into nothing
+        maxEdits = Math.max(0, Math.min(maxEdits, queryLength - 1));
+        List<Integer> matches = new ArrayList<>();
+        for (int termId = 0; termId < distances.length; termId++) {
+            if (distances[termId] <= maxEdits) {
+                matches.add(termId);
+            }
+        }
+        Collections.sort(matches, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (distances[a] != distances[b]) {
+                    return distances[a] - distances[b];
+                }
+                return sIndex.getWeight(b) - sIndex.getWeight(a);
+            }
+        });
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, matches.size()); i++) {
+            terms.add(sIndex.getTerm(matches.get(i)) + "/" + distances[matches.get(i)]);
+        }
+        return terms;
+    }
+
+    private static List<String> describe(int[] termIds, int[] edits, int count) {
+        List<String> terms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            terms.add(sIndex.getTerm(termIds[i]) + "/" + edits[i]);
+        }
+        return terms;
+    }
+
+    //the fewest edits turning the query into a prefix of the term
+    private static int prefixDistance(String query, String term) {
+        int[] previous = new int[term.length() + 1];
+        int[] current = new int[term.length() + 1];
+        for (int j = 0; j <= term.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= query.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= term.length(); j++) {
+                int substitution = previous[j - 1] + (query.charAt(i - 1) == term.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int distance : previous) {
+            best = Math.min(best, distance);
+        }
+        return best;
+    }
+
+    //a prefix of a term with up to two random edits, or random text
+    private static String randomQuery(Random random) {
+        if (random.nextInt(10) == 0) {
+            return randomText(random, 1 + random.nextInt(8));
+        }
+        String term = sTerms[random.nextInt(sTerms.length)];
+        StringBuilder query = new StringBuilder(term.substring(0, 1 + random.nextInt(term.length())));
+        int edits = random.nextInt(3);
+        for (int i = 0; i < edits; i++) {
+            int position = random.nextInt(query.length() + 1);
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    query.insert(position, c);
+                    break;
+                case 1:
+                    if (position < query.length() && query.length() > 1) {
+                        query.deleteCharAt(position);
+                    }
+                    break;
+                default:
+                    if (position < query.length()) {
+                        query.setCharAt(position, c);
+                    }
+                    break;
+            }
+        }
+        return query.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+}
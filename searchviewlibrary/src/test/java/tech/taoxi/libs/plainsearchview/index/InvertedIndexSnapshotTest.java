@@ -0,0 +1,153 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InvertedIndexSnapshotTest {
+
+    private final static String[] WORDS = {"blue", "widget", "gadget", "red", "café", "über", "box", "bolt"};
+    private final static String[] TYPES = {"tool", "toy", "part"};
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static InvertedIndex build(int docCount, long seed) {
+        Random random = new Random(seed);
+        InvertedIndex.Builder builder = new InvertedIndex.Builder();
+        for (int i = 0; i < docCount; i++) {
+            String text = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            builder.add("k" + i, text, random.nextInt(100), "type:" + TYPES[random.nextInt(TYPES.length)]);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void opensWhatWasWritten() throws IOException {
+        InvertedIndex index = build(5000, 3);
+        File file = mFolder.newFile("index.snapshot");
+        index.writeTo(file);
+        InvertedIndex opened = InvertedIndex.open(file);
+
+        assertFalse(index.isMapped());
+        assertTrue(opened.isMapped());
+        assertSameIndex(index, opened);
+    }
+
+    @Test
+    public void mapsARegionOfAFile() throws IOException {
+        InvertedIndex index = build(1000, 5);
+        File snapshot = mFolder.newFile("index.snapshot");
+        index.writeTo(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+
+        //the snapshot stored after other data, like in the assets of an application
+        File file = mFolder.newFile("assets.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[123]);
+            out.write(bytes);
+            out.write(new byte[45]);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        InvertedIndex mapped;
+        try {
+            mapped = InvertedIndex.map(in.getChannel(), 123, bytes.length);
+        } finally {
+            in.close();
+        }
+        assertSameIndex(index, mapped);
+    }
+
+    @Test
+    public void keepsReadingTheSnapshotItMapped() throws IOException {
+        InvertedIndex first = build(1000, 7);
+        File file = mFolder.newFile("index.snapshot");
+        first.writeTo(file);
+        InvertedIndex opened = InvertedIndex.open(file);
+
+        InvertedIndex second = build(2000, 11);
+        second.writeTo(file);
+        assertSameIndex(first, opened);
+        assertSameIndex(second, InvertedIndex.open(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshots() throws IOException {
+        File file = mFolder.newFile("index.snapshot");
+        build(1000, 13).writeTo(file);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(100);
+        } finally {
+            out.close();
+        }
+        try {
+            InvertedIndex.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("other.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[4096]);
+        } finally {
+            out.close();
+        }
+        try {
+            InvertedIndex.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertSameIndex(InvertedIndex expected, InvertedIndex actual) {
+        assertEquals(expected.getDocumentCount(), actual.getDocumentCount());
+        assertEquals(expected.getTermCount(), actual.getTermCount());
+        for (int docId = 0; docId < expected.getDocumentCount(); docId++) {
+            assertEquals(expected.getKey(docId), actual.getKey(docId));
+            assertEquals(expected.getText(docId), actual.getText(docId));
+            assertEquals(expected.getWeight(docId), actual.getWeight(docId), 0f);
+            assertEquals(docId, actual.findDocument(expected.getKey(docId)));
+        }
+        for (int termId = 0; termId < expected.getTermCount(); termId++) {
+            assertEquals(expected.getTerm(termId), actual.getTerm(termId));
+            assertEquals(expected.getDocumentFrequency(termId), actual.getDocumentFrequency(termId));
+        }
+
+        String[] queries = {"b", "blue w", "cafe", "uber bo", "widget 12", "type:toy red", "-blue b"};
+        QueryParser parser = new QueryParser();
+        for (String query : queries) {
+            for (SearchScope scope : new SearchScope[]{SearchScope.ALL, SearchScope.of("type", "tool")}) {
+                QueryPlan plan = parser.parse(query);
+                int[] expectedIds = new int[50];
+                int[] actualIds = new int[50];
+                FacetCounts expectedCounts = new FacetCounts("type");
+                FacetCounts actualCounts = new FacetCounts("type");
+                int count = expected.search(plan, scope, 50, expectedIds, expectedCounts);
+                assertEquals(query, InvertedIndexTest.toList(expectedIds, count),
+                        InvertedIndexTest.toList(actualIds, actual.search(plan, scope, 50, actualIds, actualCounts)));
+                assertEquals(query, expectedCounts.getCounts("type"), actualCounts.getCounts("type"));
+            }
+        }
+    }
+}
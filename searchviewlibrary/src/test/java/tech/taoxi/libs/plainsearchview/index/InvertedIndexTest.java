@@ -0,0 +1,137 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class InvertedIndexTest {
+
+    private final static String[] WORDS = {
+            "new", "york", "pizza", "pizzeria", "pie", "café", "paris", "park", "newark", "yoga"};
+    private final static int DOC_COUNT = 3000;
+
+    private static String[] sTexts;
+    private static float[] sWeights;
+    private static InvertedIndex sIndex;
+
+    @BeforeClass
+    public static void buildIndex() {
+        Random random = new Random(1);
+        sTexts = new String[DOC_COUNT];
+        sWeights = new float[DOC_COUNT];
+        InvertedIndex.Builder builder = new InvertedIndex.Builder();
+        for (int i = 0; i < DOC_COUNT; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 1 + random.nextInt(4);
+            for (int j = 0; j < words; j++) {
+                if (j > 0) {
+                    text.append(j % 2 == 0 ? " " : ", ");
+                }
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            text.append(" #").append(i);
+            sTexts[i] = text.toString();
+            sWeights[i] = random.nextInt(50);
+            builder.add("k" + i, sTexts[i], sWeights[i]);
+        }
+        sIndex = builder.build();
+    }
+
+    @Test
+    public void findsWhatBruteForceFinds() {
+        String[] queries = {"p", "pi", "new y", "york pi", "cafe", "cafe pa", "zzz", "new new", "yoga park p",
+                "1", "york 12", "pizza pizzeria"};
+        for (String query : queries) {
+            for (int k : new int[]{1, 10, DOC_COUNT}) {
+                int[] docIds = new int[k];
+                int count = sIndex.search(query, k, docIds);
+                List<Integer> expected = bruteForce(query);
+                expected = expected.subList(0, Math.min(k, expected.size()));
+                assertEquals(query + ", k=" + k, expected, toList(docIds, count));
+            }
+        }
+    }
+
+    @Test
+    public void findsNothingForQueriesWithoutTokens() {
+        int[] docIds = new int[10];
+        assertEquals(0, sIndex.search("", 10, docIds));
+        assertEquals(0, sIndex.search(" , ", 10, docIds));
+        assertEquals(0, sIndex.search("york", 0, docIds));
+    }
+
+    @Test
+    public void findsDocumentsByKey() {
+        assertEquals(DOC_COUNT, sIndex.getDocumentCount());
+        for (int docId : new int[]{0, 42, DOC_COUNT - 1}) {
+            assertEquals(docId, sIndex.findDocument("k" + docId));
+            assertEquals("k" + docId, sIndex.getKey(docId));
+            assertEquals(sTexts[docId], sIndex.getText(docId));
+            assertEquals(sWeights[docId], sIndex.getWeight(docId), 0f);
+        }
+        assertEquals(-1, sIndex.findDocument("k" + DOC_COUNT));
+    }
+
+    @Test
+    public void replacesDocumentsAddedTwice() {
+        InvertedIndex index = new InvertedIndex.Builder()
+                .add("a", "old text", 1)
+                .add("b", "other text", 2)
+                .add("a", "new text", 3)
+                .build();
+        assertEquals(2, index.getDocumentCount());
+        assertEquals(Arrays.asList("new text", "other text"), index.search("text", 10));
+        assertEquals(Collections.<String>emptyList(), index.search("old", 10));
+    }
+
+    //the matching documents, by weight then by id
+    private static List<Integer> bruteForce(String query) {
+        String[] queryTokens = tokens(query);
+        List<Integer> matches = new ArrayList<>();
+        for (int docId = 0; docId < DOC_COUNT; docId++) {
+            List<String> tokens = Arrays.asList(tokens(sTexts[docId]));
+            boolean match = queryTokens.length > 0;
+            for (int i = 0; i < queryTokens.length - 1 && match; i++) {
+                match = tokens.contains(queryTokens[i]);
+            }
+            if (match) {
+                match = false;
+                for (String token : tokens) {
+                    match |= token.startsWith(queryTokens[queryTokens.length - 1]);
+                }
+            }
+            if (match) {
+                matches.add(docId);
+            }
+        }
+        Collections.sort(matches, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byWeight = Float.compare(sWeights[b], sWeights[a]);
+                return byWeight != 0 ? byWeight : a - b;
+            }
+        });
+        return matches;
+    }
+
+    private static String[] tokens(String text) {
+        String folded = text.toLowerCase().replace('é', 'e').replaceAll("[^a-z0-9]+", " ").trim();
+        return folded.isEmpty() ? new String[0] : folded.split(" ");
+    }
+
+    static List<Integer> toList(int[] values, int count) {
+        List<Integer> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(values[i]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,212 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryParserTest {
+
+    @Test
+    public void compilesTheQueryLanguage() {
+        QueryPlan plan = QueryParser.compile("type:pdf budget 2024");
+        assertEquals(Collections.singletonList("budget"), plan.terms);
+        assertEquals("2024", plan.prefix);
+        assertEquals(SearchScope.of("type", "pdf"), plan.scope);
+
+        plan = QueryParser.compile("\"new york\" pizza");
+        assertEquals(Arrays.asList("new", "york"), plan.terms);
+        assertEquals("pizza", plan.prefix);
+        assertEquals(Collections.singletonList(Arrays.asList("new", "york")), plan.phrases);
+        assertFalse(plan.openPhrase);
+
+        plan = QueryParser.compile("\"new yo");
+        assertEquals(Collections.singletonList("new"), plan.terms);
+        assertEquals("yo", plan.prefix);
+        assertTrue(plan.openPhrase);
+
+        plan = QueryParser.compile("-draft -\"old budget\" -type:doc new");
+        assertEquals(Arrays.asList(Collections.singletonList("draft"), Arrays.asList("old", "budget")),
+                plan.excluded);
+        assertEquals(Collections.singletonList(FacetTerms.term("type", "doc")), plan.excludedFacets);
+        assertEquals("new", plan.prefix);
+        assertTrue(plan.scope.isAll());
+
+        //a value that is still being typed, and a lone dash
+        plan = QueryParser.compile("type: a - b");
+        assertTrue(plan.scope.isAll());
+        assertEquals(Collections.singletonList("a"), plan.terms);
+        assertEquals("b", plan.prefix);
+
+        assertTrue(QueryParser.compile("").isEmpty());
+        assertTrue(QueryParser.compile("-draft").isEmpty());
+        assertFalse(QueryParser.compile("type:pdf").isEmpty());
+    }
+
+    @Test
+    public void updatesOnlyWhenTheLastWordChanged() {
+        QueryPlan plan = QueryParser.compile("type:pdf budget 20");
+        QueryPlan updated = QueryParser.update(plan, "type:pdf budget 2024");
+        assertNotNull(updated);
+        assertEquals("2024", updated.prefix);
+        updated = QueryParser.update(plan, "type:pdf budget 20 rep");
+        assertNotNull(updated);
+        assertEquals(Arrays.asList("budget", "20"), updated.terms);
+        assertEquals("rep", updated.prefix);
+
+        assertNull(QueryParser.update(plan, "type:doc budget 20"));
+        assertNull(QueryParser.update(plan, "type:pdf budget 20 \"a"));
+        assertNull(QueryParser.update(QueryParser.compile("\"new yo"), "\"new yo rk"));
+    }
+
+    @Test
+    public void updatesLikeItCompiles() {
+        Random random = new Random(5);
+        String alphabet = "ab -:\"tc";
+        for (int round = 0; round < 20000; round++) {
+            QueryParser parser = new QueryParser(0);
+            StringBuilder typed = new StringBuilder();
+            for (int step = 0; step < 12; step++) {
+                if (typed.length() > 0 && random.nextInt(4) == 0) {
+                    typed.setLength(typed.length() - 1);
+                } else {
+                    typed.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                //normalized like QueryNormalizer does
+                String query = typed.toString().trim().replaceAll(" +", " ");
+                assertEquals(query, describe(QueryParser.compile(query)), describe(parser.parse(query)));
+            }
+        }
+    }
+
+    @Test
+    public void cachesThePlans() {
+        QueryParser parser = new QueryParser();
+        QueryPlan plan = parser.parse("budget 2024");
+        parser.parse("report");
+        assertSame(plan, parser.parse("budget 2024"));
+    }
+
+    @Test
+    public void runsLikeBruteForce() {
+        String[] words = {"new", "york", "pizza", "budget", "old", "draft", "report", "2024"};
+        String[] types = {"pdf", "doc", "xls"};
+        Random random = new Random(5);
+        int docCount = 5000;
+        final String[] texts = new String[docCount];
+        final String[] docTypes = new String[docCount];
+        final float[] weights = new float[docCount];
+        InvertedIndex.Builder builder = new InvertedIndex.Builder();
+        for (int i = 0; i < docCount; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                if (j > 0) {
+                    text.append(' ');
+                }
+                text.append(words[random.nextInt(words.length)]);
+            }
+            texts[i] = text.toString();
+            docTypes[i] = types[random.nextInt(types.length)];
+            weights[i] = random.nextInt(1000);
+            builder.add("k" + i, texts[i], weights[i], "type:" + docTypes[i]);
+        }
+        InvertedIndex index = builder.build();
+
+        String[] queries = {"type:pdf budget 2024", "\"new york\" pizza", "-draft budget", "-\"old budget\" new",
+                "-type:doc york", "\"new yo", "type:pdf", "type:pdf type:doc -\"new york\" p", "\"budget report\"",
+                "-budget", "type:zip new", "\"york new york\" -pizza r", "n -type:pdf -type:xls"};
+        for (String query : queries) {
+            QueryPlan plan = QueryParser.compile(query);
+            for (SearchScope scope : new SearchScope[]{SearchScope.ALL, SearchScope.of("type", "pdf")}) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < docCount; i++) {
+                    if (matches(plan, texts[i], docTypes[i]) && (scope.isAll() || docTypes[i].equals("pdf"))) {
+                        expected.add(i);
+                    }
+                }
+                Collections.sort(expected, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        int byWeight = Float.compare(weights[b], weights[a]);
+                        return byWeight != 0 ? byWeight : a - b;
+                    }
+                });
+                int[] docIds = new int[docCount];
+                int count = index.search(plan, scope, docCount, docIds, null);
+                assertEquals(query + " " + scope, expected, InvertedIndexTest.toList(docIds, count));
+            }
+        }
+    }
+
+    private static String describe(QueryPlan plan) {
+        return plan + " " + plan.getQuery() + " " + plan.prefixStart + " " + plan.openQuote;
+    }
+
+    private static boolean matches(QueryPlan plan, String text, String type) {
+        List<String> tokens = Arrays.asList(text.split(" "));
+        if (plan.isEmpty()) {
+            return false;
+        }
+        for (String term : plan.terms) {
+            if (!tokens.contains(term)) {
+                return false;
+            }
+        }
+        if (plan.prefix != null) {
+            boolean found = false;
+            for (String token : tokens) {
+                found |= token.startsWith(plan.prefix);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        for (String field : plan.scope.getFields()) {
+            if (!field.equals("type") || !plan.scope.getValues(field).contains(type)) {
+                return false;
+            }
+        }
+        if (plan.excludedFacets.contains(FacetTerms.term("type", type))) {
+            return false;
+        }
+        for (int i = 0; i < plan.phrases.size(); i++) {
+            boolean open = plan.openPhrase && i == plan.phrases.size() - 1;
+            if (!containsPhrase(tokens, plan.phrases.get(i), open)) {
+                return false;
+            }
+        }
+        for (List<String> excluded : plan.excluded) {
+            if (containsPhrase(tokens, excluded, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //the last word of an open phrase is a prefix
+    private static boolean containsPhrase(List<String> tokens, List<String> phrase, boolean open) {
+        for (int start = 0; start + phrase.size() <= tokens.size(); start++) {
+            boolean found = true;
+            for (int i = 0; i < phrase.size() && found; i++) {
+                String token = tokens.get(start + i);
+                found = open && i == phrase.size() - 1 ? token.startsWith(phrase.get(i)) : token.equals(phrase.get(i));
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,171 @@
+package tech.taoxi.libs.plainsearchview.index;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class SegmentedIndexTest {
+
+    private final static String[] WORDS = {"red", "green", "blue", "car", "cat", "cart", "dog", "door"};
+    private final static String[] TYPES = {"new", "used"};
+
+    private final Random mRandom = new Random(7);
+    //the documents the index should hold, by key
+    private final Map<String, String> mTexts = new HashMap<>();
+    private final Map<String, Float> mWeights = new HashMap<>();
+    private final Map<String, String> mTypes = new HashMap<>();
+    private final Set<Float> mUsedWeights = new HashSet<>();
+
+    @Test
+    public void findsWhatBruteForceFinds() throws InterruptedException {
+        InvertedIndex.Builder builder = new InvertedIndex.Builder();
+        for (int i = 0; i < 2000; i++) {
+            String key = "k" + i;
+            randomDocument(key);
+            builder.add(key, mTexts.get(key), mWeights.get(key), "type:" + mTypes.get(key));
+        }
+        SegmentedIndex index = new SegmentedIndex(builder.build());
+        index.setMaxSegments(3);
+        assertMatchesModel(index.getSnapshot());
+
+        for (int round = 0; round < 300; round++) {
+            long version = index.getVersion();
+            SegmentedIndex.Edit edit = index.edit();
+            for (int j = 0; j < 20; j++) {
+                String key = "k" + mRandom.nextInt(3000);
+                if (mRandom.nextInt(3) == 0) {
+                    edit.delete(key);
+                    mTexts.remove(key);
+                    mWeights.remove(key);
+                    mTypes.remove(key);
+                } else {
+                    randomDocument(key);
+                    edit.put(key, mTexts.get(key), mWeights.get(key), "type:" + mTypes.get(key));
+                }
+            }
+            edit.commit();
+            assertNotEquals(version, index.getVersion());
+            if (round % 50 == 49) {
+                //let the background merges run
+                Thread.sleep(50);
+            }
+            assertMatchesModel(index.getSnapshot());
+        }
+
+        long version = index.getVersion();
+        index.forceMerge();
+        assertEquals(1, index.getSnapshot().getSegmentCount());
+        assertEquals(version, index.getVersion());
+        assertMatchesModel(index.getSnapshot());
+    }
+
+    @Test
+    public void keepsSnapshotsUnchanged() {
+        SegmentedIndex index = new SegmentedIndex();
+        index.edit().put("a", "red car", 1).put("b", "blue car", 2).commit();
+        SegmentedIndex.Snapshot before = index.getSnapshot();
+        index.edit().delete("a").put("b", "green car", 3).put("c", "red cat", 4).commit();
+
+        assertEquals(Arrays.asList("blue car", "red car"), search(before, "car"));
+        assertEquals(Arrays.asList("red cat", "green car"), search(index.getSnapshot(), "c"));
+        assertEquals(-1, index.getSnapshot().findDocument("a"));
+    }
+
+    @Test
+    public void ignoresEmptyEdits() {
+        SegmentedIndex index = new SegmentedIndex();
+        long version = index.getVersion();
+        index.edit().commit();
+        assertEquals(version, index.getVersion());
+        //the last change of a key wins
+        index.edit().put("a", "red", 1).delete("a").commit();
+        assertEquals(0, index.getSnapshot().getDocumentCount());
+    }
+
+    private void randomDocument(String key) {
+        mTexts.put(key, WORDS[mRandom.nextInt(WORDS.length)] + " " + WORDS[mRandom.nextInt(WORDS.length)]);
+        //distinct weights, so that the order of the matches does not depend on the segments
+        float weight;
+        do {
+            weight = mRandom.nextInt(1000000);
+        } while (!mUsedWeights.add(weight));
+        mWeights.put(key, weight);
+        mTypes.put(key, TYPES[mRandom.nextInt(TYPES.length)]);
+    }
+
+    private void assertMatchesModel(SegmentedIndex.Snapshot snapshot) {
+        assertEquals(mTexts.size(), snapshot.getDocumentCount());
+        String[] queries = {"c", "ca", "red c", "door d", "blue cart", "cart", "x"};
+        for (String query : queries) {
+            for (SearchScope scope : new SearchScope[]{SearchScope.ALL, SearchScope.of("type", "used")}) {
+                int[] docIds = new int[10];
+                int count = snapshot.search(query, scope, docIds.length, docIds, null);
+                List<String> keys = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String key = snapshot.getKey(docIds[i]);
+                    keys.add(key);
+                    assertEquals(mTexts.get(key), snapshot.getText(docIds[i]));
+                    assertEquals(mWeights.get(key), snapshot.getWeight(docIds[i]), 0f);
+                }
+                List<String> expected = bruteForce(query, scope);
+                assertEquals(query + " " + scope, expected.subList(0, Math.min(10, expected.size())), keys);
+            }
+        }
+        String key = mTexts.keySet().iterator().next();
+        assertEquals(key, snapshot.getKey(snapshot.findDocument(key)));
+    }
+
+    //the keys of the matching documents, by weight
+    private List<String> bruteForce(String query, SearchScope scope) {
+        String[] queryTokens = query.split(" ");
+        List<String> matches = new ArrayList<>();
+        for (Map.Entry<String, String> document : mTexts.entrySet()) {
+            if (!scope.isAll() && !scope.getValues("type").contains(mTypes.get(document.getKey()))) {
+                continue;
+            }
+            List<String> tokens = Arrays.asList(document.getValue().split(" "));
+            boolean match = true;
+            for (int i = 0; i < queryTokens.length - 1 && match; i++) {
+                match = tokens.contains(queryTokens[i]);
+            }
+            if (match) {
+                match = false;
+                for (String token : tokens) {
+                    match |= token.startsWith(queryTokens[queryTokens.length - 1]);
+                }
+            }
+            if (match) {
+                matches.add(document.getKey());
+            }
+        }
+        Collections.sort(matches, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Float.compare(mWeights.get(b), mWeights.get(a));
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> search(SegmentedIndex.Snapshot snapshot, String query) {
+        int[] docIds = new int[10];
+        int count = snapshot.search(query, docIds.length, docIds);
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add(snapshot.getText(docIds[i]));
+        }
+        return texts;
+    }
+}
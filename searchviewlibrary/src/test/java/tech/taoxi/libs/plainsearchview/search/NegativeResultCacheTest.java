@@ -0,0 +1,97 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeResultCacheTest {
+
+    @Test
+    public void knowsTheQueriesExtendingAnEmptyQuery() {
+        NegativeResultCache cache = new NegativeResultCache();
+        cache.isKnownEmpty("", 1);
+        cache.put("xqz", 1);
+        assertTrue(cache.isKnownEmpty("xqz", 1));
+        assertTrue(cache.isKnownEmpty("xqzw", 1));
+        assertFalse(cache.isKnownEmpty("xq", 1));
+        assertFalse(cache.isKnownEmpty("axqz", 1));
+    }
+
+    @Test
+    public void forgetsEverythingWhenTheVersionChanges() {
+        NegativeResultCache cache = new NegativeResultCache();
+        cache.isKnownEmpty("", 1);
+        cache.put("xqz", 1);
+        assertFalse(cache.isKnownEmpty("xqzw", 2));
+        assertFalse(cache.isKnownEmpty("xqzw", 1));
+    }
+
+    @Test
+    public void ignoresStaleAndEmptyQueries() {
+        NegativeResultCache cache = new NegativeResultCache();
+        cache.isKnownEmpty("", 2);
+        //searched before the data changed
+        cache.put("abc", 1);
+        assertFalse(cache.isKnownEmpty("abcd", 2));
+        //would make every query known to be empty
+        cache.put("", 2);
+        assertFalse(cache.isKnownEmpty("abcd", 2));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlyUsedQueries() {
+        NegativeResultCache cache = new NegativeResultCache(2);
+        cache.isKnownEmpty("", 1);
+        cache.put("aa", 1);
+        cache.put("bb", 1);
+        assertTrue(cache.isKnownEmpty("aax", 1));
+        cache.put("cc", 1);
+        assertTrue(cache.isKnownEmpty("aax", 1));
+        assertFalse(cache.isKnownEmpty("bbx", 1));
+        assertTrue(cache.isKnownEmpty("ccx", 1));
+
+        cache.clear();
+        assertFalse(cache.isKnownEmpty("aax", 1));
+    }
+
+    @Test
+    public void agreesWithTheQueriesItHolds() {
+        for (int maxQueries : new int[]{100000, 64}) {
+            Random random = new Random(7);
+            NegativeResultCache cache = new NegativeResultCache(maxQueries);
+            cache.isKnownEmpty("", 1);
+            Set<String> recorded = new HashSet<>();
+            int hits = 0;
+            for (int i = 0; i < 200000; i++) {
+                StringBuilder query = new StringBuilder();
+                int length = 3 + random.nextInt(6);
+                for (int j = 0; j < length; j++) {
+                    query.append((char) ('a' + random.nextInt(26)));
+                }
+                if (random.nextInt(3) == 0) {
+                    cache.put(query.toString(), 1);
+                    recorded.add(query.toString());
+                    continue;
+                }
+                boolean expected = false;
+                for (int end = 1; end <= length && !expected; end++) {
+                    expected = recorded.contains(query.substring(0, end));
+                }
+                boolean known = cache.isKnownEmpty(query.toString(), 1);
+                //never wrong, and complete while nothing was evicted
+                assertTrue(query.toString(), expected || !known);
+                if (maxQueries > recorded.size()) {
+                    assertEquals(query.toString(), expected, known);
+                }
+                hits += known ? 1 : 0;
+            }
+            assertTrue(hits > 0);
+        }
+    }
+}
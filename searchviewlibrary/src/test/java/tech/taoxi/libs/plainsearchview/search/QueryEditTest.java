@@ -0,0 +1,61 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryEditTest {
+
+    @Test
+    public void classifiesTypedChars() {
+        QueryEdit edit = new QueryEdit();
+        edit.set("hel", 3, 0, 1, "hell");
+        assertEdit(QueryEdit.TYPE_APPEND, 3, 0, 1, edit);
+        edit.set("hell", 3, 1, 0, "hel");
+        assertEdit(QueryEdit.TYPE_DELETE_TAIL, 3, 1, 0, edit);
+        edit.set("hell", 0, 1, 0, "ell");
+        assertEdit(QueryEdit.TYPE_REPLACE_RANGE, 0, 1, 0, edit);
+    }
+
+    @Test
+    public void trimsTheComposingRegion() {
+        //IMEs replace the whole word they compose on every keystroke
+        QueryEdit edit = new QueryEdit();
+        edit.set("hel", 0, 3, 4, "hell");
+        assertEdit(QueryEdit.TYPE_APPEND, 3, 0, 1, edit);
+        assertEquals("l", edit.getInserted().toString());
+
+        edit.set("say hell", 4, 4, 3, "say hel");
+        assertEdit(QueryEdit.TYPE_DELETE_TAIL, 7, 1, 0, edit);
+
+        //a completion was picked, then the word was corrected
+        edit.set("say hel", 4, 3, 5, "say hello");
+        assertEdit(QueryEdit.TYPE_APPEND, 7, 0, 2, edit);
+        edit.set("say hrllo", 4, 5, 5, "say hello");
+        assertEdit(QueryEdit.TYPE_REPLACE_RANGE, 5, 1, 1, edit);
+
+        //committed unchanged
+        edit.set("hel hel", 4, 3, 3, "hel hel");
+        assertEdit(QueryEdit.TYPE_REPLACE_RANGE, 7, 0, 0, edit);
+    }
+
+    @Test
+    public void agreesWithTheEditBetweenTheQueries() {
+        String[][] pairs = {{"", "p"}, {"pi", "piz"}, {"pizza", "pizz"}, {"pizza", "pasta"}, {"aa", "aaa"},
+                {"new york", "new"}, {"abc", ""}};
+        for (String[] pair : pairs) {
+            QueryEdit edit = new QueryEdit();
+            edit.set(pair[0], 0, pair[0].length(), pair[1].length(), pair[1]);
+            QueryEdit between = QueryEdit.between(pair[0], pair[1]);
+            assertEquals(between.toString(), edit.toString());
+        }
+        assertEdit(QueryEdit.TYPE_REPLACE_RANGE, 1, 3, 3, QueryEdit.between("pizza", "pasta"));
+    }
+
+    private static void assertEdit(int type, int start, int removed, int inserted, QueryEdit edit) {
+        assertEquals(edit.toString(), type, edit.getType());
+        assertEquals(edit.toString(), start, edit.getStart());
+        assertEquals(edit.toString(), removed, edit.getRemovedLength());
+        assertEquals(edit.toString(), inserted, edit.getInsertedLength());
+    }
+}
@@ -0,0 +1,221 @@
+package tech.taoxi.libs.plainsearchview.search;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import tech.taoxi.libs.plainsearchview.index.InvertedIndex;
+import tech.taoxi.libs.plainsearchview.index.LocalSearchProvider;
+import tech.taoxi.libs.plainsearchview.index.SegmentedIndex;
+import tech.taoxi.libs.plainsearchview.suggestions.TextSuggestion;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryExecutorTest {
+
+    private final WordProvider mProvider = new WordProvider("pizza", "pie");
+    private final QueuedExecutor mWorker = new QueuedExecutor();
+    private final List<String> mDelivered = new ArrayList<>();
+    private QueryExecutor<String> mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = newExecutor(mProvider);
+    }
+
+    @Test
+    public void answersRepeatedQueriesFromTheCache() {
+        search("pi");
+        search("pi");
+        assertEquals(Arrays.asList("pi=[pizza, pie]", "pi=[pizza, pie]"), mDelivered);
+        assertEquals(1, mProvider.mSearches);
+    }
+
+    @Test
+    public void searchesAgainWhenTheDataVersionChanges() {
+        search("pi");
+        mProvider.add("pita");
+        search("pi");
+        assertEquals("pi=[pizza, pie, pita]", last());
+        assertEquals(2, mProvider.mSearches);
+        search("pi");
+        assertEquals(2, mProvider.mSearches);
+    }
+
+    @Test
+    public void neitherNarrowsNorRefinesStaleResults() {
+        search("p");
+        mProvider.add("pita");
+        search("pit");
+        assertEquals("pit=[pita]", last());
+        assertEquals(0, mProvider.mRefines);
+
+        //narrowed again while the version is the same
+        search("pita");
+        assertEquals("pita=[pita]", last());
+        assertEquals(2, mProvider.mSearches);
+    }
+
+    @Test
+    public void forgetsTheQueriesThatFoundNothing() {
+        search("pu");
+        mProvider.add("pudding");
+        search("pud");
+        assertEquals("pud=[pudding]", last());
+    }
+
+    @Test
+    public void seesTheCommitsOfASegmentedIndex() {
+        SegmentedIndex index = new SegmentedIndex(new InvertedIndex.Builder()
+                .add("pizza", "pizza", 2)
+                .add("pie", "pie", 1)
+                .build());
+        QueryExecutor<TextSuggestion> executor = newExecutor(new LocalSearchProvider(index));
+        executor.submit("pi");
+        mWorker.runAll();
+        index.edit().put("pita", 3).delete("pie").commit();
+        executor.submit("pi");
+        mWorker.runAll();
+        executor.submit("pit");
+        mWorker.runAll();
+        assertEquals(Arrays.asList("pi=[pizza, pie]", "pi=[pita, pizza]", "pit=[pita]"), mDelivered);
+    }
+
+    private <T> QueryExecutor<T> newExecutor(SearchProvider<T> provider) {
+        QueryExecutor<T> executor = new QueryExecutor<>(provider, mWorker, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+        executor.setSingleFlight(null);
+        executor.setCallback(new QueryExecutor.Callback<T>() {
+            @Override
+            public void onResults(String query, List<T> results) {
+                mDelivered.add(query + "=" + results);
+            }
+
+            @Override
+            public void onError(String query, Exception error) {
+                mDelivered.add(query + "!" + error);
+            }
+        });
+        return executor;
+    }
+
+    private void search(String query) {
+        mExecutor.submit(query);
+        mWorker.runAll();
+    }
+
+    private String last() {
+        return mDelivered.get(mDelivered.size() - 1);
+    }
+
+    //runs the searches when the test says so, on the test thread
+    static final class QueuedExecutor extends AbstractExecutorService {
+
+        private final List<Runnable> mQueue = new ArrayList<>();
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mQueue.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @NonNull
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, @NonNull TimeUnit unit) {
+            return false;
+        }
+    }
+
+    //the words starting with the query, in the order they were added
+    private static final class WordProvider implements PrefixSearchProvider<String>,
+            NarrowableSearchProvider<String>, IncrementalSearchProvider<String> {
+
+        private final List<String> mWords;
+        private volatile long mVersion;
+        int mSearches;
+        int mRefines;
+
+        WordProvider(String... words) {
+            mWords = new ArrayList<>(Arrays.asList(words));
+        }
+
+        synchronized void add(String word) {
+            mWords.add(word);
+            mVersion++;
+        }
+
+        @Override
+        public long getDataVersion() {
+            return mVersion;
+        }
+
+        @Override
+        public boolean isPrefixClosed(@NonNull String query) {
+            return true;
+        }
+
+        @Override
+        public boolean matches(@NonNull String query, @NonNull String result) {
+            return result.startsWith(query);
+        }
+
+        @Override
+        public List<String> refine(@NonNull String previousQuery, @NonNull List<String> previousResults,
+                                   @NonNull QueryEdit edit, @NonNull String query,
+                                   @NonNull CancellationSignal cancellationSignal) {
+            mRefines++;
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public synchronized List<String> search(@NonNull String query, @NonNull CancellationSignal signal) {
+            mSearches++;
+            List<String> results = new ArrayList<>();
+            for (String word : mWords) {
+                if (word.startsWith(query)) {
+                    results.add(word);
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryBufferTest {
+
+    @Test
+    public void copiesAndComparesTheText() {
+        QueryBuffer buffer = new QueryBuffer();
+        assertEquals(0, buffer.length());
+        assertTrue(buffer.contentEquals(""));
+
+        StringBuilder text = new StringBuilder("pizza");
+        buffer.set(text);
+        text.append(" place");
+        assertEquals("pizza", buffer.toString());
+        assertTrue(buffer.contentEquals("pizza"));
+        assertFalse(buffer.contentEquals(text));
+        assertFalse(buffer.contentEquals("pizzo"));
+        assertFalse(buffer.contentEquals(null));
+        assertEquals('z', buffer.charAt(2));
+        assertEquals("izz", buffer.subSequence(1, 4).toString());
+
+        buffer.set((CharSequence) null);
+        assertEquals(0, buffer.length());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        QueryBuffer buffer = new QueryBuffer();
+        buffer.set("short");
+        buffer.set(text);
+        assertEquals(text.toString(), buffer.toString());
+
+        QueryBuffer copy = new QueryBuffer();
+        copy.set(buffer);
+        assertTrue(copy.contentEquals(text));
+    }
+
+    @Test
+    public void keepsTheStringItWasSetWith() {
+        QueryBuffer buffer = new QueryBuffer();
+        String text = "new york";
+        buffer.set(text);
+        assertSame(text, buffer.toString());
+
+        buffer.set(new StringBuilder("new yorker"));
+        String string = buffer.toString();
+        assertEquals("new yorker", string);
+        assertSame(string, buffer.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndicesPastTheLength() {
+        QueryBuffer buffer = new QueryBuffer();
+        buffer.set("abc");
+        buffer.charAt(3);
+    }
+
+    @Test
+    public void typingDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        //the same path as the text watcher of the search view, with a listener that reads the query
+        final QueryBuffer oldQuery = new QueryBuffer();
+        final int[] delivered = new int[1];
+        QueryChangeDispatcher dispatcher = new QueryChangeDispatcher(new QueryChangeDispatcher.Target() {
+            @Override
+            public void onDeliverQueryChange(CharSequence oldQuery, CharSequence newQuery) {
+                delivered[0] += newQuery.length() > 0 ? newQuery.charAt(newQuery.length() - 1) : 0;
+            }
+        });
+        StringBuilder editable = new StringBuilder(64);
+
+        //warm up, and grow the buffer to its final size
+        type(editable, oldQuery, dispatcher, 10000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        type(editable, oldQuery, dispatcher, 10000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(delivered[0] > 0);
+        //a few bytes for the measurement itself, a String per keystroke would be hundreds of KB
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    //types and erases queries of up to 40 chars
+    private static void type(StringBuilder editable, QueryBuffer oldQuery, QueryChangeDispatcher dispatcher,
+                             int keystrokes) {
+        for (int i = 0; i < keystrokes; i++) {
+            if (editable.length() == 40) {
+                editable.setLength(0);
+            } else {
+                editable.append((char) ('a' + i % 26));
+            }
+            if (!oldQuery.contentEquals(editable)) {
+                dispatcher.onQueryChanged(oldQuery, editable);
+            }
+            oldQuery.set(editable);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package tech.taoxi.libs.plainsearchview.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryChangeDispatcherTest {
+
+    private final List<String> mChanges = new ArrayList<>();
+    private QueryChangeDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mDispatcher = new QueryChangeDispatcher(new QueryChangeDispatcher.Target() {
+            @Override
+            public void onDeliverQueryChange(CharSequence oldQuery, CharSequence newQuery) {
+                mChanges.add(oldQuery + ">" + newQuery);
+            }
+        });
+    }
+
+    @Test
+    public void deliversImmediately() {
+        mDispatcher.onQueryChanged("", "p");
+        mDispatcher.onQueryChanged("p", "pi");
+        assertEquals(Arrays.asList(">p", "p>pi"), mChanges);
+    }
+
+    @Test
+    public void deliversImmediatelyWithoutDelay() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 0);
+        mDispatcher.onQueryChanged("", "p");
+        assertEquals(Collections.singletonList(">p"), mChanges);
+    }
+
+    @Test
+    public void coalescesDebouncedChanges() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 300);
+        mDispatcher.onQueryChanged("", "p");
+        mDispatcher.onQueryChanged("p", "pi");
+        mDispatcher.onQueryChanged("pi", "piz");
+        assertEquals(Collections.<String>emptyList(), mChanges);
+
+        mDispatcher.flush();
+        assertEquals(Collections.singletonList(">piz"), mChanges);
+        mDispatcher.flush();
+        assertEquals(1, mChanges.size());
+    }
+
+    @Test
+    public void copiesThePendingQueries() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 300);
+        StringBuilder oldQuery = new StringBuilder("p");
+        StringBuilder newQuery = new StringBuilder("pi");
+        mDispatcher.onQueryChanged(oldQuery, newQuery);
+        //the editable of the search input changes after every call
+        oldQuery.append("zz");
+        newQuery.append("zz");
+        mDispatcher.flush();
+        assertEquals(Collections.singletonList("p>pi"), mChanges);
+    }
+
+    @Test
+    public void skipsEditsThatRestoreTheQuery() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 300);
+        mDispatcher.onQueryChanged("pi", "piz");
+        mDispatcher.onQueryChanged("piz", "pi");
+        mDispatcher.flush();
+        assertEquals(Collections.<String>emptyList(), mChanges);
+    }
+
+    @Test
+    public void dropsCancelledChanges() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 300);
+        mDispatcher.onQueryChanged("", "p");
+        mDispatcher.cancel();
+        mDispatcher.flush();
+        assertEquals(Collections.<String>emptyList(), mChanges);
+    }
+
+    @Test
+    public void deliversPendingChangesBeforeChangingMode() {
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_DEBOUNCE, 300);
+        mDispatcher.onQueryChanged("", "p");
+        mDispatcher.setMode(QueryChangeDispatcher.MODE_IMMEDIATE, 0);
+        mDispatcher.onQueryChanged("p", "pi");
+        assertEquals(Arrays.asList(">p", "p>pi"), mChanges);
+    }
+}